@@ -0,0 +1,35 @@
+package templating;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so allocation rates are always reported.
+ * <p>Accepts all JMH command line options, e.g. {@code -p depth=4 ContextBenchmark}.</p>
+ * @author ralph
+ *
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Main method.
+	 * @param args - the JMH command line arguments
+	 * @throws RunnerException - when a benchmark fails
+	 * @throws CommandLineOptionException - when the arguments are invalid
+	 * @throws IOException - when the help cannot be printed
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+		CommandLineOptions cl = new CommandLineOptions(args);
+		if (cl.shouldHelp() || cl.shouldList() || cl.shouldListProfilers() || cl.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		new Runner(new OptionsBuilder().parent(cl).addProfiler(GCProfiler.class).build()).run();
+	}
+}
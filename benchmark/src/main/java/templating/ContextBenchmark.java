@@ -0,0 +1,56 @@
+package templating;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the construction of {@link Context} objects, i.e. reading configuration,
+ * localization and macro files.
+ * @author ralph
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextBenchmark {
+
+	/**
+	 * Creates the contexts down to the deepest directory.
+	 * <p>This is the baseline for {@link LocalizationBenchmark}.</p>
+	 * @param state - the tree
+	 * @return the context of the deepest directory
+	 */
+	@Benchmark
+	public Context createLeaf(TreeState state) {
+		return state.createLeafContext();
+	}
+
+	/**
+	 * Creates the contexts of all directories in the tree.
+	 * @param state - the tree
+	 * @param blackhole - consumes the contexts
+	 */
+	@Benchmark
+	public void createTree(TreeState state, Blackhole blackhole) {
+		createContexts(state.createRootContext(), blackhole);
+	}
+
+	protected static void createContexts(Context context, Blackhole blackhole) {
+		blackhole.consume(context);
+		for (Path child : context.getSubDirectories()) {
+			createContexts(new Context(context, child, new File(context.getOutputDir(), child.getFileName().toString())), blackhole);
+		}
+	}
+}
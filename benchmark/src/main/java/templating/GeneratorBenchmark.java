@@ -0,0 +1,63 @@
+package templating;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freemarker.template.TemplateException;
+
+/**
+ * Measures {@link Generator#generateFile(Path, String, File)} for a single file in the deepest directory.
+ * <p>The template is parsed once per trial, so this is the cost of rendering and writing.</p>
+ * @author ralph
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBenchmark {
+
+	private Generator generator;
+	private Path      templateFile;
+	private String    language;
+	private File      outFile;
+
+	/**
+	 * Creates the generator.
+	 * @param state - the tree
+	 */
+	@Setup(Level.Trial)
+	public void createGenerator(TreeState state) {
+		Context context = state.createLeafContext();
+		generator       = new Generator(context);
+		templateFile    = context.getSourceDirPath().resolve("file-0.txt");
+		language        = context.getLanguages().iterator().next();
+		outFile         = new File(new File(context.getOutputDir(), language), templateFile.getFileName().toString());
+	}
+
+	/**
+	 * Renders the file.
+	 * @throws IOException - when the file cannot be written
+	 * @throws TemplateException - when rendering fails
+	 */
+	@Benchmark
+	public void generateFile() throws IOException, TemplateException {
+		generator.generateFile(templateFile, language, outFile);
+	}
+}
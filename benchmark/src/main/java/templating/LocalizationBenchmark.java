@@ -0,0 +1,40 @@
+package templating;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link Context#getMergedLocalization(String)}.
+ * <p>Merged localizations are cached by the context, so each invocation creates fresh contexts
+ * down to the deepest directory. Subtract {@link ContextBenchmark#createLeaf(TreeState)} to get the merge cost.</p>
+ * @author ralph
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalizationBenchmark {
+
+	/**
+	 * Merges the localizations of all languages in the deepest directory.
+	 * @param state     - the tree
+	 * @param blackhole - consumes the localizations
+	 */
+	@Benchmark
+	public void mergeLeaf(TreeState state, Blackhole blackhole) {
+		Context context = state.createLeafContext();
+		for (String language : context.getLanguages()) {
+			blackhole.consume(context.getMergedLocalization(language));
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package templating;
+
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import templating.util.FileReadUtils;
+import templating.util.UnicodeInputStream;
+
+/**
+ * Measures reading a template file into a string.
+ * <p>{@code readFile} is the current {@link FileReadUtils#readFile(java.nio.file.Path, Charset)},
+ * {@code readStream} the former implementation that decodes through an {@link InputStreamReader}
+ * and a {@link CharArrayWriter}, reading the BOM-checked stream byte by byte. UTF files start with
+ * a byte order mark. The content is mostly ASCII with some non-ASCII characters, like typical templates.</p>
+ * @author ralph
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadBenchmark {
+
+	@Param({"16", "1024"})
+	public int sizeKb;
+	@Param({"UTF-8", "ISO-8859-1"})
+	public String encoding;
+
+	private File    file;
+	private Charset charset;
+
+	/**
+	 * Creates the template file.
+	 * @throws IOException - when the file cannot be written
+	 */
+	@Setup(Level.Trial)
+	public void createFile() throws IOException {
+		charset = Charset.forName(encoding);
+		file    = Files.createTempFile("template-machine-benchmark", ".txt").toFile();
+		StringBuilder content = new StringBuilder(charset.name().startsWith("UTF-") ? "\uFEFF" : "");
+		for (int line=0; content.length() < sizeKb*1024; line++) {
+			content.append("Line ").append(line).append(": ${value").append(line % 50).append("} - Gr\u00fc\u00dfe aus M\u00fcnchen\n");
+		}
+		FileUtils.writeStringToFile(file, content.toString(), charset);
+	}
+
+	/**
+	 * Deletes the template file.
+	 * @throws IOException - when the file cannot be deleted
+	 */
+	@TearDown(Level.Trial)
+	public void deleteFile() throws IOException {
+		Files.delete(file.toPath());
+	}
+
+	/**
+	 * Reads the file with the current implementation.
+	 * @return the content
+	 * @throws IOException - when the file cannot be read
+	 */
+	@Benchmark
+	public String readFile() throws IOException {
+		return FileReadUtils.readFile(file, charset);
+	}
+
+	/**
+	 * Reads the file with the former stream-based implementation.
+	 * @return the content
+	 * @throws IOException - when the file cannot be read
+	 */
+	@Benchmark
+	public String readStream() throws IOException {
+		Reader reader;
+		if (charset.name().toLowerCase().startsWith("utf-")) {
+			UnicodeInputStream in = new UnicodeInputStream(Files.newInputStream(file.toPath()), charset.name());
+			in.getEncoding();
+			reader = new InputStreamReader(new ByteWiseInputStream(in), charset);
+		} else {
+			reader = new InputStreamReader(Files.newInputStream(file.toPath()), charset);
+		}
+		try (Reader r = reader; CharArrayWriter writer = new CharArrayWriter()) {
+			char[] buffer = new char[64 * 1024];
+			int read;
+			while ((read = r.read(buffer)) != -1) writer.write(buffer, 0, read);
+			return new String(writer.toCharArray());
+		}
+	}
+
+	/**
+	 * A stream that reads single bytes only, as {@link UnicodeInputStream} did before.
+	 */
+	protected static class ByteWiseInputStream extends InputStream {
+
+		private InputStream in;
+
+		/**
+		 * Constructor.
+		 * @param in - the stream to read from
+		 */
+		public ByteWiseInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package templating;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Creates a synthetic source tree for benchmarking.
+ * <p>Each directory overrides a part of the localization values of its parent and contains
+ * template files that use localization values and a macro from the root templates.
+ * All values are deterministic, so two trees with the same parameters are identical.</p>
+ * @author ralph
+ *
+ */
+public class SyntheticTree {
+
+	/** Encoding of all files in the tree */
+	public static final Charset ENCODING = StandardCharsets.UTF_8;
+
+	private static final String LANGUAGES[] = { "de", "en", "fr", "es", "it", "nl", "pl", "pt", "sv", "da", "fi", "cs" };
+
+	private int depth;
+	private int fanOut;
+	private int languages;
+	private int keys;
+	private int files;
+	private int templateLines;
+
+	/**
+	 * Constructor with a small default tree.
+	 */
+	public SyntheticTree() {
+		this.depth         = 3;
+		this.fanOut        = 3;
+		this.languages     = 3;
+		this.keys          = 50;
+		this.files         = 2;
+		this.templateLines = 50;
+	}
+
+	/**
+	 * Creates the tree.
+	 * @param sourceDir - the directory to create the tree in
+	 * @return the configuration file of the tree
+	 * @throws IOException - when the tree cannot be written
+	 */
+	public File create(File sourceDir) throws IOException {
+		File configFile = new File(sourceDir, "template-machine.properties");
+		FileUtils.writeStringToFile(configFile, "languages="+String.join(",", getLanguageKeys())+"\n", ENCODING);
+		FileUtils.writeStringToFile(new File(sourceDir, "__templates/macros.ftl"),
+				"<#macro line key value>\n"+
+				"${key} = ${value}\n"+
+				"</#macro>\n", ENCODING);
+		createDirectory(sourceDir, "", 0);
+		return configFile;
+	}
+
+	/**
+	 * Creates a single directory and its sub directories.
+	 * @param dir   - the directory
+	 * @param path  - the path of the directory within the tree
+	 * @param level - the level of the directory (0 for the root)
+	 * @throws IOException - when the directory cannot be written
+	 */
+	protected void createDirectory(File dir, String path, int level) throws IOException {
+		// Root directory defines all keys, sub directories override every n-th key
+		int step = level == 0 ? 1 : level+1;
+		File localizationDir = new File(dir, "__localization");
+		writeLocalization(new File(localizationDir, "default.properties"), path+"/default", step);
+		for (String language : getLanguageKeys()) {
+			writeLocalization(new File(localizationDir, language+".properties"), path+"/"+language, step);
+		}
+
+		for (int i=0; i<files; i++) {
+			StringBuilder template = new StringBuilder();
+			template.append("<#import \"macros.ftl\" as m />\n");
+			template.append("# File ").append(i).append(" in ").append(path).append('\n');
+			for (int line=0; line<templateLines; line++) {
+				String key = "key"+((line * 7 + i) % keys);
+				if (line % 10 == 0) {
+					template.append("<@m.line key=\"").append(key).append("\" value=").append(key).append(" />\n");
+				} else {
+					template.append("Line ").append(line).append(": ${").append(key).append("} and some static text to be copied\n");
+				}
+			}
+			FileUtils.writeStringToFile(new File(dir, "file-"+i+".txt"), template.toString(), ENCODING);
+		}
+
+		if (level < depth) {
+			for (int i=0; i<fanOut; i++) {
+				createDirectory(new File(dir, "dir-"+i), path+"/dir-"+i, level+1);
+			}
+		}
+	}
+
+	/**
+	 * Writes a localization file.
+	 * @param file   - the file
+	 * @param prefix - the prefix of all values
+	 * @param step   - every n-th key will be written
+	 * @throws IOException - when the file cannot be written
+	 */
+	protected void writeLocalization(File file, String prefix, int step) throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int i=0; i<keys; i+=step) {
+			content.append("key").append(i).append(" = ").append(prefix).append(".value").append(i).append('\n');
+		}
+		FileUtils.writeStringToFile(file, content.toString(), ENCODING);
+	}
+
+	/**
+	 * Returns the language keys used in the tree.
+	 * @return the language keys
+	 */
+	public List<String> getLanguageKeys() {
+		List<String> rc = new ArrayList<>();
+		for (int i=0; i<languages; i++) {
+			rc.add(i < LANGUAGES.length ? LANGUAGES[i] : "l"+i);
+		}
+		return rc;
+	}
+
+	/**
+	 * Returns the number of directories in the tree.
+	 * @return the number of directories
+	 */
+	public int getDirectoryCount() {
+		int rc = 0, levelCount = 1;
+		for (int level=0; level<=depth; level++) {
+			rc += levelCount;
+			levelCount *= fanOut;
+		}
+		return rc;
+	}
+
+	/**
+	 * Returns the depth.
+	 * @return the number of directory levels below the root
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Sets the depth.
+	 * @param depth - the number of directory levels below the root
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * Returns the fan-out.
+	 * @return the number of sub directories in each directory
+	 */
+	public int getFanOut() {
+		return fanOut;
+	}
+
+	/**
+	 * Sets the fan-out.
+	 * @param fanOut - the number of sub directories in each directory
+	 */
+	public void setFanOut(int fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	/**
+	 * Returns the number of languages.
+	 * @return the number of languages
+	 */
+	public int getLanguages() {
+		return languages;
+	}
+
+	/**
+	 * Sets the number of languages.
+	 * @param languages - the number of languages
+	 */
+	public void setLanguages(int languages) {
+		this.languages = languages;
+	}
+
+	/**
+	 * Returns the number of keys.
+	 * @return the number of keys in the root localization files
+	 */
+	public int getKeys() {
+		return keys;
+	}
+
+	/**
+	 * Sets the number of keys.
+	 * @param keys - the number of keys in the root localization files
+	 */
+	public void setKeys(int keys) {
+		this.keys = keys;
+	}
+
+	/**
+	 * Returns the number of template files.
+	 * @return the number of template files in each directory
+	 */
+	public int getFiles() {
+		return files;
+	}
+
+	/**
+	 * Sets the number of template files.
+	 * @param files - the number of template files in each directory
+	 */
+	public void setFiles(int files) {
+		this.files = files;
+	}
+
+	/**
+	 * Returns the template size.
+	 * @return the number of lines in each template file
+	 */
+	public int getTemplateLines() {
+		return templateLines;
+	}
+
+	/**
+	 * Sets the template size.
+	 * @param templateLines - the number of lines in each template file
+	 */
+	public void setTemplateLines(int templateLines) {
+		this.templateLines = templateLines;
+	}
+}
@@ -0,0 +1,45 @@
+package templating;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import templating.util.GenerationInfo;
+
+/**
+ * Measures a full {@link TemplateMachine#generate()} of the tree.
+ * @author ralph
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplateMachineBenchmark {
+
+	@Param({"false", "true"})
+	public boolean parallel;
+
+	/**
+	 * Generates the tree into the same output directory each time.
+	 * @param state - the tree
+	 * @return the generation info
+	 */
+	@Benchmark
+	public GenerationInfo generate(TreeState state) {
+		TemplateMachine machine = new TemplateMachine(state.createRootContext());
+		machine.setParallel(parallel);
+		return machine.generate();
+	}
+}
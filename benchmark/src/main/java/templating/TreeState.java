@@ -0,0 +1,101 @@
+package templating;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark state holding a synthetic source tree.
+ * <p>The shape of the tree is controlled by the JMH parameters, e.g. {@code -p depth=4 -p languages=8}.</p>
+ * @author ralph
+ *
+ */
+@State(Scope.Benchmark)
+public class TreeState {
+
+	@Param({"3"})
+	public int depth;
+	@Param({"3"})
+	public int fanOut;
+	@Param({"3"})
+	public int languages;
+	@Param({"50"})
+	public int keys;
+	@Param({"2"})
+	public int files;
+	@Param({"50"})
+	public int templateLines;
+
+	public File       baseDir;
+	public File       sourceDir;
+	public File       outputDir;
+	public File       configFile;
+	public Properties config;
+	public Date       generationTime;
+
+	/**
+	 * Creates the tree.
+	 * @throws IOException - when the tree cannot be written
+	 */
+	@Setup(Level.Trial)
+	public void createTree() throws IOException {
+		SyntheticTree tree = new SyntheticTree();
+		tree.setDepth(depth);
+		tree.setFanOut(fanOut);
+		tree.setLanguages(languages);
+		tree.setKeys(keys);
+		tree.setFiles(files);
+		tree.setTemplateLines(templateLines);
+
+		baseDir        = Files.createTempDirectory("template-machine-benchmark").toFile();
+		sourceDir      = new File(baseDir, "source");
+		outputDir      = new File(baseDir, "output");
+		configFile     = tree.create(sourceDir);
+		config         = TemplateMachine.load(configFile);
+		generationTime = new Date();
+	}
+
+	/**
+	 * Deletes the tree.
+	 * @throws IOException - when the tree cannot be deleted
+	 */
+	@TearDown(Level.Trial)
+	public void deleteTree() throws IOException {
+		FileUtils.deleteDirectory(baseDir);
+	}
+
+	/**
+	 * Creates a new root context for the tree.
+	 * @return the root context
+	 */
+	public Context createRootContext() {
+		Context rc = new Context(sourceDir, outputDir, sourceDir, config);
+		rc.setReadEncoding(SyntheticTree.ENCODING);
+		rc.setWriteEncoding(SyntheticTree.ENCODING);
+		rc.setGenerationTime(generationTime);
+		rc.ignoreFile(configFile);
+		return rc;
+	}
+
+	/**
+	 * Creates the contexts of the path down to the deepest directory.
+	 * @return the context of the deepest directory
+	 */
+	public Context createLeafContext() {
+		Context rc = createRootContext();
+		for (int level=0; level<depth; level++) {
+			rc = new Context(rc, new File(rc.getSourceDir(), "dir-0"), new File(rc.getOutputDir(), "dir-0"));
+		}
+		return rc;
+	}
+}
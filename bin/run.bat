@@ -4,12 +4,27 @@
 
 @FOR %%a IN ("%BASENAME:~0,-1%") DO @SET ROOTDIR=%%~dpa
 
-@SET CLASSPATH=%ROOTDIR%resources
-@FOR %%i IN ("%ROOTDIR%*.jar") DO @SET CLASSPATH=%CLASSPATH%;%%i
+@REM Resources come last as class data sharing accepts directories only after all jars
+@FOR %%i IN ("%ROOTDIR%*.jar") DO @SET CLASSPATH=%%i
 
 @FOR %%i IN ("%ROOTDIR%lib\*.jar") DO @CALL SET CLASSPATH=!CLASSPATH!;%%i
+@SET CLASSPATH=%CLASSPATH%;%ROOTDIR%resources
 
 @SET JAVABIN=java
 @IF NOT "%JAVA_HOME%"=="" @SET JAVABIN=%JAVA_HOME%\bin\java
 
-@"%JAVABIN%" -Dfile.encoding=UTF-8 -cp "%CLASSPATH%" templating.TemplateMachine %*
+@REM Class data sharing archive, created by "run.bat --train"
+@SET CDS_ARCHIVE=%TEMPLATE_MACHINE_CDS_ARCHIVE%
+@IF "%CDS_ARCHIVE%"=="" @SET CDS_ARCHIVE=%ROOTDIR%lib\template-machine.jsa
+
+@IF "%~1"=="--train" (
+	@IF EXIST "%CDS_ARCHIVE%" @DEL /F "%CDS_ARCHIVE%"
+	@"%JAVABIN%" -XX:ArchiveClassesAtExit="%CDS_ARCHIVE%" -Xlog:cds=error,cds+dynamic=error -Dfile.encoding=UTF-8 -cp "%CLASSPATH%" templating.TemplateMachine --train
+	@EXIT /B !ERRORLEVEL!
+)
+
+@REM The archive is ignored when it does not match the Java version or the classpath
+@SET CDS_OPTS=
+@IF EXIST "%CDS_ARCHIVE%" @SET CDS_OPTS=-XX:SharedArchiveFile="%CDS_ARCHIVE%" -Xshare:auto -Xlog:cds=off,cds+dynamic=off
+
+@"%JAVABIN%" %CDS_OPTS% -Dfile.encoding=UTF-8 -cp "%CLASSPATH%" templating.TemplateMachine %*
@@ -8,11 +8,28 @@ else
         ROOTDIR=$(dirname "$BASEDIR")
 fi
 
-CLASSPATH=$(ls $ROOTDIR/template-machine-*.jar):$ROOTDIR/resources/
+# Resources come last as class data sharing accepts directories only after all jars
+CLASSPATH=$(ls $ROOTDIR/template-machine-*.jar)
 for file in $ROOTDIR/lib/*.jar
 do
         CLASSPATH=$CLASSPATH:$file
 done
+CLASSPATH=$CLASSPATH:$ROOTDIR/resources/
 
-java -cp $CLASSPATH templating.TemplateMachine "$@"
+# Class data sharing archive, created by "run.sh --train"
+CDS_ARCHIVE=${TEMPLATE_MACHINE_CDS_ARCHIVE:-$ROOTDIR/lib/template-machine.jsa}
 
+if [ "$1" = "--train" ]
+then
+        rm -f "$CDS_ARCHIVE"
+        exec java -XX:ArchiveClassesAtExit="$CDS_ARCHIVE" -Xlog:cds=error,cds+dynamic=error -cp $CLASSPATH templating.TemplateMachine --train
+fi
+
+# The archive is ignored when it does not match the Java version or the classpath
+CDS_OPTS=""
+if [ -f "$CDS_ARCHIVE" ]
+then
+        CDS_OPTS="-XX:SharedArchiveFile=$CDS_ARCHIVE -Xshare:auto -Xlog:cds=off,cds+dynamic=off"
+fi
+
+java $CDS_OPTS -cp $CLASSPATH templating.TemplateMachine "$@"
@@ -1,59 +1,83 @@
 package templating;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
-import java.text.SimpleDateFormat;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
 
-import templating.util.FileReadUtils;
+import templating.util.ContextCache;
+import templating.util.DirectorySnapshot;
+import templating.util.Localization;
+import templating.util.TemplateSource;
 
 /**
  * Holds all information and configuration in a directory.
+ * <p>The source side is accessed through {@link Path}s only, so templates can be read from any
+ * file system, e.g. a zip file system or an in-memory file system. The output side is a directory
+ * in the default file system.</p>
  * @author ralph
  *
  */
 public class Context {
 
 	/** Default configuration values (required in root context only) */
-	protected static Properties       defaultConfig;
-	private   static SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat("dd/MM/yyyy");
-	private   static SimpleDateFormat TIME_FORMATTER = new SimpleDateFormat("HH:mm:ss");
+	protected static final Properties        defaultConfig  = createDefaultConfig();
+	private   static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+	private   static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
 
 
 	// Root information
 	/** The source root directory where templates are located */
-	private File    sourceRoot;
+	private Path    sourceRoot;
 	/** the output root directory where files are generated */ 
 	private File    outputRoot;
 	/** the directory that is supposed to be generated only, usually equals {@link #sourceRoot} unless otherwise specified */
-	private File    subRoot;
+	private Path    subRoot;
+	/** the sub root below the source root as normalized absolute path, resolved on first use */
+	private volatile Path scope;
 	/** The time of generation */
 	private Date    generationTime;
+	/** The main configuration as given to the root context */
+	private Properties rootConfig;
 
 	// Direct context information
 	private Context                parent;
-	private File                   sourceDir;
+	private Path                   sourceDir;
 	private File                   outputDir;
 	private Charset                readEncoding;
 	private Charset                writeEncoding;
 	private Properties             config;
 	private Set<String>            languages;
-	private Map<String,Properties> localizations;
-	private Map<String,Map<String,String>> mergedLocalizations;
-	private Properties             templates;
-	private Set<File>              ignoredFiles;
+	private Map<String,Localization> localizations;
+	private Map<String,Localization> mergedLocalizations;
+	private Map<String,String>     fingerprints;
+	private volatile Map<String,TemplateSource> templates;
+	private Set<Path>              ignoredFiles;
+	private volatile DirectorySnapshot snapshot;
+	private volatile ContextCache      cache;
 	
 	/**
 	 * Root Constructor.
@@ -63,11 +87,23 @@ public class Context {
 	 * @param config    the main configuration to base all values on
 	 */
 	public Context(File sourceDir, File outputDir, File subRoot, Properties config) {
-		this.parent    = null;
-		this.sourceDir = sourceDir;
-		this.outputDir = outputDir;
-		this.subRoot   = subRoot;
-		this.config    = config;
+		this(sourceDir.toPath(), outputDir, subRoot != null ? subRoot.toPath() : null, config);
+	}
+
+	/**
+	 * Root Constructor for any file system.
+	 * @param sourceDir the source directory to be processed
+	 * @param outputDir the output directory where to write to
+	 * @param subRoot   the sub directory that shall be generated only (same file system as source directory)
+	 * @param config    the main configuration to base all values on
+	 */
+	public Context(Path sourceDir, File outputDir, Path subRoot, Properties config) {
+		this.parent     = null;
+		this.sourceDir  = sourceDir;
+		this.outputDir  = outputDir;
+		this.subRoot    = subRoot;
+		this.config     = config;
+		this.rootConfig = config;
 		initContext();
 	}
 
@@ -78,6 +114,16 @@ public class Context {
 	 * @param outputDir the output directory where to write to
 	 */
 	public Context(Context parent, File sourceDir, File outputDir) {
+		this(parent, sourceDir.toPath(), outputDir);
+	}
+
+	/**
+	 * Constructor for sub directories in any file system.
+	 * @param parent    the parent context (is {@code null} in root context)
+	 * @param sourceDir the source directory to be processed
+	 * @param outputDir the output directory where to write to
+	 */
+	public Context(Context parent, Path sourceDir, File outputDir) {
 		this.parent    = parent;
 		this.sourceDir = sourceDir;
 		this.outputDir = outputDir;
@@ -97,16 +143,15 @@ public class Context {
 			writeEncoding  = parent.writeEncoding;
 			config         = parent.config;
 			generationTime = parent.getGenerationTime();
-			templates      = new Properties(parent.getTemplates());
-			ignoredFiles   = new HashSet<>(parent.getIgnoredFiles());
+			ignoredFiles   = ConcurrentHashMap.newKeySet();
+			ignoredFiles.addAll(parent.getIgnoredFiles());
 		} else {
 			sourceRoot     = sourceDir;
 			outputRoot     = outputDir;
 			readEncoding   = Charset.defaultCharset();
 			writeEncoding  = Charset.defaultCharset();
 			generationTime = new Date();
-			templates      = new Properties();
-			ignoredFiles   = new HashSet<>();
+			ignoredFiles   = ConcurrentHashMap.newKeySet();
 		}
 
 		// Now load config for local context from .config file
@@ -115,9 +160,26 @@ public class Context {
 		// Load localizations
 		loadLocalizations();
 
-		// Load local templates
-		loadLocalTemplates();
+		// Local templates are loaded on first use
+	}
 
+	/**
+	 * Creates a new context for the same directory.
+	 * <p>All configuration, localization and template files of this directory are read again.
+	 * A root context keeps the encodings, the generation time and the files to be ignored.</p>
+	 * @param parent - the new parent context (ignored for root contexts)
+	 * @return the new context
+	 */
+	public Context reload(Context parent) {
+		if (this.parent == null) {
+			Context rc = new Context(sourceDir, outputDir, subRoot, rootConfig);
+			rc.setReadEncoding(readEncoding);
+			rc.setWriteEncoding(writeEncoding);
+			rc.setGenerationTime(generationTime);
+			rc.setIgnoredFiles(ignoredFiles);
+			return rc;
+		}
+		return new Context(parent, sourceDir, outputDir);
 	}
 
 	/**
@@ -126,10 +188,10 @@ public class Context {
 	 */
 	protected void loadLocalConfig() {
 		try {
-			File localConfigFile = new File(sourceDir, ".config");
-			if (localConfigFile.exists() && localConfigFile.canRead()) {
+			Path localConfigFile = sourceDir.resolve(".config");
+			if (isReadableFile(localConfigFile)) {
 				Properties p = new Properties(this.config);
-				p.load(new InputStreamReader(new FileInputStream(localConfigFile), readEncoding));
+				p.putAll(readProperties(localConfigFile));
 				this.config = p;
 			}
 		} catch (Throwable t) {
@@ -146,14 +208,39 @@ public class Context {
 		return config.getProperty(key, getDefaultConfig().getProperty(key));
 	}
 
+	/**
+	 * Reads a properties file.
+	 * <p>The values are taken from the context cache when the file did not change since it was cached.</p>
+	 * @param file - the file
+	 * @return the values
+	 * @throws IOException - when the file cannot be read
+	 */
+	protected Map<String,String> readProperties(Path file) throws IOException {
+		ContextCache        cache = getCache();
+		BasicFileAttributes attrs = cache != null ? getAttributes(file) : null;
+		if (attrs != null) {
+			Map<String,String> rc = cache.getProperties(file, attrs, readEncoding);
+			if (rc != null) return rc;
+		}
+		Properties p = new Properties();
+		try (InputStreamReader reader = new InputStreamReader(Files.newInputStream(file), readEncoding)) {
+			p.load(reader);
+		}
+		Map<String,String> rc = new HashMap<>();
+		for (String name : p.stringPropertyNames()) rc.put(name, p.getProperty(name));
+		if (attrs != null) cache.putProperties(file, attrs, readEncoding, rc);
+		return rc;
+	}
+
 	/**
 	 * Computes the required local languages and loads them.
 	 */
 	protected void loadLocalizations() {
 		if (this.localizations == null) {
 			this.localizations       = new HashMap<>();
-			this.mergedLocalizations = new HashMap<>();
-			this.languages           = new HashSet<>();
+			this.mergedLocalizations = new ConcurrentHashMap<>();
+			this.fingerprints        = new ConcurrentHashMap<>();
+			this.languages           = new LinkedHashSet<>();
 
 			// Load always default
 			loadLanguage("default", "default");
@@ -193,22 +280,18 @@ public class Context {
 	 */
 	protected void loadLanguage(String key, String loadKey) {
 		try {
-			Properties values       = new Properties();
-			if (parent != null) {
-				// Get the language from parent (stored under key)
-				Properties parentValues = parent.getLocalizations(key);
-				if (parentValues != null) values.putAll(parentValues);
-				// Get the language from parent (stored under loadKey)
-				parentValues = parent.getLocalizations(loadKey);
-				if (parentValues != null) values.putAll(parentValues);
+			Map<String,String> values = Collections.emptyMap();
+			Path lFile = sourceDir.resolve(getConfigString("localizationDir")).resolve(loadKey+".properties");
+			if (isReadableFile(lFile)) {
+				values = readProperties(lFile);
 			}
 
-			File lFile = new File(new File(sourceDir, getConfigString("localizationDir")), loadKey+".properties");
-			if (lFile.isFile() && lFile.canRead()) {
-				values.load(new InputStreamReader(new FileInputStream(lFile), readEncoding));
+			// Local values override the parent language (stored under loadKey), which overrides the parent language (stored under key)
+			if (parent != null) {
+				localizations.put(key, Localization.of(values, parent.getLocalizations(loadKey), parent.getLocalizations(key)));
+			} else {
+				localizations.put(key, Localization.of(values));
 			}
-
-			localizations.put(key, values);
 		} catch (Throwable t) {
 			throw new TemplatingException("Cannot load language \""+key+"\" from key +\""+loadKey+"\"", t);
 		}
@@ -228,14 +311,18 @@ public class Context {
 		}
 
 		// Now add each language that is available in local folder
-		File lDir = new File(sourceDir, getConfigString("localizationDir"));
-		if (lDir.exists() && lDir.isDirectory() && lDir.canRead()) {
-			for (File child : lDir.listFiles()) {
-				if (child.isFile() && child.canRead() && isValidFile(child)) {
-					String language = FilenameUtils.getBaseName(child.getName());
-					loadLanguage(language, language);
-					if (!language.equalsIgnoreCase("default")) languages.add(language);
+		Path lDir = sourceDir.resolve(getConfigString("localizationDir"));
+		if (isReadableDirectory(lDir)) {
+			try {
+				for (Map.Entry<Path,BasicFileAttributes> child : listDirectory(lDir).entrySet()) {
+					if (child.getValue().isRegularFile() && isValidFile(child.getKey()) && isReadable(child.getKey())) {
+						String language = FilenameUtils.getBaseName(child.getKey().getFileName().toString());
+						loadLanguage(language, language);
+						if (!language.equalsIgnoreCase("default")) languages.add(language);
+					}
 				}
+			} catch (IOException e) {
+				throw new TemplatingException("Cannot list languages in "+lDir, e);
 			}
 		}
 
@@ -243,10 +330,10 @@ public class Context {
 
 	/**
 	 * Returns all languages in this context.
-	 * @return the languages available
+	 * @return the languages available, in configuration order
 	 */
 	public Collection<String> getLanguages() {
-		return languages;
+		return Collections.unmodifiableSet(languages);
 	}
 
 	/**
@@ -266,8 +353,8 @@ public class Context {
 	 * @param key key of language (can be e.g. {@code de-de} or {@code de})
 	 * @return the localization, country-specific or general or {@code null}. 
 	 */
-	protected Properties getLocalizations(String key) {
-		Properties rc = localizations.get(key);
+	protected Localization getLocalizations(String key) {
+		Localization rc = localizations.get(key);
 		if ((rc == null) && (key.indexOf('-') == 2)) {
 			rc = localizations.get(key.substring(0, 2));
 		}
@@ -276,55 +363,80 @@ public class Context {
 
 	/**
 	 * Merge all language keys so all values are available for a specific language.
+	 * <p>The returned map is shared by all renderings of this context and cannot be modified.
+	 * Values are looked up in the localization layers, nothing is copied.</p>
 	 * @param language - the language key
 	 * @return all keys including from default language
 	 */
-	protected Map<String,String> getMergedLocalization(String language) {
-		Map<String,String> rc = mergedLocalizations.get(language);
-		if (rc == null) {
-			rc = new HashMap<>();
+	protected Localization getMergedLocalization(String language) {
+		return mergedLocalizations.computeIfAbsent(language, this::mergeLocalization);
+	}
 
-			Properties defaults = localizations.get("default");
-			if (defaults != null) {
-				for (Map.Entry<Object, Object> entry : defaults.entrySet()) {
-					//System.out.println(language+": Adding default."+entry.getKey()+"="+entry.getValue());
-					rc.put((String)entry.getKey(), (String)entry.getValue());
-				}
+	/**
+	 * Merges the default and the language values.
+	 * @param language - the language key
+	 * @return all keys including from default language
+	 */
+	private Localization mergeLocalization(String language) {
+		// Set default values
+		Map<String,String> rc = new HashMap<>();
+		rc.put("languageKey", language);
+		rc.put("runDate", DATE_FORMATTER.format(getGenerationTime().toInstant().atZone(ZoneId.systemDefault())));
+		rc.put("runTime", TIME_FORMATTER.format(getGenerationTime().toInstant().atZone(ZoneId.systemDefault())));
+
+		// Language values override default values
+		return new Localization(rc, localizations.get(language), localizations.get("default"));
+	}
+
+	/**
+	 * Returns a fingerprint of the configuration and localization values for a specific language.
+	 * <p>The fingerprint changes whenever any {@code .config} or localization file in the
+	 * parent chain changes a value that is visible in this context. The run-specific values
+	 * {@code runDate} and {@code runTime} are not part of the fingerprint.</p>
+	 * @param language - the language key
+	 * @return the hex-encoded SHA-256 fingerprint
+	 */
+	public String getFingerprint(String language) {
+		return fingerprints.computeIfAbsent(language, key -> {
+			StringBuilder values = new StringBuilder();
+			for (String name : new TreeMap<>(getConfigMap()).keySet()) {
+				values.append("config.").append(name).append('=').append(getConfigString(name)).append('\n');
 			}
-			Properties values = localizations.get(language);
-			if (values != null) {
-				for (Map.Entry<Object, Object> entry : values.entrySet()) {
-					//System.out.println(language+": Adding local."+entry.getKey()+"="+entry.getValue());
-					rc.put((String)entry.getKey(), (String)entry.getValue());
-				}
+			Map<String,String> localization = new TreeMap<>(getMergedLocalization(key));
+			localization.remove("runDate");
+			localization.remove("runTime");
+			for (Map.Entry<String,String> entry : localization.entrySet()) {
+				values.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
 			}
+			return DigestUtils.sha256Hex(values.toString());
+		});
+	}
 
-			// Set default values
-			rc.put("languageKey", language);
-			rc.put("runDate", DATE_FORMATTER.format(getGenerationTime()));
-			rc.put("runTime", TIME_FORMATTER.format(getGenerationTime()));
-
-			mergedLocalizations.put(language, rc);
-		}
+	/**
+	 * Returns all configuration values valid for this context (including defaults).
+	 * @return the configuration values
+	 */
+	protected Map<String,String> getConfigMap() {
+		Map<String,String> rc = new HashMap<>();
+		for (String name : getDefaultConfig().stringPropertyNames()) rc.put(name, getConfigString(name));
+		for (String name : config.stringPropertyNames()) rc.put(name, getConfigString(name));
 		return rc;
 	}
 
 
 	/**
 	 * Override parent definitions of templates.
+	 * <p>Only names and files are indexed, the content is read when a template is used first.</p>
+	 * @return the templates defined in this directory
 	 */
-	protected void loadLocalTemplates() {
+	protected Map<String,TemplateSource> loadLocalTemplates() {
 		try {
-			File tDir = new File(sourceDir, getConfigString("templateDir"));
-			if (tDir.exists() && tDir.isDirectory() && tDir.canRead()) {
-				for (File child : tDir.listFiles()) {
-					if (child.isFile() && child.canRead() && isValidFile(child)) {
-						templates.setProperty(child.getName(), FileReadUtils.readFile(child, readEncoding));
-					} else if (child.isDirectory() && child.canRead()) {
-						loadLocalSubTemplates(child.getName(), child);
-					}
-				}
+			Map<String,TemplateSource> rc = new HashMap<>();
+			Path tDir = sourceDir.resolve(getConfigString("templateDir"));
+			if (isReadableDirectory(tDir)) {
+				loadLocalSubTemplates(rc, null, tDir);
 			}
+			return rc;
 		} catch (Throwable t) {
 			throw new TemplatingException("Cannot load local templates", t);
 		}
@@ -332,26 +444,205 @@ public class Context {
 
 	/**
 	 * Load recursively templates in sub folders.
-	 * @param namePrefix   the prefix of the template name (name of folder)
+	 * @param templates    the templates to add to
+	 * @param namePrefix   the prefix of the template name (name of folder, {@code null} for the template directory)
 	 * @param dir          the folder to read
-	 * @throws IOException when the template cannot be read
-	 */
-	protected void loadLocalSubTemplates(String namePrefix, File dir) throws IOException {
-		for (File child : dir.listFiles()) {
-			if (child.isFile() && child.canRead() && isValidFile(child)) {
-				templates.setProperty(namePrefix+"/"+child.getName(), FileReadUtils.readFile(child, readEncoding));
-			} else if (child.isDirectory()) {
-				loadLocalSubTemplates(namePrefix+"/"+child.getName(), child);
+	 * @throws IOException when the folder cannot be read
+	 */
+	protected void loadLocalSubTemplates(Map<String,TemplateSource> templates, String namePrefix, Path dir) throws IOException {
+		for (Map.Entry<Path,BasicFileAttributes> entry : listDirectory(dir).entrySet()) {
+			Path   child = entry.getKey();
+			String name  = namePrefix != null ? namePrefix+"/"+child.getFileName() : child.getFileName().toString();
+			if (entry.getValue().isRegularFile() && isValidFile(child) && isReadable(child)) {
+				ContextCache cache   = getCache();
+				String       content = cache != null ? cache.getText(child, entry.getValue(), readEncoding) : null;
+				templates.put(name, content != null ? new TemplateSource(name, child, content) : new TemplateSource(name, child, readEncoding, cache, entry.getValue()));
+			} else if (entry.getValue().isDirectory() && isReadable(child)) {
+				loadLocalSubTemplates(templates, name, child);
 			}
 		}
 	}
 
+	/**
+	 * Lists a directory and reads the attributes of all children.
+	 * <p>Each child costs a single attribute read, so callers do not need to query
+	 * type and size separately. Children removed while listing are skipped.
+	 * The directory snapshot is used when it contains the directory.</p>
+	 * @param dir - the directory
+	 * @return the children and their attributes in listing order
+	 * @throws IOException - when the directory cannot be read
+	 */
+	protected Map<Path,BasicFileAttributes> listDirectory(Path dir) throws IOException {
+		DirectorySnapshot snapshot = getSnapshot();
+		if ((snapshot != null) && snapshot.isListed(dir)) return snapshot.list(dir);
+		Map<Path,BasicFileAttributes> rc = new LinkedHashMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path child : stream) {
+				try {
+					rc.put(child, Files.readAttributes(child, BasicFileAttributes.class));
+				} catch (NoSuchFileException e) {
+					// Removed meanwhile
+				}
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * Returns the attributes of a file or directory.
+	 * @param path - the path
+	 * @return the attributes or {@code null} when the path does not exist
+	 */
+	protected BasicFileAttributes getAttributes(Path path) {
+		DirectorySnapshot snapshot = getSnapshot();
+		if ((snapshot != null) && snapshot.covers(path)) return snapshot.getAttributes(path);
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether a file or directory is readable.
+	 * @param path - the path
+	 * @return {@code true} when the path exists and can be read
+	 */
+	protected boolean isReadable(Path path) {
+		DirectorySnapshot snapshot = getSnapshot();
+		Boolean rc = snapshot != null ? snapshot.isReadable(path) : null;
+		return rc != null ? rc : Files.isReadable(path);
+	}
+
+	/**
+	 * Returns whether a path exists.
+	 * @param path - the path
+	 * @return {@code true} when the path exists
+	 */
+	protected boolean exists(Path path) {
+		return getAttributes(path) != null;
+	}
+
+	/**
+	 * Returns whether a path is a readable regular file.
+	 * @param path - the path
+	 * @return {@code true} when the file exists and can be read
+	 */
+	protected boolean isReadableFile(Path path) {
+		BasicFileAttributes attrs = getAttributes(path);
+		return (attrs != null) && attrs.isRegularFile() && isReadable(path);
+	}
+
+	/**
+	 * Returns whether a path is a readable directory.
+	 * @param path - the path
+	 * @return {@code true} when the directory exists and can be read
+	 */
+	protected boolean isReadableDirectory(Path path) {
+		BasicFileAttributes attrs = getAttributes(path);
+		return (attrs != null) && attrs.isDirectory() && isReadable(path);
+	}
+
+	/**
+	 * Returns the snapshot of the source tree that is used instead of the file system.
+	 * @return the snapshot of the root context or {@code null} when the file system is used
+	 */
+	public DirectorySnapshot getSnapshot() {
+		return parent != null ? parent.getSnapshot() : snapshot;
+	}
+
+	/**
+	 * Sets the snapshot of the source tree (root context only).
+	 * <p>All contexts consult the snapshot while it is set, so changes to the source tree
+	 * will not be noticed until the snapshot is removed again.</p>
+	 * @param snapshot - the snapshot or {@code null} when the file system shall be used
+	 */
+	public void setSnapshot(DirectorySnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Returns the cache of parsed configuration, localization and macro template files.
+	 * @return the cache of the root context or {@code null} when all files are read
+	 */
+	public ContextCache getCache() {
+		return parent != null ? parent.getCache() : cache;
+	}
+
+	/**
+	 * Sets the cache of parsed configuration, localization and macro template files (root context only).
+	 * <p>Files are taken from the cache while it is set, unless they changed since they were cached.</p>
+	 * @param cache - the cache or {@code null} when all files shall be read
+	 */
+	public void setCache(ContextCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the template files to be generated in this directory.
+	 * @return the readable files that are neither special nor ignored, in listing order
+	 */
+	public List<Path> getTemplateFiles() {
+		try {
+			List<Path> rc = new ArrayList<>();
+			for (Map.Entry<Path,BasicFileAttributes> entry : listDirectory(sourceDir).entrySet()) {
+				Path child = entry.getKey();
+				if (entry.getValue().isRegularFile() && !isSpecialFile(child) && isValidFile(child) && isReadable(child)) rc.add(child);
+			}
+			return rc;
+		} catch (IOException e) {
+			throw new TemplatingException("Cannot list files in "+sourceDir, e);
+		}
+	}
+
+	/**
+	 * Returns the sub directories to be generated.
+	 * @return the readable directories that are neither special nor out of scope, in listing order
+	 */
+	public List<Path> getSubDirectories() {
+		try {
+			List<Path> rc = new ArrayList<>();
+			for (Map.Entry<Path,BasicFileAttributes> entry : listDirectory(sourceDir).entrySet()) {
+				Path child = entry.getKey();
+				if (entry.getValue().isDirectory() && !isSpecialFile(child) && isReadable(child) && isInScope(child)) rc.add(child);
+			}
+			return rc;
+		} catch (IOException e) {
+			throw new TemplatingException("Cannot list directories in "+sourceDir, e);
+		}
+	}
+
 	/**
 	 * Returns the templates.
+	 * <p>The templates of parent directories are included as defaults. All template files
+	 * are read for this and changing the result has no effect on this context.</p>
 	 * @return the templates
+	 * @deprecated templates are read on first use, use {@link #getLocalTemplates()} or {@link #getTemplateSource(String)}
 	 */
+	@Deprecated
 	public Properties getTemplates() {
-		return templates;
+		Properties rc = new Properties(parent != null ? parent.getTemplates() : null);
+		for (Map.Entry<String,TemplateSource> entry : getLocalTemplates().entrySet()) {
+			rc.setProperty(entry.getKey(), entry.getValue().getContent());
+		}
+		return rc;
+	}
+
+	/**
+	 * Returns the templates defined in this directory.
+	 * <p>Templates from parent directories are not included. The template directory
+	 * is read on first use, so directories whose templates are never needed are not read at all.</p>
+	 * @return the templates
+	 */
+	public Map<String,TemplateSource> getLocalTemplates() {
+		Map<String,TemplateSource> rc = templates;
+		if (rc == null) {
+			synchronized (this) {
+				if (templates == null) templates = loadLocalTemplates();
+				rc = templates;
+			}
+		}
+		return rc;
 	}
 
 	/**
@@ -360,7 +651,19 @@ public class Context {
 	 * @return the template if exists, {@code null} otherwise
 	 */
 	public String getTemplate(String name) {
-		return templates.getProperty(name);
+		TemplateSource source = getTemplateSource(name);
+		return source != null ? source.getContent() : null;
+	}
+
+	/**
+	 * Returns the source of the template with given name.
+	 * @param name - name of template (may be from parents)
+	 * @return the template source if exists, {@code null} otherwise
+	 */
+	public TemplateSource getTemplateSource(String name) {
+		TemplateSource rc = getLocalTemplates().get(name);
+		if ((rc == null) && (parent != null)) rc = parent.getTemplateSource(name);
+		return rc;
 	}
 
 	/**
@@ -381,9 +684,18 @@ public class Context {
 
 	/**
 	 * Returns the sourceRoot.
+	 * <p>Works for the default file system only, use {@link #getSourceRootPath()} otherwise.</p>
 	 * @return the sourceRoot
 	 */
 	public File getSourceRoot() {
+		return sourceRoot.toFile();
+	}
+
+	/**
+	 * Returns the sourceRoot.
+	 * @return the sourceRoot
+	 */
+	public Path getSourceRootPath() {
 		return sourceRoot;
 	}
 
@@ -392,7 +704,8 @@ public class Context {
 	 * @param sourceRoot - the sourceRoot to set
 	 */
 	public void setSourceRoot(File sourceRoot) {
-		this.sourceRoot = sourceRoot;
+		this.sourceRoot = sourceRoot.toPath();
+		this.scope      = null;
 	}
 
 	/**
@@ -413,9 +726,18 @@ public class Context {
 
 	/**
 	 * Returns the subRoot.
+	 * <p>Works for the default file system only, use {@link #getSubRootPath()} otherwise.</p>
 	 * @return the subRoot
 	 */
 	public File getSubRoot() {
+		return subRoot != null ? subRoot.toFile() : null;
+	}
+
+	/**
+	 * Returns the subRoot.
+	 * @return the subRoot
+	 */
+	public Path getSubRootPath() {
 		return subRoot;
 	}
 
@@ -424,7 +746,8 @@ public class Context {
 	 * @param subRoot - the subRoot to set
 	 */
 	public void setSubRoot(File subRoot) {
-		this.subRoot = subRoot;
+		this.subRoot = subRoot != null ? subRoot.toPath() : null;
+		this.scope   = null;
 	}
 
 	/**
@@ -445,9 +768,18 @@ public class Context {
 
 	/**
 	 * Returns the sourceDir.
+	 * <p>Works for the default file system only, use {@link #getSourceDirPath()} otherwise.</p>
 	 * @return the sourceDir
 	 */
 	public File getSourceDir() {
+		return sourceDir.toFile();
+	}
+
+	/**
+	 * Returns the sourceDir.
+	 * @return the sourceDir
+	 */
+	public Path getSourceDirPath() {
 		return sourceDir;
 	}
 
@@ -456,7 +788,7 @@ public class Context {
 	 * @param sourceDir - the sourceDir to set
 	 */
 	public void setSourceDir(File sourceDir) {
-		this.sourceDir = sourceDir;
+		this.sourceDir = sourceDir.toPath();
 	}
 
 	/**
@@ -514,39 +846,111 @@ public class Context {
 	 */
 	public boolean canGenerateDirectory() {
 		try {
-			return (subRoot == null) || subRoot.equals(sourceDir) || FileUtils.directoryContains(subRoot, sourceDir);
+			return (subRoot == null) || subRoot.equals(sourceDir) || normalize(sourceDir).startsWith(getScope());
 		} catch (Throwable t) {
 			throw new TemplatingException("Cannot detect whether subDir belongs to subRoot", t);
 		}
 	}
 
+	/**
+	 * Returns whether a directory needs to be entered for generation.
+	 * <p>This is the case when the directory is within the sub root or on the path to it.
+	 * All other directories are neither read nor generated.</p>
+	 * @param dir - the directory
+	 * @return {@code true} when the directory is on the path to the sub root or within it
+	 */
+	public boolean isInScope(File dir) {
+		return isInScope(dir.toPath());
+	}
+
+	/**
+	 * Returns whether a directory needs to be entered for generation.
+	 * @param dir - the directory
+	 * @return {@code true} when the directory is on the path to the sub root or within it
+	 * @see #isInScope(File)
+	 */
+	public boolean isInScope(Path dir) {
+		if (subRoot == null) return true;
+		try {
+			Path dirPath   = normalize(dir);
+			Path scopePath = getScope();
+			return dirPath.startsWith(scopePath) || scopePath.startsWith(dirPath);
+		} catch (Throwable t) {
+			throw new TemplatingException("Cannot detect whether "+dir+" is in scope of subRoot", t);
+		}
+	}
+
+	/**
+	 * Returns the sub root as seen from the source root.
+	 * <p>The real paths of source root and sub root are resolved once per tree, so symbolic links in either
+	 * path are followed. The directories of the tree can then be compared by their normalized absolute
+	 * paths without querying the file system again.</p>
+	 * @return the normalized absolute path of the sub root below the source root, or its real path when it is outside
+	 * @throws IOException - when the paths cannot be resolved
+	 */
+	protected Path getScope() throws IOException {
+		Path rc = scope;
+		if (rc == null) {
+			if ((parent != null) && (parent.subRoot == subRoot)) {
+				rc = parent.getScope();
+			} else {
+				Path realRoot    = sourceRoot.toRealPath();
+				Path realSubRoot = subRoot.toRealPath();
+				rc = realSubRoot.startsWith(realRoot) ? normalize(sourceRoot).resolve(realRoot.relativize(realSubRoot).toString()) : realSubRoot;
+			}
+			scope = rc;
+		}
+		return rc;
+	}
+
+	/**
+	 * Returns the normalized absolute path without resolving symbolic links.
+	 * @param path - the path
+	 * @return the normalized absolute path
+	 */
+	protected static Path normalize(Path path) {
+		return path.toAbsolutePath().normalize();
+	}
+
 	/**
 	 * Returns the default configuration.
 	 * @return the configuration defaults
 	 */
 	public static Properties getDefaultConfig() {
-		if (defaultConfig == null) {
-			defaultConfig = new Properties();
-			defaultConfig.setProperty("languages",       "auto");
-			defaultConfig.setProperty("localizationDir", "__localization");
-			defaultConfig.setProperty("templateDir",     "__templates");
-		}
 		return defaultConfig;
 	}
 
+	/**
+	 * Creates the default configuration.
+	 * <p>The defaults are created once when the class is loaded, so all threads see the same values.</p>
+	 * @return the configuration defaults
+	 */
+	private static Properties createDefaultConfig() {
+		Properties rc = new Properties();
+		rc.setProperty("languages",       "auto");
+		rc.setProperty("localizationDir", "__localization");
+		rc.setProperty("templateDir",     "__templates");
+		return rc;
+	}
+
 	/**
 	 * Sets the ignoredFiles.
+	 * <p>The files are copied, so later changes to the given set have no effect.</p>
 	 * @param ignoredFiles - the ignoredFiles to set
 	 */
-	public void setIgnoredFiles(Set<File> ignoredFiles) {
-		this.ignoredFiles = ignoredFiles;
+	public void setIgnoredFiles(Set<Path> ignoredFiles) {
+		Set<Path> files = ConcurrentHashMap.newKeySet();
+		for (Path file : ignoredFiles) {
+			if (file != null) files.add(file);
+		}
+		this.ignoredFiles = files;
 	}
 
 	/**
 	 * Returns the ignoredFiles.
 	 * @return the ignoredFiles
 	 */
-	public Set<File> getIgnoredFiles() {
+	public Set<Path> getIgnoredFiles() {
 		return ignoredFiles;
 	}
 
@@ -555,7 +959,15 @@ public class Context {
 	 * @param file file to be ignored
 	 */
 	public void ignoreFile(File file) {
-		ignoredFiles.add(file);
+		if (file != null) ignoreFile(file.toPath());
+	}
+
+	/**
+	 * Adds file to list of ignore files.
+	 * @param file file to be ignored
+	 */
+	public void ignoreFile(Path file) {
+		if (file != null) ignoredFiles.add(file);
 	}
 	
 	/**
@@ -565,8 +977,18 @@ public class Context {
 	 * @return {@code true} when file can be used in template reading
 	 */
 	public boolean isValidFile(File file) {
+		return isValidFile(file.toPath());
+	}
+
+	/**
+	 * Returns true when a file (template or localization) can be used for templating.
+	 * @param file - the file to be checked
+	 * @return {@code true} when file can be used in template reading
+	 * @see #isValidFile(File)
+	 */
+	public boolean isValidFile(Path file) {
 		if (ignoredFiles.contains(file)) return false;
-		String name = file.getName();
+		String name = String.valueOf(file.getFileName());
 		if (name.startsWith(".")) return false;
 		if (name.endsWith("~")) return false;
 		if (name.endsWith(".bak")) return false;
@@ -579,8 +1001,18 @@ public class Context {
 	 * @return {@code true} when the file has a special meaning, {@code false} otherwise
 	 */
 	public boolean isSpecialFile(File file) {
-		if (file.getName().equals(getConfigString("templateDir"))) return true;	
-		if (file.getName().equals(getConfigString("localizationDir"))) return true;
+		return isSpecialFile(file.toPath());
+	}
+
+	/**
+	 * Tests whether the file is any of the special files or directories in the config
+	 * @param file - the file to test
+	 * @return {@code true} when the file has a special meaning, {@code false} otherwise
+	 */
+	public boolean isSpecialFile(Path file) {
+		String name = String.valueOf(file.getFileName());
+		if (name.equals(getConfigString("templateDir"))) return true;	
+		if (name.equals(getConfigString("localizationDir"))) return true;
 		if (ignoredFiles.contains(file)) return true;
 		return false;
 	}
@@ -591,12 +1023,12 @@ public class Context {
 	 * @return the relative path
 	 * @throws IOException - when an exception occurs
 	 */
-	protected String getRelativePath(File file) throws IOException {
+	protected String getRelativePath(Path file) throws IOException {
 		String path = "";
 		if (parent != null) {
 			path = parent.getRelativePath(sourceDir) + File.separator;
 		}
-		return path + file.getName();
+		return path + file.getFileName();
 	}
 
 }
@@ -0,0 +1,254 @@
+package templating;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FilenameUtils;
+
+import templating.util.GenerationInfo;
+import templating.util.TimingHistory;
+
+/**
+ * All files of a run, planned before any file is generated and executed most expensive first.
+ * <p>The plan loads the contexts of all directories and collects the render jobs of each directory.
+ * The cost of a job is its render time in previous runs or, for new files, estimated from the size of
+ * its template. The threads take the most expensive job that is left whenever they become idle, so jobs
+ * of a large directory are spread over all threads and the run does not end with a single thread working
+ * on the last directory.</p>
+ * <p>Output and statistics are the same as in {@link TemplateMachine#generateRecursively(Context)}.
+ * When a job fails, jobs after it in directory order are no longer started, but the jobs before it are still
+ * executed. So the first error in directory order is reported, as in a sequential run.</p>
+ * @author ralph
+ *
+ */
+public class GenerationPlan {
+
+	/** Estimated render time per byte of a template when no file has a history (ns) */
+	protected static final double DEFAULT_NANOS_PER_BYTE = 1000;
+
+	private TemplateMachine machine;
+	private TimingHistory   history;
+	private List<Directory> directories;
+	private List<Unit>      units;
+
+	/**
+	 * Constructor.
+	 * @param machine - the machine that creates contexts and generators
+	 * @param history - the render times of previous runs, receives the times of this run ({@code null} when estimating from sizes only)
+	 */
+	public GenerationPlan(TemplateMachine machine, TimingHistory history) {
+		this.machine     = machine;
+		this.history     = history;
+		this.directories = new ArrayList<>();
+		this.units       = new ArrayList<>();
+	}
+
+	/**
+	 * Adds the jobs of a directory and all its sub directories.
+	 * @param context - the context of the directory
+	 * @throws IOException - when the template paths cannot be resolved
+	 */
+	public void add(Context context) throws IOException {
+		Generator       generator = machine.createGenerator(context);
+		List<RenderJob> jobs      = generator.prepare();
+		Directory       directory = new Directory(context, generator, jobs);
+		directories.add(directory);
+		if (jobs != null) {
+			for (RenderJob job : jobs) {
+				String path = FilenameUtils.separatorsToUnix(context.getRelativePath(job.getTemplateFile()));
+				BasicFileAttributes attrs = context.getAttributes(job.getTemplateFile());
+				Unit unit = new Unit(directory, job, units.size(), TimingHistory.getKey(path, job.getLanguage()), attrs != null ? attrs.size() : 0);
+				if (history != null) unit.history = history.get(unit.key);
+				units.add(unit);
+			}
+			if (jobs.isEmpty()) generator.finish(jobs, 0);
+		}
+		for (Path child : context.getSubDirectories()) {
+			add(machine.createContext(context, child));
+		}
+	}
+
+	/**
+	 * Returns the number of files planned.
+	 * @return the number of render jobs
+	 */
+	public int size() {
+		return units.size();
+	}
+
+	/**
+	 * Returns the jobs in execution order.
+	 * <p>Jobs without history are estimated from their template size, using the average time per byte
+	 * of the jobs with history. Jobs of the same cost keep their directory order.</p>
+	 * @return the jobs, most expensive first
+	 */
+	public List<RenderJob> getSchedule() {
+		List<RenderJob> rc = new ArrayList<>();
+		for (Unit unit : schedule()) rc.add(unit.job);
+		return rc;
+	}
+
+	/**
+	 * Estimates the costs and sorts the jobs.
+	 * @return the units, most expensive first
+	 */
+	protected List<Unit> schedule() {
+		long nanos = 0;
+		long bytes = 0;
+		for (Unit unit : units) {
+			if (unit.history != null) {
+				nanos += unit.history;
+				bytes += unit.size;
+			}
+		}
+		double nanosPerByte = (bytes > 0) && (nanos > 0) ? (double)nanos / bytes : DEFAULT_NANOS_PER_BYTE;
+		for (Unit unit : units) {
+			unit.cost = unit.history != null ? unit.history : unit.size * nanosPerByte;
+		}
+		List<Unit> rc = new ArrayList<>(units);
+		Collections.sort(rc, Comparator.comparingDouble((Unit unit) -> unit.cost).reversed().thenComparingInt(unit -> unit.index));
+		return rc;
+	}
+
+	/**
+	 * Executes all jobs.
+	 * @param threads - the number of threads
+	 * @return the generation information of all directories (statistics)
+	 * @throws TemplatingException - when any job failed
+	 */
+	public GenerationInfo execute(int threads) {
+		List<Unit>    schedule = schedule();
+		AtomicInteger next     = new AtomicInteger();
+		AtomicInteger failed   = new AtomicInteger(Integer.MAX_VALUE);
+		try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+			for (int i=0; i<threads; i++) {
+				executor.submit(() -> {
+					int index;
+					while ((index = next.getAndIncrement()) < schedule.size()) {
+						// Jobs before the earliest failed job could still fail first in directory order
+						Unit unit = schedule.get(index);
+						if (unit.index > failed.get()) continue;
+						if (!execute(unit)) failed.accumulateAndGet(unit.index, Math::min);
+					}
+				});
+			}
+		}
+
+		GenerationInfo rc = new GenerationInfo();
+		for (Directory directory : directories) {
+			if (directory.error != null) {
+				throw new TemplatingException("Cannot generate files in "+directory.context.getSourceDirPath(), directory.error);
+			}
+			rc.add(directory.generator.getInfo());
+		}
+		return rc;
+	}
+
+	/**
+	 * Executes a single job and finishes its directory after the last job.
+	 * @param unit - the job
+	 * @return {@code true} when the job succeeded
+	 */
+	protected boolean execute(Unit unit) {
+		Directory directory = unit.directory;
+		long      start     = System.nanoTime();
+		directory.start(start);
+		try {
+			// Skipped and reused files do not tell the render time
+			boolean rendered = directory.generator.generate(unit.job);
+			if (rendered && (history != null)) history.record(unit.key, System.nanoTime()-start);
+			if (directory.remaining.decrementAndGet() == 0) {
+				directory.generator.finish(directory.jobs, System.nanoTime()-directory.start);
+			}
+			return true;
+		} catch (Throwable t) {
+			directory.fail(unit.index, t);
+			return false;
+		}
+	}
+
+	/**
+	 * A directory of the plan.
+	 */
+	protected static class Directory {
+
+		protected Context         context;
+		protected Generator       generator;
+		protected List<RenderJob> jobs;
+		protected AtomicInteger   remaining;
+		protected volatile long   start;
+		protected Throwable       error;
+		protected int             errorIndex;
+
+		/**
+		 * Constructor.
+		 * @param context   - the context
+		 * @param generator - the generator
+		 * @param jobs      - the jobs ({@code null} when the directory is not generated)
+		 */
+		public Directory(Context context, Generator generator, List<RenderJob> jobs) {
+			this.context   = context;
+			this.generator = generator;
+			this.jobs      = jobs;
+			this.remaining = new AtomicInteger(jobs != null ? jobs.size() : 0);
+		}
+
+		/**
+		 * Records the start of the first job.
+		 * @param nanos - the start time
+		 */
+		protected synchronized void start(long nanos) {
+			if (start == 0) start = nanos;
+		}
+
+		/**
+		 * Records the error of a job. The error of the first job in directory order is kept.
+		 * @param index - the index of the job in the plan
+		 * @param error - the error
+		 */
+		protected synchronized void fail(int index, Throwable error) {
+			if ((this.error == null) || (index < errorIndex)) {
+				this.error      = error;
+				this.errorIndex = index;
+			}
+		}
+	}
+
+	/**
+	 * A job of the plan.
+	 */
+	protected static class Unit {
+
+		protected Directory directory;
+		protected RenderJob job;
+		protected int       index;
+		protected String    key;
+		protected long      size;
+		protected Long      history;
+		protected double    cost;
+
+		/**
+		 * Constructor.
+		 * @param directory - the directory
+		 * @param job       - the job
+		 * @param index     - the position in directory order
+		 * @param key       - the key in the timing history
+		 * @param size      - the size of the template
+		 */
+		public Unit(Directory directory, RenderJob job, int index, String key, long size) {
+			this.directory = directory;
+			this.job       = job;
+			this.index     = index;
+			this.key       = key;
+			this.size      = size;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package templating;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import templating.util.GenerationInfo;
+
+/**
+ * Generates a directory and all its sub directories as a fork/join task.
+ * <p>Each task builds the {@link Context} of its directory, runs the {@link Generator}
+ * and forks a new task for each sub directory. Results are merged in directory listing order
+ * and the first error in depth-first order is reported, exactly as {@link TemplateMachine#generateRecursively(Context)}
+ * would do. After an error, no task starts a directory that comes later in depth-first order, so these
+ * directories are left as a sequential run would leave them.</p>
+ * @author ralph
+ *
+ */
+public class GenerationTask extends RecursiveTask<GenerationInfo> {
+
+	/**
+	 * Serial UID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private transient TemplateMachine        machine;
+	private transient Context                parentContext;
+	private transient Path                   sourceDir;
+	private transient Context                context;
+	private transient int[]                  position;
+	private transient AtomicReference<int[]> failure;
+	private transient RuntimeException       error;
+
+	/**
+	 * Constructor for the root task.
+	 * @param machine - the machine that creates the generators
+	 * @param context - the context to execute
+	 */
+	public GenerationTask(TemplateMachine machine, Context context) {
+		this.machine  = machine;
+		this.context  = context;
+		this.position = new int[0];
+		this.failure  = new AtomicReference<>();
+	}
+
+	/**
+	 * Constructor for sub directory tasks. The context will be created within the task.
+	 * @param machine       - the machine that creates the generators
+	 * @param parentContext - the context of the parent directory
+	 * @param sourceDir     - the directory to be generated
+	 * @param position      - the position of the directory in depth-first order (listing indices from the root)
+	 * @param failure       - the position of the first failed directory, shared by all tasks of the tree
+	 */
+	protected GenerationTask(TemplateMachine machine, Context parentContext, Path sourceDir, int[] position, AtomicReference<int[]> failure) {
+		this.machine       = machine;
+		this.parentContext = parentContext;
+		this.sourceDir     = sourceDir;
+		this.position      = position;
+		this.failure       = failure;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected GenerationInfo compute() {
+		// A directory before this one failed: do not start it
+		int[] failed = failure.get();
+		if ((failed != null) && (Arrays.compare(failed, position) < 0)) return null;
+		try {
+			if (context == null) {
+				context = machine.createContext(parentContext, sourceDir);
+			}
+			Generator generator = machine.createGenerator(context);
+			generator.run();
+			GenerationInfo rc = generator.getInfo();
+
+			// Fork the sub directories
+			List<GenerationTask> children = new ArrayList<>();
+			for (Path child : context.getSubDirectories()) {
+				int[] childPosition = Arrays.copyOf(position, position.length+1);
+				childPosition[position.length] = children.size();
+				children.add(new GenerationTask(machine, context, child, childPosition, failure));
+			}
+			invokeAll(children);
+
+			// Merge in listing order, stop at first error. Tasks skipped after an earlier failure have no result.
+			for (GenerationTask child : children) {
+				GenerationInfo childInfo = child.join();
+				if (child.getError() != null) {
+					error = child.getError();
+					return null;
+				}
+				if (childInfo != null) rc.add(childInfo);
+			}
+			return rc;
+		} catch (RuntimeException e) {
+			failure.accumulateAndGet(position, (a, b) -> (a == null) || (Arrays.compare(b, a) < 0) ? b : a);
+			error = e;
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the error that stopped this task or any of its sub tasks.
+	 * @return the first error in depth-first order or {@code null}
+	 */
+	public RuntimeException getError() {
+		return error;
+	}
+}
@@ -1,14 +1,35 @@
 package templating;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,9 +38,22 @@ import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateExceptionHandler;
+import templating.util.BuildManifest;
+import templating.util.FileMetrics;
+import templating.util.FileSink;
 import templating.util.FileReadUtils;
 import templating.util.GenerationInfo;
+import templating.util.GenerationListener;
+import templating.util.Localization;
+import templating.util.OutputSink;
+import templating.util.RenderBuffer;
 import templating.util.Rfc1342Directive;
+import templating.util.Rfc2047Writer;
+import templating.util.Shard;
+import templating.util.SharedTemplateCache;
+import templating.util.TemplateConfiguration;
+import templating.util.TemplateSource;
+import templating.util.TrackingDataModel;
 
 /**
  * Generates all files in a directory (not recursively!)
@@ -32,9 +66,25 @@ public class Generator implements Runnable, TemplateLoader {
 	public static Logger log = LoggerFactory.getLogger(Generator.class);
 
 	protected Context        context;
-	protected Configuration  freemarkerConfig;
+	protected TemplateConfiguration freemarkerConfig;
 	protected long           lastModified;
 	protected GenerationInfo info;
+	/** Maximum number of render jobs executed concurrently ({@code 0} or {@code 1} renders sequentially) */
+	protected int            renderThreads;
+	/** The manifest of the incremental generation ({@code null} when all files are generated) */
+	protected BuildManifest  manifest;
+	/** The number of files that were up-to-date */
+	protected AtomicInteger  skippedFiles;
+	/** Receives the timings ({@code null} when not required) */
+	protected GenerationListener listener;
+	/** Receives the generated files */
+	protected OutputSink     outputSink;
+	/** Whether the output of a template is reused for other languages with the same values */
+	protected boolean        reuseRenders;
+	/** The outputs rendered in this run that can be reused, by template file */
+	protected Map<Path,Queue<RenderedOutput>> renders;
+	/** The part of the work units to be generated ({@code null} when all files are generated) */
+	protected Shard          shard;
 	
 	/**
 	 * Constructor.
@@ -43,10 +93,15 @@ public class Generator implements Runnable, TemplateLoader {
 	public Generator(Context context) {
 		this.context          = context;
 		this.lastModified     = System.currentTimeMillis();
+		this.renderThreads    = 0;
+		this.skippedFiles     = new AtomicInteger();
+		this.outputSink       = new FileSink();
+		this.reuseRenders     = false;
+		this.renders          = new ConcurrentHashMap<>();
 		info                  = new GenerationInfo();
 
 		// FreeMarker configuration is always specific to directory.
-		freemarkerConfig = new Configuration(Configuration.VERSION_2_3_29);
+		freemarkerConfig = new TemplateConfiguration(Configuration.VERSION_2_3_29);
 		freemarkerConfig.setTemplateLoader(this);
 		freemarkerConfig.setDefaultEncoding("UTF-8");
 		freemarkerConfig.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
@@ -55,6 +110,8 @@ public class Generator implements Runnable, TemplateLoader {
 		freemarkerConfig.setFallbackOnNullLoopVariable(false);
 		freemarkerConfig.setSharedVariable("quotedPrintable", new Rfc1342Directive(false));
 		freemarkerConfig.setSharedVariable("qp", new Rfc1342Directive(false));
+		freemarkerConfig.setSharedVariable("rfc2047Q", new Rfc1342Directive(Rfc2047Writer.Encoding.Q, true, true));
+		freemarkerConfig.setSharedVariable("rfc2047B", new Rfc1342Directive(Rfc2047Writer.Encoding.B, true, true));
 	}
 
 	/**
@@ -62,36 +119,122 @@ public class Generator implements Runnable, TemplateLoader {
 	 * {@inheritDoc}
 	 */
 	public void run() {
-		info = new GenerationInfo();
+		long start = System.nanoTime();
 		try {
 			// Do only when we are in sub-folder (if configured)
-			if (context.canGenerateDirectory()) {
-				// Process each file now with each language
-				for (File child : context.getSourceDir().listFiles()) {
-					if (!context.isSpecialFile(child) && context.isValidFile(child) && child.isFile() && child.canRead()) {
-						// Now for each language
-						Collection<String> languages = context.getLanguages();
-						info.addLanguages(languages);
-						if (languages.size() > 1) {
-							for (String language : languages) {
-								File outFile = new File(new File(context.getOutputDir(), language), child.getName());
-								generateFile(child, language, outFile);
-								info.incFiles();
-							}
-						} else if (languages.size() > 0) {
-							File outFile = new File(context.getOutputDir(), child.getName());
-							generateFile(child, languages.iterator().next(), outFile);
-							info.incFiles();
-						} else {
-							File outFile = new File(context.getOutputDir(), child.getName());
-							generateFile(child, "default", outFile);
-							info.incFiles();
-						}
+			List<RenderJob> jobs = prepare();
+			if (jobs != null) {
+				if ((renderThreads > 1) && (jobs.size() > 1)) {
+					runParallel(jobs);
+				} else {
+					for (RenderJob job : jobs) {
+						generate(job);
 					}
 				}
+				finish(jobs, System.nanoTime()-start);
 			}
 		} catch (Throwable t) {
-			throw new TemplatingException("Cannot generate files in "+context.getSourceDir().getPath(), t);
+			throw new TemplatingException("Cannot generate files in "+context.getSourceDirPath(), t);
+		} finally {
+			renders.clear();
+		}
+	}
+
+	/**
+	 * Starts the generation of this directory.
+	 * <p>Use {@link #generate(RenderJob)} for each job and {@link #finish(List, long)} afterwards
+	 * when the jobs shall be executed by the caller, e.g. mixed with the jobs of other directories.</p>
+	 * @return the render jobs or {@code null} when the directory is not generated
+	 * @throws IOException - when the template paths cannot be resolved
+	 */
+	public List<RenderJob> prepare() throws IOException {
+		info = new GenerationInfo();
+		skippedFiles.set(0);
+		return context.canGenerateDirectory() ? createJobs() : null;
+	}
+
+	/**
+	 * Executes a single render job. Jobs of the same directory can be executed concurrently.
+	 * @param job - the job
+	 * @return {@code true} when the template was rendered, {@code false} when the file was skipped or reused
+	 * @throws IOException - when IO methods fail
+	 * @throws TemplateException - when templating fails
+	 */
+	public boolean generate(RenderJob job) throws IOException, TemplateException {
+		return generateFile(job.getTemplateFile(), job.getLanguage(), job.getOutFile());
+	}
+
+	/**
+	 * Finishes the generation of this directory after all jobs were executed.
+	 * @param jobs  - the jobs executed
+	 * @param nanos - the time to generate all files
+	 */
+	public void finish(List<RenderJob> jobs, long nanos) {
+		for (int i=0; i<jobs.size(); i++) info.incFiles();
+		info.setSkippedFiles(skippedFiles.get());
+		renders.clear();
+		if (listener != null) listener.directoryGenerated(context.getSourceDirPath(), info, nanos);
+	}
+
+	/**
+	 * Collects all files with each language to be generated in this directory.
+	 * <p>Only the jobs of the shard are returned when generation is sharded.</p>
+	 * @return the render jobs in generation order
+	 * @throws IOException - when the template paths cannot be resolved
+	 */
+	protected List<RenderJob> createJobs() throws IOException {
+		List<RenderJob> rc = new ArrayList<>();
+		for (Path child : context.getTemplateFiles()) {
+			// Now for each language
+			String name = child.getFileName().toString();
+			String path = shard != null ? FilenameUtils.separatorsToUnix(context.getRelativePath(child)) : null;
+			Collection<String> languages = context.getLanguages();
+			info.addLanguages(languages);
+			if (languages.size() > 1) {
+				for (String language : languages) {
+					if ((shard == null) || shard.owns(path, language)) {
+						rc.add(new RenderJob(child, language, new File(new File(context.getOutputDir(), language), name)));
+					}
+				}
+			} else {
+				String language = languages.size() > 0 ? languages.iterator().next() : "default";
+				if ((shard == null) || shard.owns(path, language)) {
+					rc.add(new RenderJob(child, language, new File(context.getOutputDir(), name)));
+				}
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * Executes the render jobs concurrently on virtual threads, bounded by {@link #renderThreads}.
+	 * <p>The first error in job order is rethrown after all jobs have finished.</p>
+	 * @param jobs - the jobs to execute
+	 * @throws Exception - the first error of any job
+	 */
+	protected void runParallel(List<RenderJob> jobs) throws Exception {
+		Semaphore permits = new Semaphore(renderThreads);
+		List<Future<?>> futures = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (RenderJob job : jobs) {
+				futures.add(executor.submit(() -> {
+					permits.acquire();
+					try {
+						generate(job);
+						return null;
+					} finally {
+						permits.release();
+					}
+				}));
+			}
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+				throw e;
+			}
 		}
 	}
 
@@ -100,37 +243,198 @@ public class Generator implements Runnable, TemplateLoader {
 	 * @param templateFile - the template file
 	 * @param language     - the language to be used (cannot be null)
 	 * @param outFile      - the output file
+	 * @return {@code true} when the template was rendered, {@code false} when the file was skipped or the output of another language was reused
 	 * @throws IOException - when IO methods fail
 	 * @throws TemplateException - when templating fails
 	 */
-	protected void generateFile(File templateFile, String language, File outFile) throws IOException, TemplateException {
+	protected boolean generateFile(Path templateFile, String language, File outFile) throws IOException, TemplateException {
 		// Ignore when the is a language specific template file
-		File langTemplate = new File(new File(templateFile.getParentFile(), language), templateFile.getName());
-		if (langTemplate.exists()) return;
+		String templateName = templateFile.getFileName().toString();
+		Path   langTemplate = templateFile.resolveSibling(language).resolve(templateName);
+		if (context.exists(langTemplate)) return false;
 
 		// Ignore when the template file is already language specific
-		String parentName = templateFile.getParentFile().getName();
+		String parentName = String.valueOf(templateFile.getParent().getFileName());
 		if (context.hasLanguage(parentName)) {
 			// Only process when the language is the same
-			if (!parentName.equals(language)) return;
+			if (!parentName.equals(language)) return false;
 			// But we need to change the output file
 			outFile = new File(outFile.getParentFile().getParentFile(), outFile.getName());
 		}
 
+		// Skip when the inputs did not change since last run
+		String manifestPath = null;
+		if (manifest != null) {
+			manifestPath = manifest.getPath(outFile);
+			BuildManifest.Entry previous = manifest.getPrevious(manifestPath);
+			if ((previous != null) && outFile.isFile() && previous.getFingerprint().equals(getFingerprint(templateFile, language, previous.getDependencies()))) {
+				log.debug("Up-to-date: "+outFile.getPath());
+				manifest.keep(manifestPath);
+				skippedFiles.incrementAndGet();
+				if (listener != null) {
+					FileMetrics metrics = new FileMetrics(templateFile, language, outFile);
+					metrics.setSkipped(true);
+					listener.fileGenerated(metrics);
+				}
+				return false;
+			}
+		}
+
 		log.info("Generating "+outFile.getPath()+"...");
-		// Ensure the parent dir exists
-		FileUtils.forceMkdirParent(outFile);
 
-		// Prepare localization
-		Map<String,String> localization = context.getMergedLocalization(language);
-		localization.put("templateAbsPath", templateFile.getCanonicalPath());
-		localization.put("templateRelPath", context.getRelativePath(templateFile));
+		// Prepare localization (data model is specific to this job)
+		long start = System.nanoTime();
+		Localization localization = createLocalization(templateFile, language);
+		long localizationDone = System.nanoTime();
+
+		// Another language might have produced the same output already
+		RenderedOutput reused = reuseRenders ? findRender(templateFile, localization) : null;
+		Collection<String> dependencies;
+		if (reused != null) {
+			log.debug("Reusing output for "+outFile.getPath());
+			long reuseDone = System.nanoTime();
+			long written = outputSink.write(outFile, reused.content, reused.content.length);
+			long writeDone = System.nanoTime();
+			if (listener != null) {
+				FileMetrics metrics = new FileMetrics(templateFile, language, outFile);
+				metrics.setReused(true);
+				metrics.setLocalizationNanos(localizationDone-start);
+				metrics.setRenderNanos(reuseDone-localizationDone);
+				metrics.setWriteNanos(writeDone-reuseDone);
+				metrics.setBytes(written);
+				listener.fileGenerated(metrics);
+			}
+			dependencies = new HashSet<>(reused.dependencies);
+		} else {
+			// Generate
+			Template temp = freemarkerConfig.getTemplate(templateName);
+			long templateDone = System.nanoTime();
+			TrackingDataModel dataModel = reuseRenders ? new TrackingDataModel(localization) : null;
+			RenderBuffer buffer = RenderBuffer.acquire();
+			try {
+				Writer writer = buffer.getWriter(context.getWriteEncoding());
+				freemarkerConfig.startRecording();
+				try {
+					temp.process(dataModel != null ? dataModel : localization, writer);
+					writer.flush();
+				} finally {
+					dependencies = freemarkerConfig.stopRecording();
+				}
+				long renderDone = System.nanoTime();
+				long written = outputSink.write(outFile, buffer.getBuffer(), buffer.size());
+				long writeDone = System.nanoTime();
+				if (listener != null) {
+					FileMetrics metrics = new FileMetrics(templateFile, language, outFile);
+					metrics.setLocalizationNanos(localizationDone-start);
+					metrics.setTemplateNanos(templateDone-localizationDone);
+					metrics.setRenderNanos(renderDone-templateDone);
+					metrics.setWriteNanos(writeDone-renderDone);
+					metrics.setBytes(written);
+					listener.fileGenerated(metrics);
+				}
+				dependencies.remove(temp.getName());
+				if ((dataModel != null) && !dataModel.isFullyRead() && (context.getLanguages().size() > 1)) {
+					byte content[] = Arrays.copyOf(buffer.getBuffer(), buffer.size());
+					renders.computeIfAbsent(templateFile, k -> new ConcurrentLinkedQueue<>()).add(new RenderedOutput(dataModel, content, dependencies));
+				}
+			} finally {
+				RenderBuffer.release(buffer);
+			}
+		}
+
+		// Remember the inputs for the next run
+		if (manifest != null) {
+			String templatePath = FilenameUtils.separatorsToUnix(context.getRelativePath(templateFile));
+			manifest.put(manifestPath, templatePath, getFingerprint(templateFile, language, dependencies), dependencies);
+		}
+		return reused == null;
+	}
+
+	/**
+	 * Renders a single template for a language without writing any file.
+	 * <p>Neither the output sink nor the manifest or the listener are involved. Templates parsed
+	 * once are kept by the generator, so rendering the same template again does not read it again.
+	 * The method can be called by multiple threads concurrently.</p>
+	 * @param templateFile - the template file in the directory of this generator
+	 * @param language     - the language to be used (cannot be null)
+	 * @param writer       - receives the output
+	 * @throws IOException - when IO methods fail
+	 * @throws TemplateException - when templating fails
+	 */
+	public void render(Path templateFile, String language, Writer writer) throws IOException, TemplateException {
+		Template temp = freemarkerConfig.getTemplate(templateFile.getFileName().toString());
+		temp.process(createLocalization(templateFile, language), writer);
+		writer.flush();
+	}
+
+	/**
+	 * Creates the data model of a template for a language.
+	 * @param templateFile - the template file
+	 * @param language     - the language to be used
+	 * @return the localization values including the template paths
+	 * @throws IOException - when the template path cannot be resolved
+	 */
+	protected Localization createLocalization(Path templateFile, String language) throws IOException {
+		Map<String,String> jobValues = new HashMap<>();
+		jobValues.put("templateAbsPath", templateFile.toRealPath().toString());
+		jobValues.put("templateRelPath", context.getRelativePath(templateFile));
+		return new Localization(jobValues, context.getMergedLocalization(language));
+	}
+
+	/**
+	 * Finds an output of the template rendered for another language that read the same values.
+	 * @param templateFile - the template file
+	 * @param localization - the values of the language
+	 * @return the output to be reused or {@code null} when the template must be rendered
+	 */
+	protected RenderedOutput findRender(Path templateFile, Localization localization) {
+		Queue<RenderedOutput> candidates = renders.get(templateFile);
+		if (candidates != null) {
+			for (RenderedOutput candidate : candidates) {
+				if (candidate.dataModel.matches(localization)) return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Computes the fingerprint of all inputs of a generated file.
+	 * <p>These are the template file, all templates it imports or includes and
+	 * the configuration and localization values of the context.</p>
+	 * @param templateFile - the template file
+	 * @param language     - the language to be used
+	 * @param dependencies - the names of all templates imported or included
+	 * @return the hex-encoded SHA-256 fingerprint
+	 * @throws IOException - when a template cannot be read
+	 */
+	protected String getFingerprint(Path templateFile, String language, Collection<String> dependencies) throws IOException {
+		MessageDigest digest = DigestUtils.getSha256Digest();
+		DigestUtils.updateDigest(digest, context.getFingerprint(language)+"\n");
+		DigestUtils.updateDigest(digest, context.getWriteEncoding().name()+"\n");
+		DigestUtils.updateDigest(digest, templateFile.toRealPath()+"\n");
+		updateDigest(digest, templateFile);
+		for (String name : new TreeSet<>(dependencies)) {
+			DigestUtils.updateDigest(digest, "\n"+name+"\n");
+			Object source = findTemplateSource(name);
+			if (source instanceof Path) {
+				updateDigest(digest, (Path)source);
+			} else if (source != null) {
+				DigestUtils.updateDigest(digest, ((TemplateSource)source).getHash());
+			}
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
 
-		// Generate
-		Template temp = freemarkerConfig.getTemplate(templateFile.getName());
-		FileWriter writer = new FileWriter(outFile);
-		temp.process(localization, writer);
-		writer.close();
+	/**
+	 * Adds the content of a file to a digest.
+	 * @param digest - the digest
+	 * @param file   - the file (from any file system)
+	 * @throws IOException - when the file cannot be read
+	 */
+	protected static void updateDigest(MessageDigest digest, Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			DigestUtils.updateDigest(digest, in);
+		}
 	}
 
 	/**
@@ -141,20 +445,137 @@ public class Generator implements Runnable, TemplateLoader {
 		return info;
 	}
 
+	/**
+	 * Returns the maximum number of concurrent render jobs.
+	 * @return the number of concurrent render jobs ({@code 0} or {@code 1} renders sequentially)
+	 */
+	public int getRenderThreads() {
+		return renderThreads;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent render jobs.
+	 * @param renderThreads - the number of concurrent render jobs ({@code 0} or {@code 1} renders sequentially)
+	 */
+	public void setRenderThreads(int renderThreads) {
+		this.renderThreads = renderThreads;
+	}
+
+	/**
+	 * Returns the manifest for incremental generation.
+	 * @return the manifest or {@code null} when all files are generated
+	 */
+	public BuildManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Sets the manifest for incremental generation.
+	 * @param manifest - the manifest or {@code null} when all files shall be generated
+	 */
+	public void setManifest(BuildManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Returns whether outputs are reused for other languages.
+	 * @return {@code true} when a template is not rendered again for a language that provides the same values
+	 */
+	public boolean isReuseRenders() {
+		return reuseRenders;
+	}
+
+	/**
+	 * Sets whether outputs are reused for other languages (default is {@code false}).
+	 * <p>The values read by a template are recorded while rendering. Another language
+	 * with the same values for exactly these keys will receive the same output without rendering.
+	 * Output that depends on anything else, e.g. shared variables, directives or the current time,
+	 * is not recognized, so reuse must only be enabled for templates that depend on these values only.</p>
+	 * @param reuseRenders - {@code true} when a template shall not be rendered again for languages with the same values
+	 */
+	public void setReuseRenders(boolean reuseRenders) {
+		this.reuseRenders = reuseRenders;
+	}
+
+	/**
+	 * Returns the part of the work units generated.
+	 * @return the shard or {@code null} when all files are generated
+	 */
+	public Shard getShard() {
+		return shard;
+	}
+
+	/**
+	 * Sets the part of the work units to be generated.
+	 * @param shard - the shard or {@code null} when all files shall be generated
+	 */
+	public void setShard(Shard shard) {
+		this.shard = shard;
+	}
+
+	/**
+	 * Returns the sink for generated files.
+	 * @return the sink
+	 */
+	public OutputSink getOutputSink() {
+		return outputSink;
+	}
+
+	/**
+	 * Sets the sink for generated files.
+	 * @param outputSink - the sink
+	 */
+	public void setOutputSink(OutputSink outputSink) {
+		this.outputSink = outputSink;
+	}
+
+	/**
+	 * Returns the listener for timings.
+	 * @return the listener or {@code null}
+	 */
+	public GenerationListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Sets the listener for timings.
+	 * @param listener - the listener or {@code null} when timings are not required
+	 */
+	public void setListener(GenerationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns the cache of macro templates shared with other directories.
+	 * @return the cache or {@code null}
+	 */
+	public SharedTemplateCache getTemplateCache() {
+		return freemarkerConfig.getSharedCache();
+	}
+
+	/**
+	 * Sets the cache of macro templates shared with other directories.
+	 * @param templateCache - the cache or {@code null} when macro templates shall be parsed for this directory
+	 */
+	public void setTemplateCache(SharedTemplateCache templateCache) {
+		freemarkerConfig.setSharedCache(templateCache);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public Object findTemplateSource(String name) throws IOException {
-		if (context.getTemplate(name) == null) {
+		TemplateSource rc = context.getTemplateSource(name);
+		if (rc == null) {
 			// Exception: the template is the local file
-			File f = new File(context.getSourceDir(), name);
-			if (f.exists() && f.isFile() && f.canRead()) {
+			Path f = context.getSourceDirPath().resolve(name);
+			if (context.isReadableFile(f)) {
 				return f;
 			}
 			return null;
 		}
-		return name;
+		return rc;
 	}
 
 	/**
@@ -170,10 +591,10 @@ public class Generator implements Runnable, TemplateLoader {
 	 */
 	@Override
 	public Reader getReader(Object templateSource, String encoding) throws IOException {
-		if (templateSource instanceof File) {
-			return FileReadUtils.getReader((File)templateSource, context.getReadEncoding());
+		if (templateSource instanceof Path) {
+			return FileReadUtils.getReader((Path)templateSource, context.getReadEncoding());
 		}
-		return new StringReader(context.getTemplate(templateSource.toString()));
+		return new StringReader(((TemplateSource)templateSource).getContent());
 	}
 
 	/**
@@ -183,4 +604,26 @@ public class Generator implements Runnable, TemplateLoader {
 	public void closeTemplateSource(Object templateSource) throws IOException {
 	}
 
+	/**
+	 * The output of a template rendered for a language.
+	 */
+	protected static class RenderedOutput {
+
+		protected TrackingDataModel  dataModel;
+		protected byte               content[];
+		protected Collection<String> dependencies;
+
+		/**
+		 * Constructor.
+		 * @param dataModel    - the data model that recorded the values read
+		 * @param content      - the encoded output
+		 * @param dependencies - the names of all templates imported or included
+		 */
+		public RenderedOutput(TrackingDataModel dataModel, byte content[], Collection<String> dependencies) {
+			this.dataModel    = dataModel;
+			this.content      = content;
+			this.dependencies = new ArrayList<>(dependencies);
+		}
+	}
+
 }
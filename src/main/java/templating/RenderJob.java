@@ -0,0 +1,60 @@
+package templating;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * A single unit of work for a {@link Generator}: one template rendered in one language.
+ * @author ralph
+ *
+ */
+public class RenderJob {
+
+	private Path   templateFile;
+	private String language;
+	private File   outFile;
+
+	/**
+	 * Constructor.
+	 * @param templateFile - the template file
+	 * @param language     - the language to be used
+	 * @param outFile      - the output file
+	 */
+	public RenderJob(Path templateFile, String language, File outFile) {
+		this.templateFile = templateFile;
+		this.language     = language;
+		this.outFile      = outFile;
+	}
+
+	/**
+	 * Returns the templateFile.
+	 * @return the templateFile
+	 */
+	public Path getTemplateFile() {
+		return templateFile;
+	}
+
+	/**
+	 * Returns the language.
+	 * @return the language
+	 */
+	public String getLanguage() {
+		return language;
+	}
+
+	/**
+	 * Returns the outFile.
+	 * @return the outFile
+	 */
+	public File getOutFile() {
+		return outFile;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return templateFile+" ["+language+"]";
+	}
+}
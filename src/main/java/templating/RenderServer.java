@@ -0,0 +1,304 @@
+package templating;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import templating.util.RenderBuffer;
+
+/**
+ * Renders single templates on request via a local HTTP endpoint.
+ * <p>The contexts of all directories requested and their parsed templates stay in memory,
+ * so rendering a template a second time neither reads configuration, localization nor template files.
+ * Contexts are created on first request. A change in the directory of a context (including its
+ * localization and template directories) drops the context and all contexts below, so they
+ * are loaded again by the next request.</p>
+ * <p>The endpoint is {@code GET /render/<path>?lang=<language>} with the path of the template relative
+ * to the source root. The language is optional and defaults to the first language of the directory.
+ * Each request is handled on its own virtual thread.</p>
+ * @author ralph
+ *
+ */
+public class RenderServer implements Closeable {
+
+	/** The logger */
+	public static Logger log = LoggerFactory.getLogger(RenderServer.class);
+
+	/** The path prefix of the render endpoint */
+	public static final String RENDER_PATH = "/render/";
+
+	protected TemplateMachine      machine;
+	protected Set<Path>            registered;
+	protected Map<WatchKey,Path>   watchedDirs;
+	protected WatchService         watchService;
+	protected HttpServer           server;
+	protected ExecutorService      executor;
+	protected Thread               watchThread;
+	protected CountDownLatch       stopped;
+	protected AtomicInteger        requests;
+
+	/**
+	 * Constructor.
+	 * @param machine - the machine to render with
+	 */
+	public RenderServer(TemplateMachine machine) {
+		this.machine     = machine;
+		this.registered  = new HashSet<>();
+		this.watchedDirs = new ConcurrentHashMap<>();
+		this.stopped     = new CountDownLatch(1);
+		this.requests    = new AtomicInteger();
+		machine.setRetainContexts(true);
+	}
+
+	/**
+	 * Starts watching the source tree and serving requests.
+	 * @param address - the address to listen on, usually the loopback address
+	 * @throws IOException - when the server cannot be started
+	 */
+	public void start(InetSocketAddress address) throws IOException {
+		Path rootDir = getRootDir();
+		if (rootDir.getFileSystem() == FileSystems.getDefault()) {
+			watchService = rootDir.getFileSystem().newWatchService();
+			watchThread  = new Thread(this::watch, "template-machine-watch");
+			watchThread.setDaemon(true);
+			watchThread.start();
+		}
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		server   = HttpServer.create(address, 0);
+		server.createContext(RENDER_PATH, this::handle);
+		server.setExecutor(executor);
+		server.start();
+		log.info("Serving "+rootDir+" on http://"+server.getAddress().getHostString()+":"+getPort()+RENDER_PATH);
+	}
+
+	/**
+	 * Blocks until the server was closed.
+	 * @throws InterruptedException - when the thread was interrupted
+	 */
+	public void await() throws InterruptedException {
+		stopped.await();
+	}
+
+	/**
+	 * Handles a single HTTP request.
+	 * @param exchange - the request and response
+	 * @throws IOException - when the response cannot be sent
+	 */
+	protected void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, "Method not allowed");
+				return;
+			}
+			String path     = exchange.getRequestURI().getPath().substring(RENDER_PATH.length());
+			String language = getParameter(exchange.getRequestURI().getRawQuery(), "lang");
+			RenderBuffer buffer = RenderBuffer.acquire();
+			try {
+				if (!machine.render(path, language, buffer)) {
+					send(exchange, 404, "Not found: "+path);
+					return;
+				}
+				registerContexts();
+				String type = URLConnection.guessContentTypeFromName(path);
+				if (type == null) type = "text/plain";
+				if (type.startsWith("text/")) type += "; charset="+machine.getRootContext().getWriteEncoding().name();
+				exchange.getResponseHeaders().set("Content-Type", type);
+				exchange.sendResponseHeaders(200, buffer.size());
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(buffer.getBuffer(), 0, buffer.size());
+				}
+			} finally {
+				RenderBuffer.release(buffer);
+			}
+		} catch (IllegalArgumentException e) {
+			send(exchange, 400, e.getMessage());
+		} catch (Throwable t) {
+			log.error("Cannot render "+exchange.getRequestURI(), t);
+			send(exchange, 500, String.valueOf(t.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Drops the contexts of a directory and its sub directories and stops watching them.
+	 * @param dir - the directory
+	 */
+	protected synchronized void invalidate(Path dir) {
+		log.info("Invalidating "+dir);
+		machine.invalidate(dir);
+		registered.removeIf(p -> p.startsWith(dir));
+		Iterator<Map.Entry<WatchKey,Path>> i = watchedDirs.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<WatchKey,Path> entry = i.next();
+			if (entry.getValue().startsWith(dir)) {
+				entry.getKey().cancel();
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Processes changes until the watch service is closed.
+	 */
+	protected void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				key.pollEvents();
+				Path contextDir = watchedDirs.get(key);
+				if (contextDir != null) invalidate(contextDir);
+				key.reset();
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			log.debug("Watching stopped");
+		}
+	}
+
+	/**
+	 * Watches the directories of all contexts loaded since the last request.
+	 */
+	protected synchronized void registerContexts() {
+		if ((watchService == null) || (registered.size() == machine.getContexts().size())) return;
+		for (Map.Entry<Path,Context> entry : machine.getContexts().entrySet()) {
+			if (registered.add(entry.getKey())) register(entry.getValue());
+		}
+	}
+
+	/**
+	 * Watches the directory of a context including its localization and template directories.
+	 * @param context - the context
+	 */
+	protected void register(Context context) {
+		Path dir = TemplateMachine.getContextKey(context.getSourceDirPath());
+		try {
+			register(dir, dir);
+			Path localizationDir = dir.resolve(context.getConfigString("localizationDir"));
+			if (Files.isDirectory(localizationDir)) register(localizationDir, dir);
+			Path templateDir = dir.resolve(context.getConfigString("templateDir"));
+			if (Files.isDirectory(templateDir)) {
+				try (Stream<Path> paths = Files.walk(templateDir)) {
+					for (Path path : (Iterable<Path>)paths.filter(Files::isDirectory)::iterator) {
+						register(path, dir);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new TemplatingException("Cannot watch "+dir, e);
+		}
+	}
+
+	/**
+	 * Watches a single directory.
+	 * @param dir        - the directory to watch
+	 * @param contextDir - the directory of the context the directory belongs to
+	 * @throws IOException - when the directory cannot be watched
+	 */
+	protected void register(Path dir, Path contextDir) throws IOException {
+		watchedDirs.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), contextDir);
+	}
+
+	/**
+	 * Returns the directory of the root context.
+	 * @return the absolute path
+	 */
+	protected Path getRootDir() {
+		return TemplateMachine.getContextKey(machine.getRootContext().getSourceDirPath());
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 * @return the port or {@code -1} when the server was not started
+	 */
+	public int getPort() {
+		return server != null ? server.getAddress().getPort() : -1;
+	}
+
+	/**
+	 * Returns the number of requests received.
+	 * @return the number of requests
+	 */
+	public int getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Stops serving and watching.
+	 * <p>Further calls do nothing.</p>
+	 * @throws IOException - when the watch service cannot be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (stopped.getCount() == 0) return;
+		try {
+			if (server != null) server.stop(0);
+			if (executor != null) executor.close();
+			if (watchService != null) watchService.close();
+		} finally {
+			stopped.countDown();
+		}
+	}
+
+	/**
+	 * Sends a plain text response.
+	 * @param exchange - the exchange
+	 * @param status   - the HTTP status
+	 * @param message  - the message
+	 * @throws IOException - when the response cannot be sent
+	 */
+	protected static void send(HttpExchange exchange, int status, String message) throws IOException {
+		byte content[] = (message+"\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, content.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content);
+		}
+	}
+
+	/**
+	 * Returns a parameter of a query string.
+	 * @param query - the raw query string (can be null)
+	 * @param name  - the parameter name
+	 * @return the decoded value or {@code null} when the parameter does not exist
+	 */
+	protected static String getParameter(String query, String name) {
+		if (query == null) return null;
+		for (String pair : query.split("&")) {
+			int idx = pair.indexOf('=');
+			String key = URLDecoder.decode(idx < 0 ? pair : pair.substring(0, idx), StandardCharsets.UTF_8);
+			if (key.equals(name)) return idx < 0 ? "" : URLDecoder.decode(pair.substring(idx+1), StandardCharsets.UTF_8);
+		}
+		return null;
+	}
+}
@@ -5,12 +5,29 @@ package templating;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
-import java.text.SimpleDateFormat;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -20,10 +37,22 @@ import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import templating.util.BuildManifest;
+import templating.util.ArchiveSink;
+import templating.util.FileSink;
 import templating.util.GenerationInfo;
+import templating.util.GenerationListener;
+import templating.util.MetricsCollector;
+import templating.util.ContextCache;
+import templating.util.DirectorySnapshot;
+import templating.util.OutputSink;
+import templating.util.Shard;
+import templating.util.TimingHistory;
+import templating.util.SharedTemplateCache;
 
 /**
  * The main class for templating.
@@ -35,17 +64,54 @@ public class TemplateMachine {
 	/** The logger */
 	public static Logger log = LoggerFactory.getLogger(TemplateMachine.class);
 	
-	private static SimpleDateFormat DATETIMEBUILDER = new SimpleDateFormat("yyyyMMddHHmmss");
+	private static final DateTimeFormatter DATETIMEBUILDER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
 	
-	protected Context rootContext;
+	protected volatile Context rootContext;
+	/** Whether directories shall be generated in parallel */
+	protected boolean parallel;
+	/** Number of threads for parallel generation ({@code 0} uses number of available processors) */
+	protected int     parallelism;
+	/** Maximum number of concurrent render jobs within a directory ({@code 0} renders sequentially) */
+	protected int     renderThreads;
+	/** Whether only files with changed inputs shall be generated */
+	protected boolean incremental;
+	/** The manifest of the current run (incremental generation only) */
+	protected BuildManifest manifest;
+	/** The macro templates parsed so far */
+	protected SharedTemplateCache templateCache;
+	/** All contexts created (only when contexts are retained, e.g. for watching) */
+	protected Map<Path,Context> contexts;
+	/** The generators used for rendering on request, by context directory (only when contexts are retained) */
+	protected Map<Path,Generator> generators;
+	/** Receives the timings ({@code null} when not required) */
+	protected GenerationListener listener;
+	/** Receives the generated files */
+	protected OutputSink outputSink;
+	/** Whether the output of a template is reused for other languages with the same values */
+	protected boolean reuseRenders;
+	/** Whether the source tree is scanned once per run instead of querying the file system per file */
+	protected boolean useSnapshot;
+	/** The part of the work units generated by this process ({@code null} when all files are generated) */
+	protected Shard shard;
+	/** The directory of the context cache ({@code null} when all configuration, localization and macro files are read in each run) */
+	protected File cacheDir;
+	/** Whether parallel generation plans all files first and renders the most expensive first */
+	protected boolean planned;
 	
 	/**
 	 * Constructor.
 	 * @param rootContext - the root context for the machine
 	 */
 	public TemplateMachine(Context rootContext) {
-		this.rootContext = rootContext;
-		
+		this.rootContext   = rootContext;
+		this.parallel      = false;
+		this.parallelism   = 0;
+		this.renderThreads = 0;
+		this.incremental   = false;
+		this.templateCache = new SharedTemplateCache();
+		this.outputSink    = new FileSink();
+		this.reuseRenders  = false;
+		this.useSnapshot   = true;
 	}
 
 	/**
@@ -54,17 +120,102 @@ public class TemplateMachine {
 	 */
 	public GenerationInfo generate() {
 		try {
-			log.info("Generating project "+rootContext.getSourceRoot()+"...");
+			log.info("Generating project "+rootContext.getSourceRootPath()+"...");
+			long start = System.nanoTime();
+			if (listener != null) listener.generationStarted(rootContext.getSourceRootPath(), rootContext.getOutputRoot());
+			if (useSnapshot) createSnapshot();
+			if (cacheDir != null) loadCache();
+
+			// Load the manifest from previous run
+			if (incremental) {
+				manifest = new BuildManifest(rootContext.getOutputRoot());
+				manifest.load();
+			} else {
+				manifest = null;
+			}
 
 			// Recursively dive into the folder and generate the templates
-			GenerationInfo rc = generateRecursively(rootContext);
+			if (contexts != null) contexts.put(getContextKey(rootContext.getSourceDirPath()), rootContext);
+			// A failed run must not finish the output, e.g. replace a previous archive
+			GenerationInfo rc = null;
+			outputSink.open();
+			try {
+				if (!parallel) rc = generateRecursively(rootContext);
+				else rc = planned ? generatePlanned(rootContext) : generateParallel(rootContext);
+			} catch (Throwable t) {
+				outputSink.abort();
+				throw t;
+			}
+			outputSink.close();
+
+			// A shard leaves its results for the merge step
+			if (shard != null) {
+				if (manifest != null) manifest.save(shard.getManifestFile(rootContext.getOutputRoot()));
+				shard.saveInfo(rootContext.getOutputRoot(), rc);
+				log.info("Shard "+shard+" generated "+rc.getFiles()+" files");
+			} else if (manifest != null) {
+				// Remove files from previous run and save the manifest
+				String scope = getManifestScope();
+				for (String path : manifest.removeStale(entry -> BuildManifest.isWithin(entry.getTemplate(), scope))) {
+					log.info("Removed stale file "+path);
+				}
+				manifest.save();
+				log.info(rc.getSkippedFiles()+" of "+rc.getFiles()+" files were up-to-date");
+			}
+			if (cacheDir != null) saveCache();
+			if (listener != null) listener.generationFinished(rc, templateCache, System.nanoTime()-start);
 			log.info("You will find your generated files in "+rootContext.getOutputRoot());
 			return rc;
+		} catch (IOException e) {
+			throw new TemplatingException("Cannot process output", e);
 		} finally {
+			rootContext.setSnapshot(null);
+			rootContext.setCache(null);
 			log.info("Done");
 		}
 	}
+
+	/**
+	 * Scans the source tree and makes the root context use the snapshot.
+	 * <p>Only directories in scope of the sub root and their direct children are listed.</p>
+	 * @throws IOException - when the source directory cannot be read
+	 */
+	protected void createSnapshot() throws IOException {
+		long start = System.nanoTime();
+		Context context = rootContext;
+		DirectorySnapshot snapshot = DirectorySnapshot.create(context.getSourceDirPath(), dir -> context.isInScope(dir) || context.isInScope(dir.getParent()));
+		context.setSnapshot(snapshot);
+		log.debug("Scanned "+snapshot.size()+" files in "+((System.nanoTime()-start)/1000000)+"ms");
+	}
 	
+	/**
+	 * Loads the context cache of the previous run and makes the root context use it.
+	 * <p>A cache that cannot be read is ignored, all files are read then.</p>
+	 */
+	protected void loadCache() {
+		ContextCache cache = new ContextCache(cacheDir);
+		try {
+			cache.load();
+		} catch (IOException e) {
+			log.warn("Cannot read context cache in "+cacheDir+": "+e.getMessage());
+		}
+		rootContext.setCache(cache);
+	}
+
+	/**
+	 * Saves the context cache for the next run.
+	 * <p>Failures are logged only as the generated files are not affected.</p>
+	 */
+	protected void saveCache() {
+		ContextCache cache = rootContext.getCache();
+		try {
+			cache.save();
+			log.debug("Context cache: "+cache.getHits()+" files cached, "+cache.getMisses()+" files read");
+		} catch (IOException e) {
+			log.warn("Cannot write context cache in "+cacheDir+": "+e.getMessage());
+		}
+	}
+
 	/**
 	 * Generate recursively
 	 * @param context - the context to execute
@@ -72,47 +223,628 @@ public class TemplateMachine {
 	 */
 	protected GenerationInfo generateRecursively(Context context) {
 		// Create the generator
-		Generator generator = new Generator(context);
+		Generator generator = createGenerator(context);
 		generator.run();
 		GenerationInfo rc = generator.getInfo();
-		for (File child : context.getSourceDir().listFiles()) {
-			if (!context.isSpecialFile(child) && child.isDirectory() && child.canRead()) {
-				Context childContext = new Context(context, child, new File(context.getOutputDir(), child.getName()));
-				rc.add(generateRecursively(childContext));
+		for (Path child : context.getSubDirectories()) {
+			Context childContext = createContext(context, child);
+			rc.add(generateRecursively(childContext));
+		}
+		return rc;
+	}
+	
+	/**
+	 * Creates the context for a sub directory.
+	 * <p>The context will be registered when contexts are retained.</p>
+	 * @param parent    - the context of the parent directory
+	 * @param sourceDir - the sub directory
+	 * @return the context
+	 */
+	protected Context createContext(Context parent, Path sourceDir) {
+		long start = System.nanoTime();
+		Context rc = new Context(parent, sourceDir, new File(parent.getOutputDir(), sourceDir.getFileName().toString()));
+		if (listener != null) listener.contextLoaded(sourceDir, System.nanoTime()-start);
+		if (contexts != null) contexts.put(getContextKey(sourceDir), rc);
+		return rc;
+	}
+	
+	/**
+	 * Returns the key of a directory in the retained contexts.
+	 * @param sourceDir - the directory
+	 * @return the absolute and normalized path
+	 */
+	protected static Path getContextKey(Path sourceDir) {
+		return sourceDir.toAbsolutePath().normalize();
+	}
+	
+	/**
+	 * Returns the context of a source directory.
+	 * <p>The contexts of the directory and all its parents are loaded when required. Loaded contexts are
+	 * kept when contexts are retained, so further calls do not read the source tree again.</p>
+	 * @param sourceDir - the source directory (absolute or relative to the source root)
+	 * @return the context or {@code null} when the directory is not generated, e.g. a special or out-of-scope directory
+	 */
+	public Context findContext(Path sourceDir) {
+		Path rootDir = getContextKey(rootContext.getSourceDirPath());
+		Path key     = getContextKey(rootDir.resolve(sourceDir));
+		Context rc   = contexts != null ? contexts.get(key) : null;
+		if (rc != null) return rc;
+		if (key.equals(rootDir)) {
+			rc = rootContext;
+			if (contexts != null) contexts.putIfAbsent(key, rc);
+			return rc;
+		}
+		if (!key.startsWith(rootDir)) return null;
+		Context parent = findContext(key.getParent());
+		if (parent == null) return null;
+		synchronized (parent) {
+			rc = contexts != null ? contexts.get(key) : null;
+			if (rc != null) return rc;
+			for (Path child : parent.getSubDirectories()) {
+				if (child.getFileName().toString().equals(key.getFileName().toString())) return createContext(parent, child);
 			}
 		}
+		return null;
+	}
+
+	/**
+	 * Returns the template file that is rendered for a path and language.
+	 * <p>A language specific template ({@code <language>/<name>} next to the template) is used
+	 * instead of the template when it exists, as in generation.</p>
+	 * @param path     - the template path relative to the source root, using {@code /} as separator
+	 * @param language - the language
+	 * @return the template file or {@code null} when the path is not a template file
+	 */
+	public Path findTemplate(String path, String language) {
+		Path file = resolvePath(path);
+		Context context = file != null ? findContext(file.getParent()) : null;
+		if (context == null) return null;
+		String  name        = file.getFileName().toString();
+		Path    langDir     = context.getSourceDirPath().resolve(language);
+		Context langContext = context.hasLanguage(language) && context.isReadableDirectory(langDir) ? findContext(langDir) : null;
+		if (langContext != null) {
+			Path langFile = langContext.getSourceDirPath().resolve(name);
+			if (isTemplateFile(langContext, langFile)) return langFile;
+		}
+		file = context.getSourceDirPath().resolve(name);
+		return isTemplateFile(context, file) ? file : null;
+	}
+
+	/**
+	 * Resolves a path relative to the source root.
+	 * @param path - the relative path, using {@code /} as separator
+	 * @return the absolute path or {@code null} when the path is not within the source root
+	 */
+	protected Path resolvePath(String path) {
+		Path rootDir = getContextKey(rootContext.getSourceDirPath());
+		Path rc      = rootDir.resolve(path).normalize();
+		return rc.startsWith(rootDir) && !rc.equals(rootDir) ? rc : null;
+	}
+
+	/**
+	 * Returns whether a file is generated in the directory of a context.
+	 * @param context - the context of the directory
+	 * @param file    - the file
+	 * @return {@code true} when the file is a readable template file
+	 */
+	protected static boolean isTemplateFile(Context context, Path file) {
+		return context.isReadableFile(file) && !context.isSpecialFile(file) && context.isValidFile(file);
+	}
+
+	/**
+	 * Renders a single template for a language into a writer.
+	 * <p>No file is written and neither the output sink nor the listener or the manifest are involved.
+	 * The method can be called by multiple threads concurrently. Retain the contexts to keep
+	 * loaded directories and parsed templates for further calls.</p>
+	 * @param path     - the template path relative to the source root, using {@code /} as separator
+	 * @param language - the language or {@code null} for the first language of the directory
+	 * @param writer   - receives the output (will be flushed but not closed)
+	 * @return {@code true} when the template was rendered, {@code false} when the path is not a template file
+	 * @throws IllegalArgumentException - when the language does not exist in the directory
+	 */
+	public boolean render(String path, String language, Writer writer) {
+		Path file = resolvePath(path);
+		Context context = file != null ? findContext(file.getParent()) : null;
+		if (context == null) return false;
+		language = getLanguage(context, language);
+		Path templateFile = findTemplate(path, language);
+		if (templateFile == null) return false;
+		try {
+			getGenerator(findContext(templateFile.getParent())).render(templateFile, language, writer);
+			return true;
+		} catch (TemplatingException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new TemplatingException("Cannot render "+path, e);
+		}
+	}
+
+	/**
+	 * Renders a single template for a language into a stream.
+	 * <p>The output is encoded in the write encoding of the context.</p>
+	 * @param path     - the template path relative to the source root, using {@code /} as separator
+	 * @param language - the language or {@code null} for the first language of the directory
+	 * @param out      - receives the output (will be flushed but not closed)
+	 * @return {@code true} when the template was rendered, {@code false} when the path is not a template file
+	 * @throws IllegalArgumentException - when the language does not exist in the directory
+	 * @see #render(String, String, Writer)
+	 */
+	public boolean render(String path, String language, OutputStream out) {
+		return render(path, language, new OutputStreamWriter(out, rootContext.getWriteEncoding()));
+	}
+
+	/**
+	 * Returns the language a template is rendered in.
+	 * @param context  - the context of the template directory
+	 * @param language - the language requested or {@code null}
+	 * @return the language requested or the first language of the directory
+	 * @throws IllegalArgumentException - when the language does not exist in the directory
+	 */
+	protected static String getLanguage(Context context, String language) {
+		Collection<String> languages = context.getLanguages();
+		if (language == null) return languages.isEmpty() ? "default" : languages.iterator().next();
+		if (languages.contains(language) || (languages.isEmpty() && "default".equals(language))) return language;
+		throw new IllegalArgumentException("Unknown language: "+language);
+	}
+
+	/**
+	 * Returns the generator for rendering templates of a context on request.
+	 * <p>Generators keep the templates of their directory parsed. They are kept only when contexts are retained.</p>
+	 * @param context - the context
+	 * @return the generator
+	 */
+	protected Generator getGenerator(Context context) {
+		if (generators == null) return createGenerator(context);
+		return generators.computeIfAbsent(getContextKey(context.getSourceDirPath()), k -> createGenerator(context));
+	}
+
+	/**
+	 * Drops the retained contexts and generators of a directory and all its sub directories.
+	 * <p>They are loaded again when required, e.g. after the sources in the directory changed.
+	 * The shared macro templates are removed as well.</p>
+	 * @param sourceDir - the source directory
+	 */
+	public void invalidate(Path sourceDir) {
+		Path dir = getContextKey(sourceDir);
+		if (dir.equals(getContextKey(rootContext.getSourceDirPath()))) {
+			rootContext = rootContext.reload(null);
+		}
+		if (contexts != null) contexts.keySet().removeIf(p -> p.startsWith(dir));
+		if (generators != null) generators.keySet().removeIf(p -> p.startsWith(dir));
+		// Parsed macro templates keep the configurations of the removed generators alive
+		if (templateCache != null) templateCache.clear();
+	}
+	
+	/**
+	 * Generate recursively with directories being processed in parallel.
+	 * <p>Output, statistics and error reporting are the same as in {@link #generateRecursively(Context)}.</p>
+	 * @param context - the context to execute
+	 * @return the generation information from the recursive generation (statistics)
+	 */
+	protected GenerationInfo generateParallel(Context context) {
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		log.info("Generating with "+threads+" threads");
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			GenerationTask task = new GenerationTask(this, context);
+			GenerationInfo rc   = pool.invoke(task);
+			if (task.getError() != null) throw task.getError();
+			return rc;
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Generate with all files of all directories being planned first and rendered most expensive first.
+	 * <p>The render times are kept in the cache directory or, when there is none, in the output root of incremental runs.
+	 * Each shard keeps its own file. Without a history the costs are estimated from the template sizes.
+	 * Output, statistics and error reporting are the same as in {@link #generateRecursively(Context)}.</p>
+	 * @param context - the context to execute
+	 * @return the generation information from the recursive generation (statistics)
+	 * @throws IOException - when the plan cannot be created or the render times cannot be saved
+	 */
+	protected GenerationInfo generatePlanned(Context context) throws IOException {
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		// The output root keeps the history only when it is updated incrementally, like the manifest
+		File historyDir = cacheDir != null ? cacheDir : incremental ? context.getOutputRoot() : null;
+		TimingHistory history = null;
+		if (historyDir != null) {
+			history = new TimingHistory(shard != null ? shard.getTimingsFile(historyDir) : new File(historyDir, TimingHistory.FILENAME));
+			history.load();
+		}
+		GenerationPlan plan = new GenerationPlan(this, history);
+		plan.add(context);
+		log.info("Generating "+plan.size()+" files with "+threads+" threads, most expensive first");
+		GenerationInfo rc = plan.execute(threads);
+		// No history is left when the output root is not written, e.g. when writing an archive
+		if ((history != null) && ((cacheDir != null) || historyDir.isDirectory())) history.save();
+		return rc;
+	}
+	
+	/**
+	 * Creates the generator for the given context.
+	 * @param context - the context to generate
+	 * @return the generator
+	 */
+	protected Generator createGenerator(Context context) {
+		Generator rc = new Generator(context);
+		rc.setRenderThreads(renderThreads);
+		rc.setManifest(manifest);
+		rc.setTemplateCache(templateCache);
+		rc.setListener(listener);
+		rc.setOutputSink(outputSink);
+		rc.setReuseRenders(reuseRenders);
+		rc.setShard(shard);
 		return rc;
 	}
 	
+	/**
+	 * Combines the results of all shards of a sharded generation.
+	 * <p>The statistics of all shards are added up. When the shards generated incrementally, their manifest
+	 * entries replace the manifest, and files of the previous run not generated by any shard are removed.
+	 * The files left by the shards are deleted afterwards.</p>
+	 * @param count - the number of shards
+	 * @return the generation information of all shards (statistics)
+	 * @throws TemplatingException - when any shard has not finished
+	 */
+	public GenerationInfo mergeShards(int count) {
+		try {
+			File outputRoot = rootContext.getOutputRoot();
+			GenerationInfo rc = new GenerationInfo();
+			List<Shard> shards = new ArrayList<>();
+			for (int i=1; i<=count; i++) {
+				Shard shard = new Shard(i, count);
+				rc.add(shard.loadInfo(outputRoot));
+				shards.add(shard);
+			}
+
+			// Combine the manifests
+			BuildManifest manifest = new BuildManifest(outputRoot);
+			boolean incremental = false;
+			for (Shard shard : shards) incremental |= shard.getManifestFile(outputRoot).isFile();
+			if (incremental) {
+				manifest.load();
+				for (Shard shard : shards) manifest.merge(shard.getManifestFile(outputRoot));
+				String scope = getManifestScope();
+				for (String path : manifest.removeStale(entry -> BuildManifest.isWithin(entry.getTemplate(), scope))) {
+					log.info("Removed stale file "+path);
+				}
+				manifest.save();
+			}
+
+			for (Shard shard : shards) {
+				Files.deleteIfExists(shard.getInfoFile(outputRoot).toPath());
+				Files.deleteIfExists(shard.getManifestFile(outputRoot).toPath());
+			}
+			log.info("Merged "+count+" shards with "+rc.getFiles()+" files");
+			return rc;
+		} catch (IOException e) {
+			throw new TemplatingException("Cannot merge shards", e);
+		}
+	}
+
+	/**
+	 * Returns the part of the manifest that is generated in this run.
+	 * @return the manifest path of the sub root, empty when the whole tree is generated
+	 * @throws IOException - when the paths cannot be resolved
+	 */
+	protected String getManifestScope() throws IOException {
+		Path subRoot = rootContext.getSubRootPath();
+		if (subRoot == null) return "";
+		String rc = rootContext.getSourceRootPath().toRealPath().relativize(subRoot.toRealPath()).toString();
+		return FilenameUtils.separatorsToUnix(rc);
+	}
+	
+	/**
+	 * Returns whether directories are generated in parallel.
+	 * @return {@code true} when directories are generated in parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Sets whether directories shall be generated in parallel.
+	 * @param parallel - {@code true} when directories shall be generated in parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Returns the number of threads for parallel generation.
+	 * @return the number of threads ({@code 0} uses number of available processors)
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of threads for parallel generation.
+	 * @param parallelism - the number of threads ({@code 0} uses number of available processors)
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Returns the maximum number of concurrent render jobs within a directory.
+	 * @return the number of concurrent render jobs ({@code 0} renders sequentially)
+	 */
+	public int getRenderThreads() {
+		return renderThreads;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent render jobs within a directory.
+	 * <p>Each file is rendered in each language as a separate job.</p>
+	 * @param renderThreads - the number of concurrent render jobs ({@code 0} renders sequentially)
+	 */
+	public void setRenderThreads(int renderThreads) {
+		this.renderThreads = renderThreads;
+	}
+
+	/**
+	 * Returns whether outputs are reused for other languages.
+	 * @return {@code true} when a template is not rendered again for a language that provides the same values
+	 */
+	public boolean isReuseRenders() {
+		return reuseRenders;
+	}
+
+	/**
+	 * Sets whether outputs are reused for other languages (default is {@code false}).
+	 * <p>Enable this only when templates depend on the localization values and data model only.</p>
+	 * @param reuseRenders - {@code true} when a template shall not be rendered again for languages with the same values
+	 * @see Generator#setReuseRenders(boolean)
+	 */
+	public void setReuseRenders(boolean reuseRenders) {
+		this.reuseRenders = reuseRenders;
+	}
+
+	/**
+	 * Returns whether the source tree is scanned once per run.
+	 * @return {@code true} when directories and file attributes are read in a single pass before generation
+	 */
+	public boolean isUseSnapshot() {
+		return useSnapshot;
+	}
+
+	/**
+	 * Sets whether the source tree is scanned once per run.
+	 * <p>The snapshot replaces the directory listings and file checks of each directory.
+	 * Changes to the source tree during the run are not noticed.</p>
+	 * @param useSnapshot - {@code false} when the file system shall be queried directly
+	 */
+	public void setUseSnapshot(boolean useSnapshot) {
+		this.useSnapshot = useSnapshot;
+	}
+
+	/**
+	 * Returns whether parallel generation plans all files first.
+	 * @return {@code true} when the most expensive files are rendered first
+	 */
+	public boolean isPlanned() {
+		return planned;
+	}
+
+	/**
+	 * Sets whether parallel generation plans all files first (parallel generation only).
+	 * <p>All files in all languages are collected before generation and rendered by all threads, the most
+	 * expensive first. The cost of a file is its render time in previous runs or estimated from its template size.
+	 * This shortens runs on trees with a few very large directories. The render times are kept in the
+	 * cache directory or in the output root of incremental runs.</p>
+	 * @param planned - {@code true} when the most expensive files shall be rendered first
+	 * @see #setCacheDir(File)
+	 */
+	public void setPlanned(boolean planned) {
+		this.planned = planned;
+	}
+
+	/**
+	 * Returns the directory of the context cache.
+	 * @return the directory or {@code null} when no cache is used
+	 */
+	public File getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * Sets the directory of the context cache.
+	 * <p>The parsed configuration, localization and macro template files are kept in this directory
+	 * between runs. A file is read again only when its modification time or size changed.
+	 * The cache is not used for the root directory, whose context exists before the run.</p>
+	 * @param cacheDir - the directory or {@code null} when all files shall be read in each run
+	 */
+	public void setCacheDir(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Returns the part of the work units generated by this machine.
+	 * @return the shard or {@code null} when all files are generated
+	 */
+	public Shard getShard() {
+		return shard;
+	}
+
+	/**
+	 * Sets the part of the work units to be generated by this machine.
+	 * <p>Multiple processes with the same source tree and output root generate all files when each runs
+	 * another shard. The results are combined with {@link #mergeShards(int)} after all shards have finished.</p>
+	 * @param shard - the shard or {@code null} when all files shall be generated
+	 */
+	public void setShard(Shard shard) {
+		this.shard = shard;
+	}
+
+	/**
+	 * Returns the sink for generated files.
+	 * @return the sink
+	 */
+	public OutputSink getOutputSink() {
+		return outputSink;
+	}
+
+	/**
+	 * Sets the sink for generated files.
+	 * @param outputSink - the sink (default is a {@link FileSink})
+	 */
+	public void setOutputSink(OutputSink outputSink) {
+		this.outputSink = outputSink;
+	}
+
+	/**
+	 * Returns the listener for timings.
+	 * @return the listener or {@code null}
+	 */
+	public GenerationListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Sets the listener for timings.
+	 * @param listener - the listener or {@code null} when timings are not required
+	 */
+	public void setListener(GenerationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns whether only files with changed inputs are generated.
+	 * @return {@code true} when generation is incremental
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Sets whether only files with changed inputs shall be generated.
+	 * <p>The fingerprints of all inputs are recorded in a manifest in the output root. Files
+	 * whose inputs did not change are not generated again and files from previous runs
+	 * that are not generated anymore will be removed.</p>
+	 * @param incremental - {@code true} when generation shall be incremental
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Returns the cache of macro templates shared by all directories.
+	 * @return the cache or {@code null} when macro templates are parsed in each directory
+	 */
+	public SharedTemplateCache getTemplateCache() {
+		return templateCache;
+	}
+
+	/**
+	 * Sets the cache of macro templates shared by all directories.
+	 * <p>Templates are identified by their file and content. The cache can therefore be kept between runs.</p>
+	 * @param templateCache - the cache or {@code null} when macro templates shall be parsed in each directory
+	 */
+	public void setTemplateCache(SharedTemplateCache templateCache) {
+		this.templateCache = templateCache;
+	}
+
+	/**
+	 * Returns whether all contexts are retained after generation.
+	 * @return {@code true} when contexts are retained
+	 */
+	public boolean isRetainContexts() {
+		return contexts != null;
+	}
+
+	/**
+	 * Sets whether all contexts shall be retained after generation.
+	 * @param retainContexts - {@code true} when contexts shall be retained
+	 */
+	public void setRetainContexts(boolean retainContexts) {
+		contexts   = retainContexts ? new ConcurrentHashMap<>() : null;
+		generators = retainContexts ? new ConcurrentHashMap<>() : null;
+	}
+
+	/**
+	 * Returns the retained contexts.
+	 * @return the contexts by their absolute source directory or {@code null} when contexts are not retained
+	 */
+	public Map<Path,Context> getContexts() {
+		return contexts;
+	}
+
+	/**
+	 * Returns the root context.
+	 * @return the root context
+	 */
+	public Context getRootContext() {
+		return rootContext;
+	}
+
 	/**
 	 * Main method.
 	 * @param args - arguments will be written on command line when called without any option
 	 */
 	public static void main(String[] args) {
 		try {
+			// Training run for the class data sharing archive (see bin/run.sh)
+			if (Arrays.asList(args).contains("--train")) {
+				if (args.length > 1) throw new TemplatingException("Option --train cannot be combined with other options");
+				Training.run();
+				return;
+			}
+
 			Date generationTime      = new Date();
 
 			// Parse the command line
 			CommandLineParser parser = new DefaultParser();
 			CommandLine cl           = parser.parse(getCommandLineOptions(), args);
 			
-			// The template directory
+			// The template directory or a zip/jar bundle
 			String projectDir   = cl.getOptionValue("t");
 			File projectDirFile = new File(projectDir);
-			if (!projectDirFile.isDirectory() || !projectDirFile.canRead()) throw new FileNotFoundException("Cannot read "+projectDir);
+			if (!projectDirFile.canRead() || !(projectDirFile.isDirectory() || projectDirFile.isFile())) throw new FileNotFoundException("Cannot read "+projectDir);
+			Path projectPath = projectDirFile.toPath();
+			if (projectDirFile.isFile()) {
+				if (cl.hasOption("watch")) throw new TemplatingException("Option --watch requires a template directory");
+				projectPath = FileSystems.newFileSystem(projectPath).getPath("/");
+				projectDir  = FilenameUtils.removeExtension(projectDir);
+				log.info("Reading templates from "+projectDirFile.getCanonicalPath());
+			}
+			
+			// Sharded generation requires all processes to share the output directory
+			if (cl.hasOption("shard") || cl.hasOption("merge-shards")) {
+				if (!cl.hasOption("o")) throw new TemplatingException("Options --shard and --merge-shards require -o");
+				if (cl.hasOption("a") || cl.hasOption("watch") || cl.hasOption("serve")) {
+					throw new TemplatingException("Options --shard and --merge-shards cannot be combined with -a, --watch or --serve");
+				}
+			}
 			
 			// The output directory
 			String outDir   = cl.getOptionValue("o");
 			if (outDir == null) {
 				// Generating the output folder name
-				String datetime = DATETIMEBUILDER.format(generationTime);
+				String datetime = DATETIMEBUILDER.format(generationTime.toInstant().atZone(ZoneId.systemDefault()));
 				outDir = projectDir+"-"+datetime;			
 			}
 			
-			// Handle any existing output directory
-			File outDirFile = new File(outDir);
-			if (outDirFile.exists()) {
-				if (!cl.hasOption("f")) {
+			// Handle any existing output directory (not required when writing an archive)
+			File outDirFile  = new File(outDir);
+			File archiveFile = cl.hasOption("a") ? new File(cl.getOptionValue("a")) : null;
+			if (archiveFile != null) {
+				if (cl.hasOption("i") || cl.hasOption("watch") || cl.hasOption("skip-unchanged") || cl.hasOption("dedup")) {
+					throw new TemplatingException("Option -a cannot be combined with -i, --watch, --skip-unchanged or --dedup");
+				}
+				if (archiveFile.exists() && !cl.hasOption("f")) {
+					throw new TemplatingException("Archive already exists. Use -f option to force overwriting");
+				}
+			} else if (cl.hasOption("serve")) {
+				if (cl.hasOption("i") || cl.hasOption("watch")) {
+					throw new TemplatingException("Option --serve cannot be combined with -i or --watch");
+				}
+			} else if (outDirFile.exists()) {
+				if (cl.hasOption("i") || cl.hasOption("watch") || cl.hasOption("shard") || cl.hasOption("merge-shards")) {
+					log.info("Updating existing output directory "+outDirFile.getAbsolutePath());
+				} else if (!cl.hasOption("f")) {
 					throw new TemplatingException("Output directory already exists. Use -f option to force overwriting");
 				} else {
 					File oldDir = new File(outDirFile.getAbsolutePath()+".old");
@@ -125,36 +857,36 @@ public class TemplateMachine {
 			// Read the configuration
 			Properties config         = new Properties();
 			String     configFilename = cl.getOptionValue("c");
-			File       configFile     = null;
+			Path       configFile     = null;
 			if (configFilename != null) {
-				configFile     = new File(configFilename);
-				if (!configFile.exists() || !configFile.isFile()) {
+				configFile     = new File(configFilename).toPath();
+				if (!Files.isRegularFile(configFile)) {
 					throw new TemplatingException(configFilename+" does not exist");
 				}
 			} else {
-				configFile = new File(projectDirFile, "template-machine.properties");
-				if (!configFile.exists() || !configFile.isFile()) configFile = null;
+				configFile = projectPath.resolve("template-machine.properties");
+				if (!Files.isRegularFile(configFile)) configFile = null;
 			}
 						
 			// Read config
 			if (configFile != null) {
 				config = load(configFile);
-				log.info("Using config: "+configFile.getCanonicalPath());
+				log.info("Using config: "+configFile.toRealPath());
 			}
 
 			// The sub dir if it exists
 			String subDir     = cl.getOptionValue("s");
-			File   subDirFile = projectDirFile;
+			Path   subDirPath = projectPath;
 			if (subDir != null) {
-				subDirFile = new File(projectDirFile, subDir);
-				if (!subDirFile.exists() || !subDirFile.isDirectory()) {
-					throw new TemplatingException("Sub-directory "+subDirFile.getCanonicalPath()+" does not exist");
+				subDirPath = projectPath.resolve(subDir);
+				if (!Files.isDirectory(subDirPath)) {
+					throw new TemplatingException("Sub-directory "+subDirPath.toAbsolutePath()+" does not exist");
 				}
-				log.info("Sub dir generation only: "+subDirFile.getCanonicalPath());
+				log.info("Sub dir generation only: "+subDirPath.toRealPath());
 			}
 			
 			// Create rootContext
-			Context rootContext = new Context(projectDirFile, outDirFile, subDirFile, config);
+			Context rootContext = new Context(projectPath, outDirFile, subDirPath, config);
 			rootContext.ignoreFile(configFile);
 			
 			// Reading encoding
@@ -178,8 +910,82 @@ public class TemplateMachine {
 			// Now the machine itself
 			TemplateMachine machine = new TemplateMachine(rootContext);
 			
+			// Parallel generation
+			if (cl.hasOption("p")) {
+				machine.setParallel(true);
+				String threads = cl.getOptionValue("p");
+				if (threads != null) machine.setParallelism(Integer.parseInt(threads));
+				machine.setPlanned(cl.hasOption("plan"));
+			}
+			
+			// Incremental generation
+			machine.setIncremental(cl.hasOption("i"));
+			
+			// Keep parsed configuration, localization and macro files between runs
+			if (cl.hasOption("cache-dir")) {
+				machine.setCacheDir(new File(cl.getOptionValue("cache-dir")));
+			}
+			
+			// Generate a part of the files only
+			if (cl.hasOption("shard")) {
+				machine.setShard(Shard.parse(cl.getOptionValue("shard")));
+				log.info("Generating shard "+machine.getShard());
+			}
+			
+			// Parallel rendering within directories
+			if (cl.hasOption("j")) {
+				machine.setRenderThreads(Integer.parseInt(cl.getOptionValue("j")));
+			}
+			
+			// Render once for languages with the same values
+			machine.setReuseRenders(cl.hasOption("reuse-renders"));
+			
+			// Leave unchanged files untouched and link identical files
+			if (cl.hasOption("skip-unchanged") || cl.hasOption("dedup")) {
+				FileSink sink = new FileSink();
+				sink.setSkipUnchanged(cl.hasOption("skip-unchanged"));
+				sink.setDeduplicate(cl.hasOption("dedup"));
+				machine.setOutputSink(sink);
+			}
+			
+			// Stream into an archive
+			if (archiveFile != null) {
+				machine.setOutputSink(new ArchiveSink(archiveFile, outDirFile));
+				log.info("Writing archive "+archiveFile.getAbsolutePath());
+			}
+			
+			// Metrics report
+			MetricsCollector metrics = null;
+			if (cl.hasOption("m")) {
+				metrics = new MetricsCollector();
+				machine.setListener(metrics);
+			}
+			
 			// And run...
-			machine.generate();
+			if (cl.hasOption("merge-shards")) {
+				machine.mergeShards(Integer.parseInt(cl.getOptionValue("merge-shards")));
+			} else if (cl.hasOption("serve")) {
+				// The server runs until the JVM is stopped, the hook closes it
+				RenderServer server = new RenderServer(machine);
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					try {
+						server.close();
+					} catch (IOException e) {
+						log.error("Cannot stop server", e);
+					}
+				}));
+				server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(cl.getOptionValue("serve"))));
+				server.await();
+			} else if (cl.hasOption("watch")) {
+				try (Watcher watcher = new Watcher(machine)) {
+					watcher.start();
+					if (metrics != null) writeMetrics(metrics, new File(cl.getOptionValue("m")));
+					watcher.watch();
+				}
+			} else {
+				machine.generate();
+				if (metrics != null) writeMetrics(metrics, new File(cl.getOptionValue("m")));
+			}
 		} catch (MissingOptionException e) {
 			HelpFormatter formatter = new HelpFormatter();
 			formatter.printHelp("template-machine", getCommandLineOptions());
@@ -188,6 +994,17 @@ public class TemplateMachine {
 		}
 	}
 
+	/**
+	 * Writes the metrics report of the run.
+	 * @param metrics - the metrics collected
+	 * @param file    - the report file
+	 * @throws IOException - when the report cannot be written
+	 */
+	protected static void writeMetrics(MetricsCollector metrics, File file) throws IOException {
+		metrics.writeReport(file);
+		log.info("Metrics written to "+file.getAbsolutePath());
+	}
+
 	/**
 	 * Creates the command line options.
 	 * @return CL options object
@@ -196,7 +1013,7 @@ public class TemplateMachine {
 		Options rc = new Options();
 		Option option = null;
 
-		option = new Option("t", "template-dir", true, "(template) source directory");
+		option = new Option("t", "template-dir", true, "(template) source directory or zip/jar file");
 		option.setRequired(true);
 		option.setArgs(1);
 		rc.addOption(option);
@@ -216,6 +1033,11 @@ public class TemplateMachine {
 		option.setArgs(0);
 		rc.addOption(option);
 
+		option = new Option("i", "incremental", true, "generate files with changed inputs only and update existing output directory (optional)");
+		option.setRequired(false);
+		option.setArgs(0);
+		rc.addOption(option);
+
 		option = new Option("r", "read-encoding", true, "encoding of templates (optional, defaults to platform)");
 		option.setRequired(false);
 		option.setArgs(1);
@@ -231,12 +1053,95 @@ public class TemplateMachine {
 		option.setArgs(1);
 		rc.addOption(option);
 
+		option = new Option("p", "parallel", true, "generate directories in parallel (optional, number of threads defaults to available processors)");
+		option.setRequired(false);
+		option.setArgs(1);
+		option.setOptionalArg(true);
+		rc.addOption(option);
+
+		option = new Option("j", "render-threads", true, "maximum number of files and languages rendered concurrently within a directory (optional)");
+		option.setRequired(false);
+		option.setArgs(1);
+		rc.addOption(option);
+
+		option = new Option("a", "archive", true, "write all generated files into the given .zip, .tar or .tar.gz file instead of the output directory (optional)");
+		option.setRequired(false);
+		option.setArgs(1);
+		rc.addOption(option);
+
+		option = new Option("m", "metrics", true, "write timings of the run as JSON report to the given file (optional)");
+		option.setRequired(false);
+		option.setArgs(1);
+		rc.addOption(option);
+
+		option = new Option(null, "cache-dir", true, "keep parsed configuration, localization and macro files in the given directory to speed up the next run (optional)");
+		option.setRequired(false);
+		option.setArgs(1);
+		rc.addOption(option);
+
+		option = new Option(null, "dedup", true, "write files with identical content once and hard-link all copies (optional)");
+		option.setRequired(false);
+		option.setArgs(0);
+		rc.addOption(option);
+
+		option = new Option(null, "reuse-renders", true, "render a template once for all languages that provide the same values for the keys it reads (optional)");
+		option.setRequired(false);
+		option.setArgs(0);
+		rc.addOption(option);
+
+		option = new Option(null, "shard", true, "generate the i-th of N parts of all files (i/N) into a shared output directory, see --merge-shards (optional)");
+		option.setRequired(false);
+		option.setArgs(1);
+		rc.addOption(option);
+
+		option = new Option(null, "skip-unchanged", true, "do not write files whose content did not change, preserving their modification time (optional)");
+		option.setRequired(false);
+		option.setArgs(0);
+		rc.addOption(option);
+
+		option = new Option(null, "merge-shards", true, "combine statistics and manifests of the given number of shards in the output directory (optional)");
+		option.setRequired(false);
+		option.setArgs(1);
+		rc.addOption(option);
+
+		option = new Option(null, "plan", true, "with -p: plan all files first and render the most expensive first, based on the render times of previous runs (optional)");
+		option.setRequired(false);
+		option.setArgs(0);
+		rc.addOption(option);
+
+		option = new Option(null, "serve", true, "keep running and render single templates on request at http://localhost:<port>/render/<path>?lang=<language> (optional)");
+		option.setRequired(false);
+		option.setArgs(1);
+		rc.addOption(option);
+
+		option = new Option(null, "train", true, "generate a sample tree only, used by the launcher to create a class data sharing archive for faster startup, cannot be combined with other options (optional)");
+		option.setRequired(false);
+		option.setArgs(0);
+		rc.addOption(option);
+
+		option = new Option(null, "watch", true, "keep running and regenerate when sources change, implies incremental generation (optional)");
+		option.setRequired(false);
+		option.setArgs(0);
+		rc.addOption(option);
+
 		return rc;
 	}
 
 	public static Properties load(File file) throws IOException {
+		return load(file.toPath());
+	}
+
+	/**
+	 * Loads the configuration file from any file system.
+	 * @param file - the configuration file
+	 * @return the configuration
+	 * @throws IOException - when the file cannot be read
+	 */
+	public static Properties load(Path file) throws IOException {
 		Properties rc = new Properties();
-		rc.load(new FileReader(file));
+		try (Reader reader = new InputStreamReader(Files.newInputStream(file))) {
+			rc.load(reader);
+		}
 		return rc;
 	}
 }
@@ -0,0 +1,88 @@
+package templating;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A representative generation that loads the classes of a typical run.
+ * <p>The launcher scripts start the training with {@code --train} in a JVM that dumps all loaded classes
+ * into a class data sharing (AppCDS) archive at exit. Later runs map this archive instead of loading and
+ * verifying the classes of FreeMarker, commons-cli and the logging framework from the jar files again.</p>
+ * <p>The training writes a small source tree with configuration, localization and macro files into a
+ * temporary directory and generates it through the command line interface with the common options.
+ * The directory is removed afterwards.</p>
+ * @author ralph
+ *
+ */
+public class Training {
+
+	/** The logger */
+	public static Logger log = LoggerFactory.getLogger(Training.class);
+
+	/**
+	 * Runs the training.
+	 * @throws IOException - when the sample tree cannot be written or removed
+	 */
+	public static void run() throws IOException {
+		File baseDir = Files.createTempDirectory("template-machine-training").toFile();
+		try {
+			File sourceDir = new File(baseDir, "source");
+			createTree(sourceDir);
+			String source = sourceDir.getAbsolutePath();
+			String output = new File(baseDir, "output").getAbsolutePath();
+
+			// A complete and an incremental parallel run, then a sub directory into an archive
+			TemplateMachine.main(new String[] { "-t", source, "-o", output, "-r", "UTF-8", "-w", "UTF-8" });
+			TemplateMachine.main(new String[] { "-t", source, "-o", output, "-r", "UTF-8", "-w", "UTF-8", "-i", "-p", "2", "-j", "2", "--reuse-renders",
+					"-m", new File(baseDir, "metrics.json").getAbsolutePath() });
+			TemplateMachine.main(new String[] { "-t", source, "-s", "dir-1", "-r", "UTF-8", "-w", "UTF-8",
+					"-a", new File(baseDir, "output.zip").getAbsolutePath() });
+			log.info("Training finished");
+		} finally {
+			FileUtils.deleteDirectory(baseDir);
+		}
+	}
+
+	/**
+	 * Writes the sample tree.
+	 * @param sourceDir - the root of the tree
+	 * @throws IOException - when the tree cannot be written
+	 */
+	protected static void createTree(File sourceDir) throws IOException {
+		write(sourceDir, "template-machine.properties", "languages=de,en,fr=en\n");
+		write(sourceDir, "__localization/default.properties", "greeting=Hello\nsubject=Your order\ncount=3\n");
+		write(sourceDir, "__localization/de.properties", "greeting=Hallo\nsubject=Ihre Bestellung\n");
+		write(sourceDir, "__localization/en.properties", "greeting=Hello\n");
+		write(sourceDir, "__templates/page.ftl", "<#macro page title>\n<html><head><title>${title?html}</title></head>\n<body><#nested></body></html>\n</#macro>\n");
+		for (String dir : new String[] { "dir-1", "dir-1/dir-11", "dir-2" }) {
+			write(sourceDir, dir+"/__localization/de.properties", "greeting=Servus aus "+dir+"\n");
+			write(sourceDir, dir+"/index.html", "<#import \"page.ftl\" as layout>\n"
+				+ "<@layout.page title=greeting>\n"
+				+ "<p>${greeting} (${languageKey}, ${runDate} ${runTime})</p>\n"
+				+ "<#list 1..count?number as i><p>${i}. ${subject?upper_case}</p></#list>\n"
+				+ "<#if greeting?starts_with(\"H\")><p>${greeting?length}</p><#else><p>${greeting?cap_first}</p></#if>\n"
+				+ "</@layout.page>\n");
+			write(sourceDir, dir+"/mail.txt", "Subject: <@rfc2047Q>${subject}</@rfc2047Q>\n"
+				+ "X-Subject: <@rfc2047B>${subject}</@rfc2047B>\n"
+				+ "Body: <@qp>${greeting}</@qp>\n");
+		}
+		write(sourceDir, "dir-2/.config", "languages=de,en\n");
+	}
+
+	/**
+	 * Writes a file of the sample tree.
+	 * @param sourceDir - the root of the tree
+	 * @param path      - the path of the file
+	 * @param content   - the content
+	 * @throws IOException - when the file cannot be written
+	 */
+	protected static void write(File sourceDir, String path, String content) throws IOException {
+		FileUtils.writeStringToFile(new File(sourceDir, path), content, StandardCharsets.UTF_8);
+	}
+}
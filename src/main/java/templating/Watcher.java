@@ -0,0 +1,382 @@
+package templating;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import templating.util.BuildManifest;
+import templating.util.GenerationInfo;
+import templating.util.OutputSink;
+
+/**
+ * Watches the source tree and regenerates files when sources change.
+ * <p>The contexts of all directories and the parsed macro templates stay in memory.
+ * A change of a {@code .config} file, a localization or a macro file reloads the context of the
+ * directory and its sub directories. A change of any other file regenerates its directory only.
+ * Generation is always incremental, so only files with changed inputs will be written.</p>
+ * <p>Changes are collected until no more changes occur within the debounce time
+ * and then processed as a single batch.</p>
+ * @author ralph
+ *
+ */
+public class Watcher implements Closeable {
+
+	/** The logger */
+	public static Logger log = LoggerFactory.getLogger(Watcher.class);
+
+	protected TemplateMachine         machine;
+	protected WatchService            watchService;
+	protected Map<WatchKey,WatchedDir> watchedDirs;
+	protected long                    debounceMillis;
+	protected int                     batches;
+
+	/**
+	 * Constructor.
+	 * @param machine - the machine to generate with
+	 */
+	public Watcher(TemplateMachine machine) {
+		this.machine        = machine;
+		this.watchedDirs    = new HashMap<>();
+		this.debounceMillis = 300;
+		this.batches        = 0;
+	}
+
+	/**
+	 * Generates all files and starts watching the source tree.
+	 * @return the generation information from the run (statistics)
+	 * @throws IOException - when the source tree cannot be watched
+	 */
+	public GenerationInfo start() throws IOException {
+		machine.setIncremental(true);
+		machine.setRetainContexts(true);
+		watchService = FileSystems.getDefault().newWatchService();
+		GenerationInfo rc = machine.generate();
+		for (Context context : machine.getContexts().values()) {
+			register(context);
+		}
+		log.info("Watching "+machine.getRootContext().getSourceRootPath()+" for changes...");
+		return rc;
+	}
+
+	/**
+	 * Processes changes until the watcher is closed.
+	 * @throws IOException - when the manifest cannot be written
+	 * @throws InterruptedException - when the thread was interrupted
+	 */
+	public void watch() throws IOException, InterruptedException {
+		try {
+			while (true) {
+				Set<Path> reloadDirs     = new HashSet<>();
+				Set<Path> regenerateDirs = new HashSet<>();
+				collect(watchService.take(), reloadDirs, regenerateDirs);
+
+				// Wait until changes stop
+				WatchKey key;
+				while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+					collect(key, reloadDirs, regenerateDirs);
+				}
+				if (!reloadDirs.isEmpty() || !regenerateDirs.isEmpty()) {
+					process(reloadDirs, regenerateDirs);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			log.info("Watching stopped");
+		}
+	}
+
+	/**
+	 * Collects the directories affected by the events of a key.
+	 * @param key            - the key with the events
+	 * @param reloadDirs     - directories that require their contexts to be reloaded
+	 * @param regenerateDirs - directories that require their files to be generated
+	 */
+	protected void collect(WatchKey key, Set<Path> reloadDirs, Set<Path> regenerateDirs) {
+		WatchedDir watched = watchedDirs.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				reloadDirs.add(getRootDir());
+			} else if (watched != null) {
+				Path path = watched.dir.resolve((Path)event.context());
+				if (!watched.dir.equals(watched.contextDir)) {
+					// A localization or macro file
+					reloadDirs.add(watched.contextDir);
+				} else {
+					Context context = machine.getContexts().get(watched.contextDir);
+					if ((context == null) || isIgnored(context, path)) continue;
+					if (Files.isDirectory(path) || machine.getContexts().containsKey(path)) {
+						reloadDirs.add(context.isSpecialFile(path) ? watched.contextDir : path);
+					} else if (path.getFileName().toString().equals(".config")) {
+						reloadDirs.add(watched.contextDir);
+					} else if (context.isValidFile(path)) {
+						regenerateDirs.add(watched.contextDir);
+					}
+				}
+			}
+		}
+		if (!key.reset()) {
+			watchedDirs.remove(key);
+		}
+	}
+
+	/**
+	 * Reloads and regenerates the affected directories.
+	 * <p>The output sink is opened and closed for each batch and the manifest is saved afterwards,
+	 * as in {@link TemplateMachine#generate()}.</p>
+	 * @param reloadDirs     - directories that require their contexts to be reloaded
+	 * @param regenerateDirs - directories that require their files to be generated
+	 * @throws IOException - when the manifest cannot be written
+	 */
+	protected void process(Collection<Path> reloadDirs, Collection<Path> regenerateDirs) throws IOException {
+		batches++;
+		BuildManifest manifest = machine.manifest;
+		manifest.startRun();
+
+		// Only the outermost directories need to be reloaded
+		List<Path> reloadRoots = new ArrayList<>();
+		for (Path dir : new TreeSet<>(reloadDirs)) {
+			if (!isWithinAny(dir, reloadRoots)) reloadRoots.add(dir);
+		}
+		List<Path> generateDirs = new ArrayList<>();
+		for (Path dir : new TreeSet<>(regenerateDirs)) {
+			if (!isWithinAny(dir, reloadRoots)) generateDirs.add(dir);
+		}
+
+		// Each batch is a run of the output sink
+		OutputSink sink = machine.getOutputSink();
+		sink.open();
+		try {
+			for (Path dir : reloadRoots) {
+				log.info("Reloading "+dir);
+				reload(dir);
+			}
+			for (Path dir : generateDirs) {
+				Context context = machine.getContexts().get(dir);
+				if (context != null) {
+					log.info("Regenerating "+dir);
+					machine.createGenerator(context).run();
+				}
+			}
+		} catch (TemplatingException e) {
+			sink.abort();
+			log.error(e.getMessage(), e);
+			// Keep all entries for the next batch
+			manifest.removeStale(entry -> false);
+			return;
+		} catch (Throwable t) {
+			sink.abort();
+			throw t;
+		}
+		sink.close();
+
+		// Remove stale files
+		List<String> reloadPaths   = getManifestPaths(reloadRoots);
+		List<String> generatePaths = getManifestPaths(generateDirs);
+		Collection<String> removed = manifest.removeStale(entry -> {
+			for (String path : reloadPaths) {
+				if (BuildManifest.isWithin(entry.getTemplate(), path)) return true;
+			}
+			for (String path : generatePaths) {
+				if (BuildManifest.isDirectlyIn(entry.getTemplate(), path)) return true;
+			}
+			return false;
+		});
+		for (String path : removed) {
+			log.info("Removed stale file "+path);
+		}
+		manifest.save();
+	}
+
+	/**
+	 * Creates new contexts for the directory and its sub directories and generates them.
+	 * @param dir - the directory
+	 * @throws IOException - when the directories cannot be watched
+	 */
+	protected void reload(Path dir) throws IOException {
+		// Forget the sub tree
+		Path rootDir = getRootDir();
+		machine.getContexts().keySet().removeIf(p -> p.startsWith(dir));
+		Iterator<Map.Entry<WatchKey,WatchedDir>> i = watchedDirs.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<WatchKey,WatchedDir> entry = i.next();
+			if (entry.getValue().contextDir.startsWith(dir)) {
+				entry.getKey().cancel();
+				i.remove();
+			}
+		}
+
+		// Load and generate again
+		if (dir.equals(rootDir)) {
+			Context context = machine.getRootContext().reload(null);
+			machine.rootContext = context;
+			machine.getContexts().put(dir, context);
+			machine.generateRecursively(context);
+		} else {
+			Context parent = machine.getContexts().get(dir.getParent());
+			if ((parent != null) && Files.isDirectory(dir) && !parent.isSpecialFile(dir) && parent.isInScope(dir)) {
+				machine.generateRecursively(machine.createContext(parent, dir));
+			}
+		}
+
+		// Watch the new contexts
+		for (Map.Entry<Path,Context> entry : machine.getContexts().entrySet()) {
+			if (entry.getKey().startsWith(dir)) register(entry.getValue());
+		}
+	}
+
+	/**
+	 * Watches the directory of a context including its localization and template directories.
+	 * @param context - the context
+	 * @throws IOException - when the directories cannot be watched
+	 */
+	protected void register(Context context) throws IOException {
+		Path dir = TemplateMachine.getContextKey(context.getSourceDirPath());
+		register(dir, dir);
+		Path localizationDir = dir.resolve(context.getConfigString("localizationDir"));
+		if (Files.isDirectory(localizationDir)) register(localizationDir, dir);
+		Path templateDir = dir.resolve(context.getConfigString("templateDir"));
+		if (Files.isDirectory(templateDir)) {
+			try (Stream<Path> paths = Files.walk(templateDir)) {
+				for (Path path : (Iterable<Path>)paths.filter(Files::isDirectory)::iterator) {
+					register(path, dir);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Watches a single directory.
+	 * @param dir        - the directory to watch
+	 * @param contextDir - the directory of the context the directory belongs to
+	 * @throws IOException - when the directory cannot be watched
+	 */
+	protected void register(Path dir, Path contextDir) throws IOException {
+		WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+		watchedDirs.put(key, new WatchedDir(dir, contextDir));
+	}
+
+	/**
+	 * Returns the directory of the root context.
+	 * @return the absolute path
+	 */
+	protected Path getRootDir() {
+		return TemplateMachine.getContextKey(machine.getRootContext().getSourceDirPath());
+	}
+
+	/**
+	 * Returns the manifest paths of the given directories.
+	 * @param dirs - the directories
+	 * @return the paths relative to the source root
+	 */
+	protected List<String> getManifestPaths(Collection<Path> dirs) {
+		Path rootDir = getRootDir();
+		List<String> rc = new ArrayList<>();
+		for (Path dir : dirs) {
+			rc.add(FilenameUtils.separatorsToUnix(rootDir.relativize(dir).toString()));
+		}
+		return rc;
+	}
+
+	/**
+	 * Returns whether the file shall be ignored.
+	 * @param context - the context of the directory
+	 * @param file    - the file to check
+	 * @return {@code true} when the file was marked to be ignored
+	 */
+	protected static boolean isIgnored(Context context, Path file) {
+		for (Path ignored : context.getIgnoredFiles()) {
+			if ((ignored != null) && ignored.toAbsolutePath().equals(file.toAbsolutePath())) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the path is within any of the given directories.
+	 * @param path - the path
+	 * @param dirs - the directories
+	 * @return {@code true} when the path is equal or within any directory
+	 */
+	protected static boolean isWithinAny(Path path, Collection<Path> dirs) {
+		for (Path dir : dirs) {
+			if (path.startsWith(dir)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of batches processed.
+	 * @return the number of batches
+	 */
+	public int getBatches() {
+		return batches;
+	}
+
+	/**
+	 * Returns the debounce time.
+	 * @return the time in milliseconds without changes before a batch is processed
+	 */
+	public long getDebounceMillis() {
+		return debounceMillis;
+	}
+
+	/**
+	 * Sets the debounce time.
+	 * @param debounceMillis - the time in milliseconds without changes before a batch is processed
+	 */
+	public void setDebounceMillis(long debounceMillis) {
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Stops watching.
+	 * @throws IOException - when the watch service cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (watchService != null) watchService.close();
+	}
+
+	/**
+	 * A watched directory and the context it belongs to.
+	 */
+	protected static class WatchedDir {
+
+		protected Path dir;
+		protected Path contextDir;
+
+		/**
+		 * Constructor.
+		 * @param dir        - the directory watched
+		 * @param contextDir - the directory of the context
+		 */
+		public WatchedDir(Path dir, Path contextDir) {
+			this.dir        = dir;
+			this.contextDir = contextDir;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package templating.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import templating.TemplatingException;
+
+/**
+ * Streams generated files into a zip or tar archive instead of the output directory.
+ * <p>Entries are named by their path relative to the output root, so the archive has the same
+ * layout as the generated directory tree. Files can be written from multiple threads; entries
+ * appear in the order they were finished.</p>
+ * <p>The archive is written to a temporary file and moved into place when the run is finished.
+ * An existing archive is left untouched when the run fails.</p>
+ * @author ralph
+ *
+ */
+public class ArchiveSink implements OutputSink {
+
+	/**
+	 * The supported archive formats.
+	 */
+	public static enum Format {
+		ZIP, TAR, TAR_GZ;
+
+		/**
+		 * Returns the format by the name of the archive file.
+		 * @param file - the archive file ({@code .zip}, {@code .tar}, {@code .tar.gz} or {@code .tgz})
+		 * @return the format
+		 * @throws TemplatingException - when the file name has no known extension
+		 */
+		public static Format forFile(File file) {
+			String name = file.getName().toLowerCase();
+			if (name.endsWith(".zip"))    return ZIP;
+			if (name.endsWith(".tar"))    return TAR;
+			if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) return TAR_GZ;
+			throw new TemplatingException("Unknown archive format: "+file.getName());
+		}
+	}
+
+	private File                                        archiveFile;
+	private File                                        outputRoot;
+	private Format                                      format;
+	private Path                                        tempFile;
+	private OutputStream                                tempOut;
+	private ArchiveOutputStream<? extends ArchiveEntry> out;
+	private Set<String>                                 directories;
+	private Date                                        modificationTime;
+	private int                                         entries;
+
+	/**
+	 * Constructor.
+	 * @param archiveFile - the archive to be created
+	 * @param outputRoot  - the output root directory that the entry names are relative to
+	 */
+	public ArchiveSink(File archiveFile, File outputRoot) {
+		this(archiveFile, outputRoot, Format.forFile(archiveFile));
+	}
+
+	/**
+	 * Constructor.
+	 * @param archiveFile - the archive to be created
+	 * @param outputRoot  - the output root directory that the entry names are relative to
+	 * @param format      - the archive format
+	 */
+	public ArchiveSink(File archiveFile, File outputRoot, Format format) {
+		this.archiveFile = archiveFile;
+		this.outputRoot  = outputRoot;
+		this.format      = format;
+		this.directories = new HashSet<>();
+	}
+
+	/**
+	 * Creates the archive.
+	 */
+	@Override
+	public synchronized void open() throws IOException {
+		if (out != null) throw new IllegalStateException("Archive is already open: "+archiveFile.getPath());
+		FileUtils.forceMkdirParent(archiveFile.getAbsoluteFile());
+		tempFile         = Files.createTempFile(archiveFile.getAbsoluteFile().getParentFile().toPath(), "."+archiveFile.getName()+".", ".tmp");
+		modificationTime = new Date();
+		entries          = 0;
+		directories.clear();
+
+		tempOut = Files.newOutputStream(tempFile);
+		OutputStream stream = new BufferedOutputStream(tempOut);
+		if (format == Format.ZIP) {
+			out = new ZipArchiveOutputStream(stream);
+		} else {
+			if (format == Format.TAR_GZ) stream = new GzipCompressorOutputStream(stream);
+			TarArchiveOutputStream tar = new TarArchiveOutputStream(stream, "UTF-8");
+			tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+			out = tar;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized long write(File outFile, byte[] content, int length) throws IOException {
+		if (out == null) throw new IllegalStateException("Archive is not open: "+archiveFile.getPath());
+		String name = getEntryName(outFile);
+		addDirectories(name);
+		putEntry(name, length);
+		out.write(content, 0, length);
+		out.closeArchiveEntry();
+		entries++;
+		return length;
+	}
+
+	/**
+	 * Finishes the archive and moves it into place.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (out == null) return;
+		try {
+			out.finish();
+			out.close();
+			out = null;
+			Files.move(tempFile, archiveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Discards the archive. An existing archive is not replaced.
+	 */
+	@Override
+	public synchronized void abort() throws IOException {
+		if (out == null) return;
+		try {
+			// Do not finish the archive, just release the file
+			tempOut.close();
+		} finally {
+			out = null;
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Returns the entry name of an output file.
+	 * @param outFile - the output file
+	 * @return the path relative to the output root with {@code /} as separator
+	 */
+	protected String getEntryName(File outFile) {
+		Path root = outputRoot.getAbsoluteFile().toPath().normalize();
+		Path file = outFile.getAbsoluteFile().toPath().normalize();
+		if (!file.startsWith(root)) throw new TemplatingException(outFile.getPath()+" is not within "+outputRoot.getPath());
+		return FilenameUtils.separatorsToUnix(root.relativize(file).toString());
+	}
+
+	/**
+	 * Adds entries for all parent directories of a file not added yet.
+	 * @param name - the entry name of the file
+	 * @throws IOException - when the entries cannot be written
+	 */
+	protected void addDirectories(String name) throws IOException {
+		int idx = name.indexOf('/');
+		while (idx > 0) {
+			String dir = name.substring(0, idx+1);
+			if (directories.add(dir)) {
+				putEntry(dir, 0);
+				out.closeArchiveEntry();
+			}
+			idx = name.indexOf('/', idx+1);
+		}
+	}
+
+	/**
+	 * Starts a new entry.
+	 * @param name   - the entry name, ending with {@code /} for directories
+	 * @param length - the size of the entry
+	 * @throws IOException - when the entry cannot be written
+	 */
+	@SuppressWarnings("unchecked")
+	protected void putEntry(String name, int length) throws IOException {
+		if (format == Format.ZIP) {
+			ZipArchiveEntry entry = new ZipArchiveEntry(name);
+			entry.setTime(modificationTime.getTime());
+			if (!entry.isDirectory()) entry.setSize(length);
+			((ArchiveOutputStream<ZipArchiveEntry>)out).putArchiveEntry(entry);
+		} else {
+			TarArchiveEntry entry = new TarArchiveEntry(name);
+			entry.setModTime(modificationTime);
+			if (!entry.isDirectory()) entry.setSize(length);
+			((ArchiveOutputStream<TarArchiveEntry>)out).putArchiveEntry(entry);
+		}
+	}
+
+	/**
+	 * Returns the archive file.
+	 * @return the archive file
+	 */
+	public File getArchiveFile() {
+		return archiveFile;
+	}
+
+	/**
+	 * Returns the archive format.
+	 * @return the format
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns the number of files written in this run.
+	 * @return the number of file entries
+	 */
+	public synchronized int getEntries() {
+		return entries;
+	}
+}
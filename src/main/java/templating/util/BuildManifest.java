@@ -0,0 +1,285 @@
+package templating.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Records the fingerprint of the inputs of each generated file.
+ * <p>The manifest is stored in the output root directory and allows to skip files
+ * whose inputs did not change since the last run. Paths are relative to the output root
+ * and always use {@code /} as separator.</p>
+ * @author ralph
+ *
+ */
+public class BuildManifest {
+
+	/** The name of the manifest file in the output root */
+	public static final String FILENAME = ".template-machine.manifest";
+
+	private File               outputRoot;
+	private File               file;
+	private Map<String,Entry>  previous;
+	private Map<String,Entry>  current;
+
+	/**
+	 * Constructor.
+	 * @param outputRoot - the output root directory
+	 */
+	public BuildManifest(File outputRoot) {
+		this.outputRoot = outputRoot;
+		this.file       = new File(outputRoot, FILENAME);
+		this.previous   = new ConcurrentHashMap<>();
+		this.current    = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Starts a new run based on the current state of the manifest.
+	 * <p>This is required when the same manifest is used for multiple runs without saving and loading it.
+	 * The previous run must have been finished with {@link #removeStale(Predicate)}, so all entries are current.</p>
+	 */
+	public void startRun() {
+		previous.clear();
+		previous.putAll(current);
+		current.clear();
+	}
+
+	/**
+	 * Loads the manifest of the previous run (if it exists).
+	 * @throws IOException when the manifest cannot be read
+	 */
+	public void load() throws IOException {
+		previous.clear();
+		current.clear();
+		read(file, previous);
+	}
+
+	/**
+	 * Adds the entries saved by another run to this run, e.g. by a shard.
+	 * @param file - the manifest file of the other run (ignored when it does not exist)
+	 * @throws IOException when the manifest cannot be read
+	 */
+	public void merge(File file) throws IOException {
+		read(file, current);
+	}
+
+	/**
+	 * Reads the entries of a manifest file.
+	 * @param file    - the manifest file
+	 * @param entries - receives the entries
+	 * @throws IOException when the manifest cannot be read
+	 */
+	protected static void read(File file, Map<String,Entry> entries) throws IOException {
+		if (file.isFile()) {
+			Properties p = new Properties();
+			try (InputStream in = new FileInputStream(file)) {
+				p.load(in);
+			}
+			for (String path : p.stringPropertyNames()) {
+				entries.put(path, Entry.parse(p.getProperty(path)));
+			}
+		}
+	}
+
+	/**
+	 * Returns the manifest path of the given output file.
+	 * @param outFile - the output file
+	 * @return the path relative to the output root
+	 */
+	public String getPath(File outFile) {
+		return FilenameUtils.separatorsToUnix(outputRoot.toPath().relativize(outFile.toPath()).toString());
+	}
+
+	/**
+	 * Returns the entry of the previous run.
+	 * @param path - the manifest path of the output file
+	 * @return the entry or {@code null} if the file was not generated before
+	 */
+	public Entry getPrevious(String path) {
+		return previous.get(path);
+	}
+
+	/**
+	 * Records the entry for a file generated in this run.
+	 * @param path         - the manifest path of the output file
+	 * @param template     - the path of the template relative to the source root
+	 * @param fingerprint  - the fingerprint of all inputs
+	 * @param dependencies - the names of all templates imported or included
+	 */
+	public void put(String path, String template, String fingerprint, Collection<String> dependencies) {
+		current.put(path, new Entry(fingerprint, template, dependencies));
+	}
+
+	/**
+	 * Keeps the entry of the previous run as the file is still up-to-date.
+	 * @param path - the manifest path of the output file
+	 */
+	public void keep(String path) {
+		Entry entry = previous.get(path);
+		if (entry != null) current.put(path, entry);
+	}
+
+	/**
+	 * Removes all files from the previous run that were not generated in this run.
+	 * <p>Files whose template is outside the scope (e.g. when generating a sub directory only) are kept.</p>
+	 * @param scope - decides whether an entry was subject to generation in this run
+	 * @return the manifest paths of the removed files
+	 * @throws IOException when a file cannot be deleted
+	 */
+	public Collection<String> removeStale(Predicate<Entry> scope) throws IOException {
+		List<String> rc = new ArrayList<>();
+		for (Map.Entry<String,Entry> entry : previous.entrySet()) {
+			String path = entry.getKey();
+			if (current.containsKey(path)) continue;
+			if (scope.test(entry.getValue())) {
+				FileUtils.deleteQuietly(new File(outputRoot, path));
+				rc.add(path);
+			} else {
+				current.put(path, entry.getValue());
+			}
+		}
+		Collections.sort(rc);
+		return rc;
+	}
+
+	/**
+	 * Returns whether the given path is within a directory (recursively).
+	 * @param path - the path to check
+	 * @param dir  - the directory, empty for the root
+	 * @return {@code true} when the path is within the directory or its sub directories
+	 */
+	public static boolean isWithin(String path, String dir) {
+		return dir.isEmpty() || path.startsWith(dir+"/");
+	}
+
+	/**
+	 * Returns whether the given path is directly within a directory (not in its sub directories).
+	 * @param path - the path to check
+	 * @param dir  - the directory, empty for the root
+	 * @return {@code true} when the path is directly within the directory
+	 */
+	public static boolean isDirectlyIn(String path, String dir) {
+		int lastSlash = path.lastIndexOf('/');
+		return dir.equals(lastSlash < 0 ? "" : path.substring(0, lastSlash));
+	}
+
+	/**
+	 * Saves the manifest of this run.
+	 * @throws IOException when the manifest cannot be written
+	 */
+	public void save() throws IOException {
+		save(file);
+	}
+
+	/**
+	 * Saves the manifest of this run into another file.
+	 * @param file - the file to write
+	 * @throws IOException when the manifest cannot be written
+	 */
+	public void save(File file) throws IOException {
+		Properties p = new Properties();
+		for (Map.Entry<String,Entry> entry : current.entrySet()) {
+			p.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+		FileUtils.forceMkdirParent(file);
+		try (OutputStream out = new FileOutputStream(file)) {
+			p.store(out, "template-machine build manifest");
+		}
+	}
+
+	/**
+	 * Returns the manifest file.
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * A single file in the manifest.
+	 * @author ralph
+	 *
+	 */
+	public static class Entry {
+
+		private String             fingerprint;
+		private String             template;
+		private Collection<String> dependencies;
+
+		/**
+		 * Constructor.
+		 * @param fingerprint  - the fingerprint of all inputs
+		 * @param template     - the path of the template relative to the source root
+		 * @param dependencies - the names of all templates imported or included
+		 */
+		public Entry(String fingerprint, String template, Collection<String> dependencies) {
+			this.fingerprint  = fingerprint;
+			this.template     = template;
+			this.dependencies = Collections.unmodifiableSet(new TreeSet<>(dependencies));
+		}
+
+		/**
+		 * Parses the entry from the manifest file.
+		 * @param value - the value in the manifest file
+		 * @return the entry
+		 */
+		protected static Entry parse(String value) {
+			String parts[] = value.split("\t");
+			List<String> dependencies = new ArrayList<>();
+			if (parts.length > 2) {
+				dependencies.addAll(Arrays.asList(parts).subList(2, parts.length));
+			}
+			return new Entry(parts[0], parts.length > 1 ? parts[1] : "", dependencies);
+		}
+
+		/**
+		 * Returns the fingerprint.
+		 * @return the fingerprint
+		 */
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		/**
+		 * Returns the template.
+		 * @return the path of the template relative to the source root
+		 */
+		public String getTemplate() {
+			return template;
+		}
+
+		/**
+		 * Returns the dependencies.
+		 * @return the names of all templates imported or included
+		 */
+		public Collection<String> getDependencies() {
+			return dependencies;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			StringBuilder rc = new StringBuilder(fingerprint).append('\t').append(template);
+			for (String dependency : dependencies) rc.append('\t').append(dependency);
+			return rc.toString();
+		}
+	}
+}
@@ -0,0 +1,427 @@
+package templating.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The parsed content of the configuration, localization and macro template files of a source tree,
+ * kept between runs.
+ * <p>The cache is stored in a binary file that is memory-mapped when loaded (read into memory on Windows,
+ * where a mapped file cannot be replaced). Only an index of the files is read at that time, the content of a file is decoded when it is requested. A file is served
+ * from the cache only when its modification time, its size and the read encoding did not change,
+ * otherwise it is read and parsed again as usual.</p>
+ * <p>Saving keeps the entries used in the current run and the entries of files that still exist, so
+ * runs on a sub directory do not discard the rest of the tree. Files are identified by their file system
+ * and path, so zip or jar sources are cached as well. Entries of archives that were not used in the
+ * current run are discarded.</p>
+ * @author ralph
+ *
+ */
+public class ContextCache {
+
+	/** The name of the cache file in the cache directory */
+	public static final String FILENAME = "template-machine.context-cache";
+
+	private static final int  MAGIC      = 0x544D4343;
+	private static final int  VERSION    = 2;
+	private static final byte PROPERTIES = 1;
+	private static final byte TEXT       = 2;
+	/** Whether a mapped file can be replaced while the mapping is still alive */
+	private static final boolean MAP_FILE = !System.getProperty("os.name", "").startsWith("Windows");
+
+	private File                   file;
+	private ByteBuffer             buffer;
+	private Map<String,Entry>      previous;
+	private Map<String,Entry>      current;
+	private Map<String,FileSystem> fileSystems;
+	private AtomicInteger          hits;
+	private AtomicInteger          misses;
+
+	/**
+	 * Constructor.
+	 * @param cacheDir - the directory that holds the cache file
+	 */
+	public ContextCache(File cacheDir) {
+		this.file        = new File(cacheDir, FILENAME);
+		this.previous    = Collections.emptyMap();
+		this.current     = new ConcurrentHashMap<>();
+		this.fileSystems = new ConcurrentHashMap<>();
+		this.hits        = new AtomicInteger();
+		this.misses      = new AtomicInteger();
+	}
+
+	/**
+	 * Loads the cache of the previous run (if it exists).
+	 * <p>A cache file that cannot be read, e.g. from another version, is treated as empty.</p>
+	 * @throws IOException when the cache file cannot be opened
+	 */
+	public void load() throws IOException {
+		previous = Collections.emptyMap();
+		current.clear();
+		buffer   = null;
+		if (!file.isFile()) return;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer mapped = MAP_FILE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) : ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			Map<String,Entry> entries = new HashMap<>();
+			if ((mapped.getInt() != MAGIC) || (mapped.getInt() != VERSION)) return;
+			int count = mapped.getInt();
+			for (int i=0; i<count; i++) {
+				String fileSystem = readString(mapped);
+				String path       = readString(mapped);
+				long   modified   = mapped.getLong();
+				long   size       = mapped.getLong();
+				int    length     = mapped.getInt();
+				entries.put(fileSystem+path, new Entry(fileSystem, path, modified, size, mapped.position(), length));
+				mapped.position(mapped.position()+length);
+			}
+			buffer   = mapped;
+			previous = entries;
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			// Truncated or corrupt file
+			previous = Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Saves the cache.
+	 * <p>The file is written to a temporary file of its own and replaced atomically, so concurrent runs
+	 * never read a partial cache. The entries are copied into memory before, so the cache stays usable
+	 * without the previous file.</p>
+	 * @throws IOException when the cache file cannot be written
+	 */
+	public void save() throws IOException {
+		// Detach all entries from the file to be replaced
+		if (buffer != null) {
+			for (Entry entry : previous.values()) entry.data = entry.getData(buffer);
+			for (Entry entry : current.values()) entry.data = entry.getData(buffer);
+			buffer = null;
+		}
+		Map<String,Entry> entries = new HashMap<>(current);
+		for (Map.Entry<String,Entry> entry : previous.entrySet()) {
+			if (!entries.containsKey(entry.getKey()) && exists(entry.getValue())) entries.put(entry.getKey(), entry.getValue());
+		}
+		FileUtils.forceMkdirParent(file);
+		File tmpFile = File.createTempFile(file.getName()+".", ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String,Entry> entry : entries.entrySet()) {
+					byte data[] = entry.getValue().data;
+					writeString(out, entry.getValue().fileSystem);
+					writeString(out, entry.getValue().path);
+					out.writeLong(entry.getValue().modified);
+					out.writeLong(entry.getValue().size);
+					out.writeInt(data.length);
+					out.write(data);
+				}
+			}
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
+	}
+
+	/**
+	 * Returns the parsed values of a properties file.
+	 * @param path     - the file
+	 * @param attrs    - the current attributes of the file
+	 * @param encoding - the encoding the file is read with
+	 * @return the values or {@code null} when the file is not cached or has changed
+	 */
+	public Map<String,String> getProperties(Path path, BasicFileAttributes attrs, Charset encoding) {
+		ByteBuffer data = find(path, attrs, encoding, PROPERTIES);
+		if (data == null) return null;
+		int count = data.getInt();
+		Map<String,String> rc = new HashMap<>(count * 2);
+		for (int i=0; i<count; i++) rc.put(readString(data), readString(data));
+		return rc;
+	}
+
+	/**
+	 * Records the parsed values of a properties file.
+	 * @param path     - the file
+	 * @param attrs    - the attributes of the file when it was read
+	 * @param encoding - the encoding the file was read with
+	 * @param values   - the values
+	 */
+	public void putProperties(Path path, BasicFileAttributes attrs, Charset encoding, Map<String,String> values) {
+		try {
+			DataBuilder data = new DataBuilder(encoding, PROPERTIES);
+			data.out.writeInt(values.size());
+			for (Map.Entry<String,String> entry : values.entrySet()) {
+				writeString(data.out, entry.getKey());
+				writeString(data.out, entry.getValue());
+			}
+			put(path, attrs, data);
+		} catch (IOException e) {
+			// Cannot happen when writing into memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the content of a text file.
+	 * @param path     - the file
+	 * @param attrs    - the current attributes of the file
+	 * @param encoding - the encoding the file is read with
+	 * @return the content or {@code null} when the file is not cached or has changed
+	 */
+	public String getText(Path path, BasicFileAttributes attrs, Charset encoding) {
+		ByteBuffer data = find(path, attrs, encoding, TEXT);
+		return data != null ? readString(data) : null;
+	}
+
+	/**
+	 * Records the content of a text file.
+	 * @param path     - the file
+	 * @param attrs    - the attributes of the file when it was read
+	 * @param encoding - the encoding the file was read with
+	 * @param content  - the content
+	 */
+	public void putText(Path path, BasicFileAttributes attrs, Charset encoding, String content) {
+		try {
+			DataBuilder data = new DataBuilder(encoding, TEXT);
+			writeString(data.out, content);
+			put(path, attrs, data);
+		} catch (IOException e) {
+			// Cannot happen when writing into memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the number of files served from the cache.
+	 * @return the number of files that did not need to be read
+	 */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of files that were not cached or have changed.
+	 * @return the number of files that were read
+	 */
+	public int getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Looks up a valid entry and marks it as used.
+	 * @param path     - the file
+	 * @param attrs    - the current attributes of the file
+	 * @param encoding - the encoding the file is read with
+	 * @param type     - the type of content expected
+	 * @return the content positioned after the header or {@code null} when not found or outdated
+	 */
+	protected ByteBuffer find(Path path, BasicFileAttributes attrs, Charset encoding, byte type) {
+		String key   = getKey(path);
+		Entry  entry = current.get(key);
+		if (entry == null) entry = previous.get(key);
+		if ((entry != null) && (entry.modified == getModified(attrs)) && (entry.size == attrs.size())) {
+			ByteBuffer data = entry.getBuffer(buffer);
+			if ((data.get() == type) && readString(data).equals(encoding.name())) {
+				current.put(key, entry);
+				hits.incrementAndGet();
+				return data;
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Records an entry.
+	 * @param path  - the file
+	 * @param attrs - the attributes of the file when it was read
+	 * @param data  - the content
+	 */
+	protected void put(Path path, BasicFileAttributes attrs, DataBuilder data) {
+		String fileSystem = getFileSystemId(path);
+		String file       = path.toAbsolutePath().normalize().toString();
+		current.put(fileSystem+file, new Entry(fileSystem, file, getModified(attrs), attrs.size(), data.bytes.toByteArray()));
+	}
+
+	/**
+	 * Returns the key of a file.
+	 * @param path - the file
+	 * @return the file system and the absolute path
+	 */
+	protected String getKey(Path path) {
+		return getFileSystemId(path)+path.toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * Returns the identifier of the file system of a file and remembers the file system.
+	 * @param path - the file
+	 * @return an empty string for the default file system, the URI of the root directory otherwise (e.g. of a zip file)
+	 */
+	protected String getFileSystemId(Path path) {
+		FileSystem fileSystem = path.getFileSystem();
+		if (fileSystem == FileSystems.getDefault()) return "";
+		String rc = fileSystem.getPath("/").toUri().toString();
+		fileSystems.putIfAbsent(rc, fileSystem);
+		return rc;
+	}
+
+	/**
+	 * Returns whether the file of an entry still exists.
+	 * @param entry - the entry
+	 * @return {@code true} when the file exists, {@code false} when it does not or its archive was not used in this run
+	 */
+	protected boolean exists(Entry entry) {
+		FileSystem fileSystem = entry.fileSystem.isEmpty() ? FileSystems.getDefault() : fileSystems.get(entry.fileSystem);
+		return (fileSystem != null) && Files.exists(fileSystem.getPath(entry.path));
+	}
+
+	/**
+	 * Returns the modification time as stored in the cache.
+	 * @param attrs - the attributes
+	 * @return the modification time in microseconds
+	 */
+	protected static long getModified(BasicFileAttributes attrs) {
+		return attrs.lastModifiedTime().to(TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * Writes a string as length and UTF-8 bytes.
+	 * @param out - the stream
+	 * @param s   - the string
+	 * @throws IOException - when the stream cannot be written
+	 */
+	protected static void writeString(DataOutputStream out, String s) throws IOException {
+		byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 * @param buffer - the buffer
+	 * @return the string
+	 */
+	protected static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (buffer.hasArray()) {
+			String rc = new String(buffer.array(), buffer.arrayOffset()+buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position()+length);
+			return rc;
+		}
+		byte bytes[] = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Builds the content of an entry in memory.
+	 */
+	protected static class DataBuilder {
+
+		protected ByteArrayOutputStream bytes;
+		protected DataOutputStream              out;
+
+		/**
+		 * Constructor.
+		 * @param encoding - the encoding the file was read with
+		 * @param type     - the type of content
+		 * @throws IOException - never
+		 */
+		public DataBuilder(Charset encoding, byte type) throws IOException {
+			this.bytes = new ByteArrayOutputStream();
+			this.out   = new DataOutputStream(bytes);
+			out.writeByte(type);
+			writeString(out, encoding.name());
+		}
+	}
+
+	/**
+	 * A cached file, either in the mapped cache file or in memory.
+	 */
+	protected static class Entry {
+
+		protected String fileSystem;
+		protected String path;
+		protected long   modified;
+		protected long   size;
+		protected int    offset;
+		protected int    length;
+		protected byte   data[];
+
+		/**
+		 * Constructor for entries in the cache file.
+		 * @param fileSystem - the identifier of the file system
+		 * @param path       - the absolute path of the file
+		 * @param modified   - the modification time of the file
+		 * @param size       - the size of the file
+		 * @param offset     - the position of the content in the cache file
+		 * @param length     - the length of the content
+		 */
+		public Entry(String fileSystem, String path, long modified, long size, int offset, int length) {
+			this.fileSystem = fileSystem;
+			this.path       = path;
+			this.modified   = modified;
+			this.size       = size;
+			this.offset     = offset;
+			this.length     = length;
+		}
+
+		/**
+		 * Constructor for new entries.
+		 * @param fileSystem - the identifier of the file system
+		 * @param path       - the absolute path of the file
+		 * @param modified   - the modification time of the file
+		 * @param size       - the size of the file
+		 * @param data       - the content
+		 */
+		public Entry(String fileSystem, String path, long modified, long size, byte data[]) {
+			this(fileSystem, path, modified, size, 0, data.length);
+			this.data = data;
+		}
+
+		/**
+		 * Returns the content for reading.
+		 * @param mapped - the mapped cache file
+		 * @return a buffer positioned at the start of the content, independent of other readers
+		 */
+		public ByteBuffer getBuffer(ByteBuffer mapped) {
+			if (data != null) return ByteBuffer.wrap(data);
+			return mapped.duplicate().position(offset).limit(offset+length).slice();
+		}
+
+		/**
+		 * Returns the content for writing.
+		 * @param mapped - the mapped cache file
+		 * @return the content
+		 */
+		public byte[] getData(ByteBuffer mapped) {
+			if (data != null) return data;
+			byte rc[] = new byte[length];
+			mapped.duplicate().position(offset).get(rc);
+			return rc;
+		}
+	}
+}
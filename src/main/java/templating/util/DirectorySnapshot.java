@@ -0,0 +1,188 @@
+package templating.util;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The file attributes of a source tree, read in a single pass.
+ * <p>Each directory is listed once and each entry is queried once. Generation then consults the
+ * snapshot instead of the file system. Paths are looked up as they were created by the walk, i.e.
+ * as children resolved from the root. Paths below a directory that was not listed are not covered
+ * and must be checked in the file system.</p>
+ * <p>A snapshot is not updated. It is immutable after creation and can be shared between threads.</p>
+ * @author ralph
+ *
+ */
+public class DirectorySnapshot {
+
+	private Path                 root;
+	private Map<Path,Entry>      entries;
+	private Map<Path,List<Path>> listings;
+
+	/**
+	 * Constructor.
+	 * @param root - the root directory
+	 */
+	protected DirectorySnapshot(Path root) {
+		this.root     = root;
+		this.entries  = new HashMap<>();
+		this.listings = new HashMap<>();
+	}
+
+	/**
+	 * Reads the tree below a directory.
+	 * <p>Symbolic links are followed. Sub directories are listed only when accepted by the filter,
+	 * other directories are recorded as entries of their parent but not listed.</p>
+	 * @param root  - the root directory (always listed)
+	 * @param enter - decides whether a sub directory is listed
+	 * @return the snapshot
+	 * @throws IOException - when the root directory cannot be read
+	 */
+	public static DirectorySnapshot create(Path root, Predicate<Path> enter) throws IOException {
+		DirectorySnapshot rc = new DirectorySnapshot(root);
+		Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				boolean listed = dir.equals(root) || enter.test(dir);
+				// Directories could be opened, so they are readable when listed
+				rc.add(dir, attrs, listed ? Boolean.TRUE : null);
+				if (!listed) return FileVisitResult.SKIP_SUBTREE;
+				rc.listings.put(dir, new ArrayList<>());
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				rc.add(file, attrs, attrs.isRegularFile() ? Files.isReadable(file) : null);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				// Unreadable directories, cycles or files removed meanwhile are not part of the snapshot
+				if (file.equals(root)) throw exc;
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return rc;
+	}
+
+	/**
+	 * Records an entry.
+	 * @param path     - the path
+	 * @param attrs    - the attributes
+	 * @param readable - whether the entry is readable ({@code null} when unknown)
+	 */
+	protected void add(Path path, BasicFileAttributes attrs, Boolean readable) {
+		entries.put(path, new Entry(attrs, readable));
+		List<Path> listing = listings.get(path.getParent());
+		if (listing != null) listing.add(path);
+	}
+
+	/**
+	 * Returns the root directory.
+	 * @return the root directory
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns whether the snapshot knows whether the path exists.
+	 * @param path - the path
+	 * @return {@code true} when the parent directory was listed or the path cannot exist
+	 */
+	public boolean covers(Path path) {
+		if (entries.containsKey(path)) return true;
+		Path parent = path.getParent();
+		if (parent == null) return false;
+		if (listings.containsKey(parent)) return true;
+		// Nothing exists below a missing path or a file
+		Entry entry = entries.get(parent);
+		if (entry != null) return !entry.attrs.isDirectory();
+		return covers(parent);
+	}
+
+	/**
+	 * Returns whether a directory was listed.
+	 * @param dir - the directory
+	 * @return {@code true} when the children of the directory are known
+	 */
+	public boolean isListed(Path dir) {
+		return listings.containsKey(dir);
+	}
+
+	/**
+	 * Returns the children of a directory.
+	 * @param dir - the directory
+	 * @return the children and their attributes in listing order, {@code null} when the directory was not listed
+	 */
+	public Map<Path,BasicFileAttributes> list(Path dir) {
+		List<Path> listing = listings.get(dir);
+		if (listing == null) return null;
+		Map<Path,BasicFileAttributes> rc = new LinkedHashMap<>();
+		for (Path child : listing) rc.put(child, entries.get(child).attrs);
+		return Collections.unmodifiableMap(rc);
+	}
+
+	/**
+	 * Returns the attributes of a path.
+	 * @param path - the path (must be covered)
+	 * @return the attributes or {@code null} when the path does not exist
+	 */
+	public BasicFileAttributes getAttributes(Path path) {
+		Entry entry = entries.get(path);
+		return entry != null ? entry.attrs : null;
+	}
+
+	/**
+	 * Returns whether a path is readable.
+	 * @param path - the path
+	 * @return {@code true} or {@code false} when known, {@code null} when it needs to be checked in the file system
+	 */
+	public Boolean isReadable(Path path) {
+		Entry entry = entries.get(path);
+		return entry != null ? entry.readable : null;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 * @return the number of files and directories recorded
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * A file or directory in the snapshot.
+	 */
+	protected static class Entry {
+
+		protected BasicFileAttributes attrs;
+		protected Boolean             readable;
+
+		/**
+		 * Constructor.
+		 * @param attrs    - the attributes
+		 * @param readable - whether the entry is readable ({@code null} when unknown)
+		 */
+		public Entry(BasicFileAttributes attrs, Boolean readable) {
+			this.attrs    = attrs;
+			this.readable = readable;
+		}
+	}
+}
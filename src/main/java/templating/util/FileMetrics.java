@@ -0,0 +1,181 @@
+package templating.util;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * Timings of a single generated file.
+ * <p>The phases are in nanoseconds. Macro templates imported or included
+ * are loaded while rendering and therefore count as render time.</p>
+ * @author ralph
+ *
+ */
+public class FileMetrics {
+
+	private Path    templateFile;
+	private String  language;
+	private File    outFile;
+	private boolean skipped;
+	private boolean reused;
+	private long    localizationNanos;
+	private long    templateNanos;
+	private long    renderNanos;
+	private long    writeNanos;
+	private long    bytes;
+
+	/**
+	 * Constructor.
+	 * @param templateFile - the template file
+	 * @param language     - the language
+	 * @param outFile      - the output file
+	 */
+	public FileMetrics(Path templateFile, String language, File outFile) {
+		this.templateFile = templateFile;
+		this.language     = language;
+		this.outFile      = outFile;
+	}
+
+	/**
+	 * Returns the template file.
+	 * @return the template file
+	 */
+	public Path getTemplateFile() {
+		return templateFile;
+	}
+
+	/**
+	 * Returns the language.
+	 * @return the language
+	 */
+	public String getLanguage() {
+		return language;
+	}
+
+	/**
+	 * Returns the output file.
+	 * @return the output file
+	 */
+	public File getOutFile() {
+		return outFile;
+	}
+
+	/**
+	 * Returns whether the file was up-to-date and not generated.
+	 * @return {@code true} when the file was skipped
+	 */
+	public boolean isSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Sets whether the file was up-to-date and not generated.
+	 * @param skipped - {@code true} when the file was skipped
+	 */
+	public void setSkipped(boolean skipped) {
+		this.skipped = skipped;
+	}
+
+	/**
+	 * Returns whether the output of another language was reused instead of rendering.
+	 * @return {@code true} when the file was not rendered
+	 */
+	public boolean isReused() {
+		return reused;
+	}
+
+	/**
+	 * Sets whether the output of another language was reused instead of rendering.
+	 * @param reused - {@code true} when the file was not rendered
+	 */
+	public void setReused(boolean reused) {
+		this.reused = reused;
+	}
+
+	/**
+	 * Returns the time for merging the localization.
+	 * @return the time in nanoseconds
+	 */
+	public long getLocalizationNanos() {
+		return localizationNanos;
+	}
+
+	/**
+	 * Sets the time for merging the localization.
+	 * @param localizationNanos - the time in nanoseconds
+	 */
+	public void setLocalizationNanos(long localizationNanos) {
+		this.localizationNanos = localizationNanos;
+	}
+
+	/**
+	 * Returns the time for looking up and parsing the template.
+	 * @return the time in nanoseconds
+	 */
+	public long getTemplateNanos() {
+		return templateNanos;
+	}
+
+	/**
+	 * Sets the time for looking up and parsing the template.
+	 * @param templateNanos - the time in nanoseconds
+	 */
+	public void setTemplateNanos(long templateNanos) {
+		this.templateNanos = templateNanos;
+	}
+
+	/**
+	 * Returns the time for rendering.
+	 * @return the time in nanoseconds
+	 */
+	public long getRenderNanos() {
+		return renderNanos;
+	}
+
+	/**
+	 * Sets the time for rendering.
+	 * @param renderNanos - the time in nanoseconds
+	 */
+	public void setRenderNanos(long renderNanos) {
+		this.renderNanos = renderNanos;
+	}
+
+	/**
+	 * Returns the time for writing the file.
+	 * @return the time in nanoseconds
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+
+	/**
+	 * Sets the time for writing the file.
+	 * @param writeNanos - the time in nanoseconds
+	 */
+	public void setWriteNanos(long writeNanos) {
+		this.writeNanos = writeNanos;
+	}
+
+	/**
+	 * Returns the total time of all phases.
+	 * @return the time in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return localizationNanos + templateNanos + renderNanos + writeNanos;
+	}
+
+	/**
+	 * Returns the number of bytes written.
+	 * @return the size of the output file
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Sets the number of bytes written.
+	 * @param bytes - the size of the output file
+	 */
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+}
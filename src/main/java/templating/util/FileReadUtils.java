@@ -1,12 +1,14 @@
 package templating.util;
 
-import java.io.CharArrayWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 
 /**
@@ -16,6 +18,9 @@ import java.nio.charset.Charset;
  */
 public class FileReadUtils {
 
+	/** The largest file that can be read into a string */
+	private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
 	/**
 	 * Returns a reader that is able to handle BOM UTF-8 files.
 	 * @param file     - the file to be read
@@ -35,16 +40,19 @@ public class FileReadUtils {
 	 * @throws IOException - when the reader cannot be created
 	 */
 	public static Reader getReader(File file, Charset encoding) throws IOException {
-		Reader rc = null;
-		if (encoding.name().toLowerCase().startsWith("utf-")) {
-			UnicodeInputStream in = new UnicodeInputStream(new FileInputStream(file), encoding.name());
-			in.init();
-			rc = new InputStreamReader(in, encoding);
-		} else {
-			rc = new InputStreamReader(new FileInputStream(file), encoding);
-		}
+		return getReader(file.toPath(), encoding);
+	}
 
-		return rc;
+	/**
+	 * Returns a reader that is able to handle BOM UTF-8 files.
+	 * <p>The file is read completely by {@link #readFile(Path, Charset)}, as all callers consume the whole file anyway.</p>
+	 * @param file     - the file to be read (from any file system)
+	 * @param encoding - the encoding
+	 * @return the reader
+	 * @throws IOException - when the reader cannot be created
+	 */
+	public static Reader getReader(Path file, Charset encoding) throws IOException {
+		return new StringReader(readFile(file, encoding));
 	}
 
 	/**
@@ -55,21 +63,71 @@ public class FileReadUtils {
 	 * @throws IOException when the file cannot be read
 	 */
 	public static String readFile(File file, Charset encoding) throws IOException {
-		CharArrayWriter writer = null;
-		Reader          reader = null;
-		try {
-			reader = getReader(file, encoding);
-			writer = new CharArrayWriter();
-			char[] buffer = new char[64 * 1024];
-			int read;
-			while( (read = reader.read(buffer)) != -1) {
-				writer.write(buffer, 0, read);
+		return readFile(file.toPath(), encoding);
+	}
+
+	/**
+	 * Reads a file into a string handling UTF-8-BOM correctly.
+	 * @param file     - the file to be read (from any file system)
+	 * @param encoding - the encoding
+	 * @return the contents of the file
+	 * @throws IOException when the file cannot be read
+	 */
+	public static String readFile(Path file, Charset encoding) throws IOException {
+		try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+			ByteBuffer bytes  = readFully(channel);
+			int        length = bytes.limit();
+			int        bom    = encoding.name().toLowerCase().startsWith("utf-") ? getBomLength(bytes.array(), length) : 0;
+			// Decodes in a single pass into a string of the final size
+			return new String(bytes.array(), bom, length-bom, encoding);
+		}
+	}
+
+	/**
+	 * Reads all bytes of a channel.
+	 * <p>The buffer is sized from the channel, so files are read without copying unless they grow while reading.</p>
+	 * @param channel - the channel
+	 * @return a buffer backed by an array, holding the bytes up to its limit
+	 * @throws IOException when the channel cannot be read
+	 */
+	protected static ByteBuffer readFully(SeekableByteChannel channel) throws IOException {
+		long size = channel.size() - channel.position();
+		if (size > MAX_SIZE) throw new IOException("File too large: "+size+" bytes");
+		ByteBuffer rc = ByteBuffer.allocate((int)Math.max(size, 0));
+		while (true) {
+			if (rc.hasRemaining()) {
+				if (channel.read(rc) < 0) break;
+				continue;
 			}
-			writer.flush();
-			return new String(writer.toCharArray());
-		} finally {
-			reader.close();
-			writer.close();
+			// Buffer is full, the size was unknown or the file has grown
+			ByteBuffer next = ByteBuffer.allocate(1);
+			if (channel.read(next) < 0) break;
+			if (rc.capacity() >= MAX_SIZE) throw new IOException("File too large");
+			ByteBuffer larger = ByteBuffer.allocate((int)Math.min(Math.max(rc.capacity() * 2L, 8192), MAX_SIZE));
+			larger.put(rc.flip()).put(next.flip());
+			rc = larger;
+		}
+		rc.flip();
+		return rc;
+	}
+
+	/**
+	 * Returns the length of the Unicode byte order mark at the start of a file.
+	 * <p>The same marks are recognized as by {@link UnicodeInputStream}, longer marks first.</p>
+	 * @param bytes  - the content
+	 * @param length - the number of bytes in the content
+	 * @return the number of bytes to be skipped
+	 */
+	protected static int getBomLength(byte bytes[], int length) {
+		if (length >= 4) {
+			if ((bytes[0] == (byte)0x00) && (bytes[1] == (byte)0x00) && (bytes[2] == (byte)0xFE) && (bytes[3] == (byte)0xFF)) return 4;
+			if ((bytes[0] == (byte)0xFF) && (bytes[1] == (byte)0xFE) && (bytes[2] == (byte)0x00) && (bytes[3] == (byte)0x00)) return 4;
+		}
+		if ((length >= 3) && (bytes[0] == (byte)0xEF) && (bytes[1] == (byte)0xBB) && (bytes[2] == (byte)0xBF)) return 3;
+		if (length >= 2) {
+			if ((bytes[0] == (byte)0xFE) && (bytes[1] == (byte)0xFF)) return 2;
+			if ((bytes[0] == (byte)0xFF) && (bytes[1] == (byte)0xFE)) return 2;
 		}
+		return 0;
 	}
 }
@@ -0,0 +1,254 @@
+package templating.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Writes generated files into the output directory.
+ * <p>Each file is written to a temporary file in the same directory first and then moved into place,
+ * so readers never see a partially written file. The temporary file is created with the default permissions
+ * or takes over the permissions of the file it replaces.</p>
+ * <p>With deduplication enabled, a file whose content was already written in this run
+ * becomes a hard link to the first file instead of another copy. Files are never modified in place,
+ * so replacing one of the linked files later will not change the others.</p>
+ * @author ralph
+ *
+ */
+public class FileSink implements OutputSink {
+
+	private static final int COMPARE_BUFFER_SIZE = 64 * 1024;
+
+	private boolean                 skipUnchanged;
+	private boolean                 deduplicate;
+	private Map<String,WrittenFile> writtenFiles;
+	private AtomicInteger           linkedFiles;
+	private AtomicLong              linkedBytes;
+
+	/**
+	 * Constructor.
+	 */
+	public FileSink() {
+		this.skipUnchanged = false;
+		this.deduplicate   = false;
+		this.writtenFiles  = new ConcurrentHashMap<>();
+		this.linkedFiles   = new AtomicInteger();
+		this.linkedBytes   = new AtomicLong();
+	}
+
+	/**
+	 * Forgets all files written in previous runs.
+	 */
+	@Override
+	public void open() {
+		writtenFiles.clear();
+		linkedFiles.set(0);
+		linkedBytes.set(0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long write(File outFile, byte[] content, int length) throws IOException {
+		if (skipUnchanged && contentEquals(outFile, content, length)) return 0;
+
+		FileUtils.forceMkdirParent(outFile);
+		Path   target = outFile.toPath();
+		String hash   = deduplicate ? DigestUtils.sha256Hex(new ByteArrayInputStream(content, 0, length)) : null;
+		if ((hash != null) && link(writtenFiles.get(hash), target, length)) {
+			linkedFiles.incrementAndGet();
+			linkedBytes.addAndGet(length);
+			return 0;
+		}
+
+		Path temp = target.resolveSibling("."+outFile.getName()+"."+UUID.randomUUID()+".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				out.write(content, 0, length);
+			}
+			copyPermissions(target, temp);
+			move(temp, target);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		if (hash != null) writtenFiles.putIfAbsent(hash, new WrittenFile(target));
+		return length;
+	}
+
+	/**
+	 * Replaces the target with a hard link to a file written before.
+	 * @param existing - the file written before (can be {@code null})
+	 * @param target   - the file to be replaced
+	 * @param length   - the length of the content
+	 * @return {@code true} when the link was created, {@code false} when the content must be written
+	 * @throws IOException - when the temporary link cannot be removed
+	 */
+	protected boolean link(WrittenFile existing, Path target, int length) throws IOException {
+		if ((existing == null) || !existing.isUnchanged(length)) return false;
+		Path temp = target.resolveSibling("."+target.getFileName()+"."+UUID.randomUUID()+".tmp");
+		try {
+			Files.createLink(temp, existing.path);
+			move(temp, target);
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			// File system does not support hard links
+			return false;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Copies the POSIX permissions of an existing file, so replacing it keeps them.
+	 * @param source - the file to be replaced
+	 * @param target - the file replacing it
+	 * @throws IOException - when the permissions cannot be copied
+	 */
+	protected static void copyPermissions(Path source, Path target) throws IOException {
+		PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+		if ((view == null) || !Files.isRegularFile(source)) return;
+		view.setPermissions(Files.getPosixFilePermissions(source));
+	}
+
+	/**
+	 * Moves a file into place, atomically if supported.
+	 * @param source - the file to move
+	 * @param target - the file to be replaced
+	 * @throws IOException - when the file cannot be moved
+	 */
+	protected static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Returns whether a file has the given content.
+	 * @param file    - the file
+	 * @param content - the buffer holding the content
+	 * @param length  - the number of bytes in the buffer
+	 * @return {@code true} when the file exists and has exactly the given content
+	 * @throws IOException - when the file cannot be read
+	 */
+	protected static boolean contentEquals(File file, byte content[], int length) throws IOException {
+		if (!file.isFile() || (file.length() != length)) return false;
+		byte buffer[] = new byte[Math.min(length, COMPARE_BUFFER_SIZE)];
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			int pos = 0;
+			while (pos < length) {
+				int n = in.read(buffer, 0, Math.min(buffer.length, length-pos));
+				if (n < 0) return false;
+				for (int i=0; i<n; i++) {
+					if (buffer[i] != content[pos+i]) return false;
+				}
+				pos += n;
+			}
+			return in.read() < 0;
+		}
+	}
+
+	/**
+	 * Returns whether files with unchanged content are left untouched.
+	 * @return {@code true} when unchanged files are not written
+	 */
+	public boolean isSkipUnchanged() {
+		return skipUnchanged;
+	}
+
+	/**
+	 * Sets whether files with unchanged content are left untouched.
+	 * <p>Their modification time is preserved, so tools like make or rsync will not consider them changed.</p>
+	 * @param skipUnchanged - {@code true} when unchanged files shall not be written
+	 */
+	public void setSkipUnchanged(boolean skipUnchanged) {
+		this.skipUnchanged = skipUnchanged;
+	}
+
+	/**
+	 * Returns whether identical files are hard-linked.
+	 * @return {@code true} when files with the same content are written once only
+	 */
+	public boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	/**
+	 * Sets whether identical files are hard-linked.
+	 * <p>Files are written as copies when the file system does not support hard links.</p>
+	 * @param deduplicate - {@code true} when files with the same content shall be written once only
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * Returns the number of files that were hard-linked in this run.
+	 * @return the number of linked files
+	 */
+	public int getLinkedFiles() {
+		return linkedFiles.get();
+	}
+
+	/**
+	 * Returns the number of bytes that were not written due to hard links in this run.
+	 * @return the bytes saved
+	 */
+	public long getLinkedBytes() {
+		return linkedBytes.get();
+	}
+
+	/**
+	 * A file written in this run.
+	 */
+	protected static class WrittenFile {
+
+		protected Path   path;
+		protected Object fileKey;
+
+		/**
+		 * Constructor.
+		 * @param path - the file written
+		 * @throws IOException - when the file attributes cannot be read
+		 */
+		public WrittenFile(Path path) throws IOException {
+			this.path    = path;
+			this.fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+		}
+
+		/**
+		 * Returns whether the file is still the one that was written.
+		 * @param length - the length of the content
+		 * @return {@code true} when it was not replaced since
+		 */
+		public boolean isUnchanged(int length) {
+			if (fileKey == null) return false;
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				return Objects.equals(fileKey, attributes.fileKey()) && (attributes.size() == length);
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+}
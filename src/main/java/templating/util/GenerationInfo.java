@@ -13,6 +13,7 @@ public class GenerationInfo {
 
 	private Set<String> languages;
 	private int files;
+	private int skippedFiles;
 	
 	/**
 	 * Constructor.
@@ -37,7 +38,8 @@ public class GenerationInfo {
 	 */
 	public void add(GenerationInfo other) {
 		this.languages.addAll(other.getLanguages());
-		this.files     += other.getFiles();
+		this.files        += other.getFiles();
+		this.skippedFiles += other.getSkippedFiles();
 	}
 	
 	/**
@@ -94,4 +96,20 @@ public class GenerationInfo {
 	public void incFiles() {
 		this.files++;
 	}
+
+	/**
+	 * Returns the number of files that were up-to-date and not generated again.
+	 * @return the skipped files
+	 */
+	public int getSkippedFiles() {
+		return skippedFiles;
+	}
+
+	/**
+	 * Sets the number of files that were up-to-date and not generated again.
+	 * @param skippedFiles - the skipped files to set
+	 */
+	public void setSkippedFiles(int skippedFiles) {
+		this.skippedFiles = skippedFiles;
+	}
 }
@@ -0,0 +1,55 @@
+package templating.util;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * Receives timing and statistics events from the generation process.
+ * <p>Events are fired from multiple threads when generating in parallel,
+ * so implementations must be thread-safe. All methods do nothing by default.</p>
+ * @author ralph
+ *
+ */
+public interface GenerationListener {
+
+	/**
+	 * Called when a generation run starts.
+	 * @param sourceRoot - the source root directory
+	 * @param outputRoot - the output root directory
+	 */
+	default void generationStarted(Path sourceRoot, File outputRoot) {
+	}
+
+	/**
+	 * Called when the context of a sub directory was loaded.
+	 * @param sourceDir - the directory
+	 * @param nanos     - the time to read configuration, localization and macro files
+	 */
+	default void contextLoaded(Path sourceDir, long nanos) {
+	}
+
+	/**
+	 * Called when a file was generated or skipped as it was up-to-date.
+	 * @param metrics - the timings of the file
+	 */
+	default void fileGenerated(FileMetrics metrics) {
+	}
+
+	/**
+	 * Called when all files of a directory were generated (sub directories not included).
+	 * @param sourceDir - the directory
+	 * @param info      - the statistics of the directory
+	 * @param nanos     - the time to generate all files
+	 */
+	default void directoryGenerated(Path sourceDir, GenerationInfo info, long nanos) {
+	}
+
+	/**
+	 * Called when a generation run finished successfully.
+	 * @param info          - the statistics of the run
+	 * @param templateCache - the macro templates cache (can be {@code null})
+	 * @param nanos         - the time of the run
+	 */
+	default void generationFinished(GenerationInfo info, SharedTemplateCache templateCache, long nanos) {
+	}
+}
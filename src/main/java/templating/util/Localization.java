@@ -0,0 +1,176 @@
+package templating.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable layer of localization values.
+ * <p>A layer holds only its own values. All other keys are looked up in the parent layers,
+ * in the given order, and the first value found wins. Layers are shared between contexts
+ * and languages, so no values are copied between directories.</p>
+ * <p>Lookups are cheap. Iterating the entries walks all parent layers and should be avoided
+ * during generation.</p>
+ * @author ralph
+ *
+ */
+public class Localization extends AbstractMap<String,String> {
+
+	/** An empty layer without parents */
+	public static final Localization EMPTY = new Localization(Collections.emptyMap());
+
+	private final Map<String,String> values;
+	private final Localization       parents[];
+
+	/**
+	 * Constructor.
+	 * @param values  - the values of this layer (will be copied)
+	 * @param parents - the parent layers, highest precedence first ({@code null} values are ignored)
+	 */
+	public Localization(Map<String,String> values, Localization... parents) {
+		this.values  = values.isEmpty() ? Collections.emptyMap() : new HashMap<>(values);
+		List<Localization> list = new ArrayList<>();
+		for (Localization parent : parents) {
+			if ((parent != null) && (parent != EMPTY) && !containsLayer(list, parent)) list.add(parent);
+		}
+		this.parents = list.toArray(new Localization[list.size()]);
+	}
+
+	/**
+	 * Creates a layer, reusing the parent when this layer would not add anything.
+	 * @param values  - the values of this layer
+	 * @param parents - the parent layers, highest precedence first ({@code null} values are ignored)
+	 * @return the new layer or the single parent
+	 */
+	public static Localization of(Map<String,String> values, Localization... parents) {
+		Localization rc = new Localization(values, parents);
+		if (rc.values.isEmpty()) {
+			if (rc.parents.length == 0) return EMPTY;
+			if (rc.parents.length == 1) return rc.parents[0];
+		}
+		return rc;
+	}
+
+	/**
+	 * Returns whether the layer is already in the list.
+	 * @param list  - the list of layers
+	 * @param layer - the layer
+	 * @return {@code true} when the very same layer is in the list
+	 */
+	private static boolean containsLayer(List<Localization> list, Localization layer) {
+		for (Localization l : list) {
+			if (l == layer) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the values of this layer only.
+	 * @return the local values
+	 */
+	public Map<String,String> getLocalValues() {
+		return Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String get(Object key) {
+		String rc = values.get(key);
+		if (rc == null) {
+			for (Localization parent : parents) {
+				rc = parent.get(key);
+				if (rc != null) break;
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<String> keySet() {
+		Set<String> rc = new LinkedHashSet<>();
+		collectKeys(rc);
+		return Collections.unmodifiableSet(rc);
+	}
+
+	/**
+	 * Collects the keys of this layer and all parent layers.
+	 * @param keys - the set to add to
+	 */
+	protected void collectKeys(Set<String> keys) {
+		keys.addAll(values.keySet());
+		for (Localization parent : parents) parent.collectKeys(keys);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<Entry<String,String>> entrySet() {
+		Set<String> keys = keySet();
+		return new AbstractSet<Entry<String,String>>() {
+
+			@Override
+			public Iterator<Entry<String,String>> iterator() {
+				Iterator<String> i = keys.iterator();
+				return new Iterator<Entry<String,String>>() {
+
+					@Override
+					public boolean hasNext() {
+						return i.hasNext();
+					}
+
+					@Override
+					public Entry<String,String> next() {
+						String key = i.next();
+						return new SimpleImmutableEntry<>(key, Localization.this.get(key));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return keys.size();
+			}
+		};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return keySet().size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isEmpty() {
+		if (!values.isEmpty()) return false;
+		for (Localization parent : parents) {
+			if (!parent.isEmpty()) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,331 @@
+package templating.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Collects the timings of a generation run and produces a JSON report.
+ * @author ralph
+ *
+ */
+public class MetricsCollector implements GenerationListener {
+
+	/** Number of files listed as slowest in the report */
+	public static final int SLOWEST_FILES = 10;
+
+	private Path                         sourceRoot;
+	private File                         outputRoot;
+	private Instant                      startTime;
+	private long                         totalNanos;
+	private GenerationInfo               info;
+	private long                         cacheHits;
+	private long                         cacheMisses;
+	private Map<Path,DirectoryMetrics>   directories;
+	private Queue<FileMetrics>           files;
+
+	/**
+	 * Constructor.
+	 */
+	public MetricsCollector() {
+		this.directories = new ConcurrentHashMap<>();
+		this.files       = new ConcurrentLinkedQueue<>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void generationStarted(Path sourceRoot, File outputRoot) {
+		this.sourceRoot = sourceRoot;
+		this.outputRoot = outputRoot;
+		this.startTime  = Instant.now();
+		directories.clear();
+		files.clear();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void contextLoaded(Path sourceDir, long nanos) {
+		directories.computeIfAbsent(sourceDir, DirectoryMetrics::new).contextNanos += nanos;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void fileGenerated(FileMetrics metrics) {
+		files.add(metrics);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void directoryGenerated(Path sourceDir, GenerationInfo info, long nanos) {
+		DirectoryMetrics metrics = directories.computeIfAbsent(sourceDir, DirectoryMetrics::new);
+		metrics.generateNanos += nanos;
+		metrics.files         += info.getFiles();
+		metrics.skippedFiles  += info.getSkippedFiles();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void generationFinished(GenerationInfo info, SharedTemplateCache templateCache, long nanos) {
+		this.info       = info;
+		this.totalNanos = nanos;
+		if (templateCache != null) {
+			cacheHits   = templateCache.getHits();
+			cacheMisses = templateCache.getMisses();
+		}
+	}
+
+	/**
+	 * Returns the timings of all files.
+	 * @return the file timings
+	 */
+	public Collection<FileMetrics> getFiles() {
+		return files;
+	}
+
+	/**
+	 * Returns the slowest files that were generated.
+	 * @param max - the maximum number of files
+	 * @return the files, slowest first
+	 */
+	public List<FileMetrics> getSlowestFiles(int max) {
+		List<FileMetrics> rc = new ArrayList<>();
+		for (FileMetrics metrics : files) {
+			if (!metrics.isSkipped()) rc.add(metrics);
+		}
+		rc.sort(Comparator.comparingLong(FileMetrics::getTotalNanos).reversed());
+		return rc.size() > max ? new ArrayList<>(rc.subList(0, max)) : rc;
+	}
+
+	/**
+	 * Returns the number of bytes written.
+	 * @return the total size of all generated files
+	 */
+	public long getBytesWritten() {
+		long rc = 0;
+		for (FileMetrics metrics : files) rc += metrics.getBytes();
+		return rc;
+	}
+
+	/**
+	 * Returns the number of files whose output was reused from another language.
+	 * @return the number of files not rendered
+	 */
+	public int getReusedFiles() {
+		int rc = 0;
+		for (FileMetrics metrics : files) {
+			if (metrics.isReused()) rc++;
+		}
+		return rc;
+	}
+
+	/**
+	 * Writes the JSON report.
+	 * @param file - the report file
+	 * @throws IOException - when the file cannot be written
+	 */
+	public void writeReport(File file) throws IOException {
+		FileUtils.writeStringToFile(file, toJson(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Creates the JSON report.
+	 * @return the report
+	 */
+	public String toJson() {
+		long contextNanos = 0, localizationNanos = 0, templateNanos = 0, renderNanos = 0, writeNanos = 0;
+		for (DirectoryMetrics metrics : directories.values()) contextNanos += metrics.contextNanos;
+		for (FileMetrics metrics : files) {
+			localizationNanos += metrics.getLocalizationNanos();
+			templateNanos     += metrics.getTemplateNanos();
+			renderNanos       += metrics.getRenderNanos();
+			writeNanos        += metrics.getWriteNanos();
+		}
+
+		StringBuilder rc = new StringBuilder("{\n");
+		rc.append("  \"sourceRoot\": ").append(quote(sourceRoot != null ? sourceRoot.toAbsolutePath().toString() : null)).append(",\n");
+		rc.append("  \"outputRoot\": ").append(quote(outputRoot != null ? outputRoot.getAbsolutePath() : null)).append(",\n");
+		rc.append("  \"startTime\": ").append(quote(startTime != null ? startTime.toString() : null)).append(",\n");
+		rc.append("  \"totalMillis\": ").append(millis(totalNanos)).append(",\n");
+		rc.append("  \"files\": ").append(info != null ? info.getFiles() : files.size()).append(",\n");
+		rc.append("  \"skippedFiles\": ").append(info != null ? info.getSkippedFiles() : 0).append(",\n");
+		rc.append("  \"reusedFiles\": ").append(getReusedFiles()).append(",\n");
+		rc.append("  \"bytesWritten\": ").append(getBytesWritten()).append(",\n");
+		rc.append("  \"languages\": [");
+		if (info != null) {
+			String sep = "";
+			for (String language : new TreeSet<>(info.getLanguages())) {
+				rc.append(sep).append(quote(language));
+				sep = ", ";
+			}
+		}
+		rc.append("],\n");
+		rc.append("  \"phases\": {")
+			.append("\"contextLoadMillis\": ").append(millis(contextNanos))
+			.append(", \"localizationMillis\": ").append(millis(localizationNanos))
+			.append(", \"templateMillis\": ").append(millis(templateNanos))
+			.append(", \"renderMillis\": ").append(millis(renderNanos))
+			.append(", \"writeMillis\": ").append(millis(writeNanos))
+			.append("},\n");
+		long lookups = cacheHits + cacheMisses;
+		rc.append("  \"templateCache\": {")
+			.append("\"hits\": ").append(cacheHits)
+			.append(", \"misses\": ").append(cacheMisses)
+			.append(", \"hitRatio\": ").append(lookups > 0 ? String.format(Locale.ROOT, "%.3f", (double)cacheHits / lookups) : "0")
+			.append("},\n");
+
+		// Directories sorted by path
+		Map<String,DirectoryMetrics> sortedDirs = new TreeMap<>();
+		for (DirectoryMetrics metrics : directories.values()) sortedDirs.put(relativize(sourceRoot, metrics.dir), metrics);
+		rc.append("  \"directories\": [");
+		String sep = "\n";
+		for (Map.Entry<String,DirectoryMetrics> entry : sortedDirs.entrySet()) {
+			DirectoryMetrics metrics = entry.getValue();
+			rc.append(sep).append("    {\"path\": ").append(quote(entry.getKey()))
+				.append(", \"contextLoadMillis\": ").append(millis(metrics.contextNanos))
+				.append(", \"generateMillis\": ").append(millis(metrics.generateNanos))
+				.append(", \"files\": ").append(metrics.files)
+				.append(", \"skippedFiles\": ").append(metrics.skippedFiles)
+				.append("}");
+			sep = ",\n";
+		}
+		rc.append(sortedDirs.isEmpty() ? "],\n" : "\n  ],\n");
+
+		rc.append("  \"slowestFiles\": ");
+		appendFiles(rc, getSlowestFiles(SLOWEST_FILES));
+		rc.append(",\n");
+
+		// All files sorted by output path
+		List<FileMetrics> allFiles = new ArrayList<>(files);
+		allFiles.sort(Comparator.comparing(metrics -> relativize(outputRoot, metrics.getOutFile())));
+		rc.append("  \"fileTimings\": ");
+		appendFiles(rc, allFiles);
+		rc.append("\n}\n");
+		return rc.toString();
+	}
+
+	/**
+	 * Appends a JSON array of file timings.
+	 * @param rc    - the JSON to append to
+	 * @param files - the file timings
+	 */
+	protected void appendFiles(StringBuilder rc, List<FileMetrics> files) {
+		rc.append("[");
+		String sep = "\n";
+		for (FileMetrics metrics : files) {
+			rc.append(sep).append("    {\"template\": ").append(quote(relativize(sourceRoot, metrics.getTemplateFile())))
+				.append(", \"language\": ").append(quote(metrics.getLanguage()))
+				.append(", \"output\": ").append(quote(relativize(outputRoot, metrics.getOutFile())))
+				.append(", \"skipped\": ").append(metrics.isSkipped())
+				.append(", \"reused\": ").append(metrics.isReused())
+				.append(", \"totalMillis\": ").append(millis(metrics.getTotalNanos()))
+				.append(", \"localizationMillis\": ").append(millis(metrics.getLocalizationNanos()))
+				.append(", \"templateMillis\": ").append(millis(metrics.getTemplateNanos()))
+				.append(", \"renderMillis\": ").append(millis(metrics.getRenderNanos()))
+				.append(", \"writeMillis\": ").append(millis(metrics.getWriteNanos()))
+				.append(", \"bytes\": ").append(metrics.getBytes())
+				.append("}");
+			sep = ",\n";
+		}
+		rc.append(files.isEmpty() ? "]" : "\n  ]");
+	}
+
+	/**
+	 * Returns the path of a file relative to a root directory.
+	 * @param root - the root directory
+	 * @param file - the file
+	 * @return the relative path with {@code /} as separator
+	 */
+	protected static String relativize(File root, File file) {
+		return relativize(root != null ? root.toPath() : null, file.toPath());
+	}
+
+	/**
+	 * Returns the path of a file relative to a root directory.
+	 * @param root - the root directory
+	 * @param file - the file (same file system as the root)
+	 * @return the relative path with {@code /} as separator
+	 */
+	protected static String relativize(Path root, Path file) {
+		if (root == null) return FilenameUtils.separatorsToUnix(file.toString());
+		String rc = root.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize()).toString();
+		return FilenameUtils.separatorsToUnix(rc);
+	}
+
+	/**
+	 * Formats nanoseconds as milliseconds.
+	 * @param nanos - the nanoseconds
+	 * @return the milliseconds with 3 decimals
+	 */
+	protected static String millis(long nanos) {
+		return String.format("%d.%03d", nanos / 1000000, (nanos / 1000) % 1000);
+	}
+
+	/**
+	 * Quotes a string for JSON.
+	 * @param s - the string
+	 * @return the JSON string or {@code null}
+	 */
+	protected static String quote(String s) {
+		if (s == null) return "null";
+		StringBuilder rc = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			switch (c) {
+			case '"':  rc.append("\\\""); break;
+			case '\\': rc.append("\\\\"); break;
+			case '\n': rc.append("\\n");  break;
+			case '\r': rc.append("\\r");  break;
+			case '\t': rc.append("\\t");  break;
+			default:
+				if (c < 0x20) rc.append(String.format("\\u%04x", (int)c));
+				else rc.append(c);
+			}
+		}
+		return rc.append('"').toString();
+	}
+
+	/**
+	 * Timings of a single directory.
+	 */
+	protected static class DirectoryMetrics {
+
+		protected Path dir;
+		protected long contextNanos;
+		protected long generateNanos;
+		protected int  files;
+		protected int  skippedFiles;
+
+		/**
+		 * Constructor.
+		 * @param dir - the directory
+		 */
+		public DirectoryMetrics(Path dir) {
+			this.dir = dir;
+		}
+	}
+}
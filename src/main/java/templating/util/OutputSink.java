@@ -0,0 +1,47 @@
+package templating.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Receives the content of generated files.
+ * <p>Sinks are shared by all generators of a run and must be thread-safe.</p>
+ * @author ralph
+ *
+ */
+public interface OutputSink extends Closeable {
+
+	/**
+	 * Starts a generation run. Does nothing by default.
+	 * @throws IOException - when the output cannot be prepared
+	 */
+	default void open() throws IOException {
+	}
+
+	/**
+	 * Writes a generated file.
+	 * @param outFile - the output file
+	 * @param content - the buffer holding the encoded content
+	 * @param length  - the number of bytes in the buffer
+	 * @return the number of bytes actually written, {@code 0} when the file was unchanged or could be linked
+	 * @throws IOException - when the file cannot be written
+	 */
+	long write(File outFile, byte content[], int length) throws IOException;
+
+	/**
+	 * Finishes a generation run. Does nothing by default.
+	 * @throws IOException - when the output cannot be finished
+	 */
+	@Override
+	default void close() throws IOException {
+	}
+
+	/**
+	 * Gives up a generation run that failed. Does nothing by default.
+	 * <p>Called instead of {@link #close()}, so sinks can discard a partial output.</p>
+	 * @throws IOException - when the output cannot be discarded
+	 */
+	default void abort() throws IOException {
+	}
+}
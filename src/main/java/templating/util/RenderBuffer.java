@@ -0,0 +1,76 @@
+package templating.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A reusable buffer that receives the rendered content of a file in its write encoding.
+ * <p>Buffers are pooled, so rendering many files allocates only a few buffers that grow to the size
+ * of the largest file. Buffers that grew beyond {@link #MAX_POOLED_SIZE} are not pooled, and the pool keeps
+ * at most {@link #MAX_POOLED_BUFFERS} buffers.</p>
+ * @author ralph
+ *
+ */
+public class RenderBuffer extends ByteArrayOutputStream {
+
+	/** Initial size of a buffer */
+	public static final int INITIAL_SIZE       = 64 * 1024;
+	/** Maximum size of a buffer to be kept in the pool */
+	public static final int MAX_POOLED_SIZE    = 16 * 1024 * 1024;
+	/** Maximum number of buffers kept in the pool */
+	public static final int MAX_POOLED_BUFFERS = Runtime.getRuntime().availableProcessors();
+
+	private static Queue<RenderBuffer> pool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+	/**
+	 * Constructor.
+	 */
+	protected RenderBuffer() {
+		super(INITIAL_SIZE);
+	}
+
+	/**
+	 * Returns an empty buffer from the pool.
+	 * @return the buffer
+	 */
+	public static RenderBuffer acquire() {
+		RenderBuffer rc = pool.poll();
+		if (rc == null) rc = new RenderBuffer();
+		return rc;
+	}
+
+	/**
+	 * Returns the buffer to the pool.
+	 * <p>The buffer is dropped when the pool is full.</p>
+	 * @param buffer - the buffer, must not be used anymore
+	 */
+	public static void release(RenderBuffer buffer) {
+		if (buffer.buf.length <= MAX_POOLED_SIZE) {
+			buffer.reset();
+			pool.offer(buffer);
+		}
+	}
+
+	/**
+	 * Returns a writer into this buffer.
+	 * <p>The writer must be flushed before the content is used.</p>
+	 * @param encoding - the encoding of the content
+	 * @return the writer
+	 */
+	public Writer getWriter(Charset encoding) {
+		return new OutputStreamWriter(this, encoding);
+	}
+
+	/**
+	 * Returns the internal buffer.
+	 * <p>Only the first {@link #size()} bytes are valid.</p>
+	 * @return the buffer
+	 */
+	public byte[] getBuffer() {
+		return buf;
+	}
+}
@@ -4,30 +4,29 @@
 package templating.util;
 
 import java.io.IOException;
-import java.io.Writer;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
-import org.apache.commons.codec.net.QuotedPrintableCodec;
-
 import freemarker.core.Environment;
 import freemarker.template.TemplateDirectiveBody;
 import freemarker.template.TemplateDirectiveModel;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
 
 /**
  * Implements the quoted-printable conversion as described by RFC1342 (UTF-8 for email subjects).
+ * <p>The body is encoded while it is rendered, see {@link Rfc2047Writer}. Directives that fold the output
+ * into multiple encoded-words (RFC 2047) accept an optional {@code separator} parameter that is written
+ * between the words.</p>
  * @author ralph
  *
  */
 public class Rfc1342Directive implements TemplateDirectiveModel {
 
-	private boolean strict = true;
+	private Rfc2047Writer.Encoding encoding;
+	private boolean                strict;
+	private boolean                fold;
 	
 	/**
 	 * Constructor for strict encoding.
@@ -37,19 +36,39 @@ public class Rfc1342Directive implements TemplateDirectiveModel {
 	}
 
 	/**
-	 * Constructor.
-	 * @param strict - use strict encoding
+	 * Constructor for a single encoded-word in Q encoding.
+	 * @param strict - use strict encoding (only characters allowed in headers are not encoded)
 	 */
 	public Rfc1342Directive(boolean strict) {
-		this.strict = strict;
+		this(Rfc2047Writer.Encoding.Q, strict, false);
+	}
+
+	/**
+	 * Constructor.
+	 * @param encoding - the encoding
+	 * @param strict   - use strict encoding (Q encoding only)
+	 * @param fold     - split the output into encoded-words of at most 75 characters (always for B encoding)
+	 */
+	public Rfc1342Directive(Rfc2047Writer.Encoding encoding, boolean strict, boolean fold) {
+		this.encoding = encoding;
+		this.strict   = strict;
+		this.fold     = fold || (encoding == Rfc2047Writer.Encoding.B);
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws TemplateException, IOException {
-		// Check if no parameters were given:
-		if (!params.isEmpty()) {
-			throw new TemplateModelException("This directive doesn't allow parameters.");
+		// Check parameters
+		String separator = null;
+		for (Object key : params.keySet()) {
+			if (!fold || !"separator".equals(key)) {
+				throw new TemplateModelException("This directive doesn't allow parameter "+key+".");
+			}
+			Object value = params.get(key);
+			if (!(value instanceof TemplateScalarModel)) {
+				throw new TemplateModelException("The separator parameter must be a string.");
+			}
+			separator = ((TemplateScalarModel)value).getAsString();
 		}
 		if (loopVars.length != 0) {
 			throw new TemplateModelException("This directive doesn't allow loop variables.");
@@ -59,7 +78,7 @@ public class Rfc1342Directive implements TemplateDirectiveModel {
 		if (body != null) {
 			// Executes the nested body. Same as <#nested> in FTL, except
 			// that we use our own writer instead of the current output writer.
-			Rfc1342FilterWriter writer = new Rfc1342FilterWriter(env.getOut(), strict);
+			Rfc2047Writer writer = new Rfc2047Writer(env.getOut(), encoding, strict, fold, separator);
 			writer.start();
 			body.render(writer);
 			writer.end();
@@ -68,46 +87,4 @@ public class Rfc1342Directive implements TemplateDirectiveModel {
 			throw new RuntimeException("missing body");
 		}
 	}
-
-	/**
-	 * A {@link Writer} that transforms the character stream to RFC1342 strings
-	 * and forwards it to another {@link Writer}.
-	 */
-	private static class Rfc1342FilterWriter extends Writer {
-
-		private Writer out;
-		private QuotedPrintableCodec codec;
-
-		Rfc1342FilterWriter(Writer out, boolean strict) {
-			this.out      = out;
-			codec         = new QuotedPrintableCodec(StandardCharsets.UTF_8, strict);
-		}
-
-		public void start() throws IOException {
-			out.write("=?UTF-8?Q?");
-		}
-
-		public void end() throws IOException {
-			out.write("?=");
-		}
-
-		public void write(char[] cbuf, int off, int len) throws IOException {
-				String orig = new String(cbuf, off, len);
-				// orig is in system default charset which can only be influenced outside of code (java -D flag)
-				// The following lines try to fix it but still fail on Windows 10
-				Charset internalDefault = Charset.defaultCharset();
-				byte origBytes[] = orig.getBytes();
-				CharBuffer utf8Buffer = internalDefault.decode(ByteBuffer.wrap(origBytes));
-				String words = codec.encode(utf8Buffer.toString(), StandardCharsets.UTF_8);
-				out.write(words);
-		}
-
-		public void flush() throws IOException {
-			out.flush();
-		}
-
-		public void close() throws IOException {
-			out.close();
-		}
-	}
 }
@@ -0,0 +1,258 @@
+package templating.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A {@link Writer} that encodes the characters written as RFC 2047 encoded-words in UTF-8
+ * and forwards them to another {@link Writer}.
+ * <p>Characters are encoded directly into the target writer, without intermediate strings and
+ * independent of the platform charset. Characters are never split between encoded-words, even
+ * when a surrogate pair arrives in two writes. Unpaired surrogates are encoded as {@code ?}.</p>
+ * <p>The Q encoding keeps printable characters and encodes all others as {@code =XX}. In strict mode,
+ * only letters, digits and {@code !*+-/} are kept and spaces become {@code _}, as required for headers.
+ * The B encoding uses Base64 and always folds.</p>
+ * <p>When folding, no encoded-word exceeds {@link #MAX_WORD_LENGTH} characters and the words are
+ * separated by the separator (a folded line break by default).</p>
+ * @author ralph
+ *
+ */
+public class Rfc2047Writer extends Writer {
+
+	/** The maximum length of an encoded-word including prefix and suffix */
+	public static final int MAX_WORD_LENGTH = 75;
+	/** The separator between encoded-words when folding */
+	public static final String DEFAULT_SEPARATOR = "\r\n ";
+
+	/**
+	 * The encodings of RFC 2047.
+	 */
+	public static enum Encoding {
+		/** Quoted-printable like encoding */
+		Q,
+		/** Base64 encoding */
+		B
+	}
+
+	private static final char   HEX[]    = "0123456789ABCDEF".toCharArray();
+	private static final char   BASE64[] = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final String SUFFIX   = "?=";
+
+	private Writer   out;
+	private Encoding encoding;
+	private boolean  strict;
+	private boolean  fold;
+	private String   separator;
+	private String   prefix;
+	private int      wordLength;
+	private char     highSurrogate;
+	private byte     bytes[];
+	private byte     pending[];
+	private int      pendingLength;
+
+	/**
+	 * Constructor.
+	 * @param out       - the target writer
+	 * @param encoding  - the encoding
+	 * @param strict    - whether Q encoding encodes all characters that are not allowed in headers
+	 * @param fold      - whether the output is split into encoded-words of at most {@link #MAX_WORD_LENGTH} characters (always for B)
+	 * @param separator - the separator between encoded-words or {@code null} for the {@link #DEFAULT_SEPARATOR}
+	 */
+	public Rfc2047Writer(Writer out, Encoding encoding, boolean strict, boolean fold, String separator) {
+		this.out       = out;
+		this.encoding  = encoding;
+		this.strict    = strict;
+		this.fold      = fold || (encoding == Encoding.B);
+		this.separator = separator != null ? separator : DEFAULT_SEPARATOR;
+		this.prefix    = "=?UTF-8?"+encoding.name()+"?";
+		this.bytes     = new byte[4];
+		this.pending   = new byte[(MAX_WORD_LENGTH - prefix.length() - SUFFIX.length()) / 4 * 3];
+	}
+
+	/**
+	 * Starts the first encoded-word.
+	 * @throws IOException - when the target cannot be written
+	 */
+	public void start() throws IOException {
+		out.write(prefix);
+		wordLength = prefix.length();
+	}
+
+	/**
+	 * Finishes the last encoded-word.
+	 * @throws IOException - when the target cannot be written
+	 */
+	public void end() throws IOException {
+		if (highSurrogate != 0) {
+			highSurrogate = 0;
+			encode('?');
+		}
+		writePending();
+		out.write(SUFFIX);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		for (int i=off; i<off+len; i++) write(cbuf[i]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		for (int i=off; i<off+len; i++) write(str.charAt(i));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(int c) throws IOException {
+		write((char)c);
+	}
+
+	/**
+	 * Encodes a single character.
+	 * @param c - the character
+	 * @throws IOException - when the target cannot be written
+	 */
+	protected void write(char c) throws IOException {
+		if (highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				encode(Character.toCodePoint(high, c));
+				return;
+			}
+			encode('?');
+		}
+		if (Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			encode('?');
+		} else {
+			encode(c);
+		}
+	}
+
+	/**
+	 * Encodes a code point as UTF-8.
+	 * @param codePoint - the code point
+	 * @throws IOException - when the target cannot be written
+	 */
+	protected void encode(int codePoint) throws IOException {
+		int length;
+		if (codePoint < 0x80) {
+			bytes[0] = (byte)codePoint;
+			length   = 1;
+		} else if (codePoint < 0x800) {
+			bytes[0] = (byte)(0xC0 | (codePoint >> 6));
+			bytes[1] = (byte)(0x80 | (codePoint & 0x3F));
+			length   = 2;
+		} else if (codePoint < 0x10000) {
+			bytes[0] = (byte)(0xE0 | (codePoint >> 12));
+			bytes[1] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+			bytes[2] = (byte)(0x80 | (codePoint & 0x3F));
+			length   = 3;
+		} else {
+			bytes[0] = (byte)(0xF0 | (codePoint >> 18));
+			bytes[1] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+			bytes[2] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+			bytes[3] = (byte)(0x80 | (codePoint & 0x3F));
+			length   = 4;
+		}
+		if (encoding == Encoding.B) {
+			if (pendingLength + length > pending.length) {
+				writePending();
+				nextWord();
+			}
+			System.arraycopy(bytes, 0, pending, pendingLength, length);
+			pendingLength += length;
+		} else {
+			if (fold) {
+				int encodedLength = 0;
+				for (int i=0; i<length; i++) encodedLength += isLiteral(bytes[i]) ? 1 : 3;
+				if (wordLength + encodedLength + SUFFIX.length() > MAX_WORD_LENGTH) nextWord();
+				wordLength += encodedLength;
+			}
+			for (int i=0; i<length; i++) writeQ(bytes[i]);
+		}
+	}
+
+	/**
+	 * Writes a byte in Q encoding.
+	 * @param b - the byte
+	 * @throws IOException - when the target cannot be written
+	 */
+	protected void writeQ(byte b) throws IOException {
+		if (isLiteral(b)) {
+			out.write(strict && (b == ' ') ? '_' : (char)b);
+		} else {
+			out.write('=');
+			out.write(HEX[(b >> 4) & 0x0F]);
+			out.write(HEX[b & 0x0F]);
+		}
+	}
+
+	/**
+	 * Returns whether a byte is written as is in Q encoding.
+	 * @param b - the byte
+	 * @return {@code true} when the byte is not encoded as {@code =XX}
+	 */
+	protected boolean isLiteral(byte b) {
+		if (strict) {
+			return ((b >= 'a') && (b <= 'z')) || ((b >= 'A') && (b <= 'Z')) || ((b >= '0') && (b <= '9'))
+				|| (b == ' ') || (b == '!') || (b == '*') || (b == '+') || (b == '-') || (b == '/');
+		}
+		// Same printable characters as quoted-printable (RFC 1521)
+		return ((b >= 33) && (b <= 126) && (b != '=')) || (b == ' ') || (b == '\t');
+	}
+
+	/**
+	 * Writes the pending bytes in B encoding.
+	 * @throws IOException - when the target cannot be written
+	 */
+	protected void writePending() throws IOException {
+		for (int i=0; i<pendingLength; i+=3) {
+			int remaining = pendingLength - i;
+			int group = (pending[i] & 0xFF) << 16;
+			if (remaining > 1) group |= (pending[i+1] & 0xFF) << 8;
+			if (remaining > 2) group |= pending[i+2] & 0xFF;
+			out.write(BASE64[(group >> 18) & 0x3F]);
+			out.write(BASE64[(group >> 12) & 0x3F]);
+			out.write(remaining > 1 ? BASE64[(group >> 6) & 0x3F] : '=');
+			out.write(remaining > 2 ? BASE64[group & 0x3F] : '=');
+		}
+		pendingLength = 0;
+	}
+
+	/**
+	 * Finishes the current encoded-word and starts the next.
+	 * @throws IOException - when the target cannot be written
+	 */
+	protected void nextWord() throws IOException {
+		out.write(SUFFIX);
+		out.write(separator);
+		start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,166 @@
+package templating.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+
+import templating.TemplatingException;
+
+/**
+ * A part of the work units of a generation when it is split across multiple processes.
+ * <p>A work unit is a template file in a language. Units are assigned by a hash of the template path
+ * and the language, so every process computes the same partition without coordination and
+ * each unit belongs to exactly one shard. All shards write into the same output root.</p>
+ * <p>Each shard leaves its statistics and manifest entries in the output root. These are combined
+ * by the merge step after all shards have finished.</p>
+ * @author ralph
+ *
+ */
+public class Shard {
+
+	/** The prefix of the files a shard leaves in the output root */
+	public static final String FILENAME_PREFIX = ".template-machine.shard-";
+
+	private int index;
+	private int count;
+
+	/**
+	 * Constructor.
+	 * @param index - the number of this shard, starting at 1
+	 * @param count - the total number of shards
+	 */
+	public Shard(int index, int count) {
+		if ((count < 1) || (index < 1) || (index > count)) throw new TemplatingException("Invalid shard "+index+"/"+count);
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Parses a shard definition.
+	 * @param value - the shard as {@code i/N}, e.g. {@code 2/4} for the second of four shards
+	 * @return the shard
+	 * @throws TemplatingException - when the value cannot be parsed
+	 */
+	public static Shard parse(String value) {
+		int idx = value.indexOf('/');
+		try {
+			if (idx < 0) throw new NumberFormatException();
+			return new Shard(Integer.parseInt(value.substring(0, idx).trim()), Integer.parseInt(value.substring(idx+1).trim()));
+		} catch (NumberFormatException e) {
+			throw new TemplatingException("Invalid shard (expected i/N): "+value);
+		}
+	}
+
+	/**
+	 * Returns whether a work unit belongs to this shard.
+	 * @param templatePath - the path of the template relative to the source root, using {@code /} as separator
+	 * @param language     - the language
+	 * @return {@code true} when this shard generates the unit
+	 */
+	public boolean owns(String templatePath, String language) {
+		if (count == 1) return true;
+		CRC32 crc = new CRC32();
+		crc.update((templatePath+"\n"+language).getBytes(StandardCharsets.UTF_8));
+		return crc.getValue() % count == index-1;
+	}
+
+	/**
+	 * Returns the number of this shard.
+	 * @return the number, starting at 1
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the total number of shards.
+	 * @return the number of shards
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the file that holds the statistics of this shard.
+	 * @param outputRoot - the output root
+	 * @return the file
+	 */
+	public File getInfoFile(File outputRoot) {
+		return new File(outputRoot, FILENAME_PREFIX+index+"-of-"+count+".info");
+	}
+
+	/**
+	 * Returns the file that holds the manifest entries of this shard.
+	 * @param outputRoot - the output root
+	 * @return the file
+	 */
+	public File getManifestFile(File outputRoot) {
+		return new File(outputRoot, FILENAME_PREFIX+index+"-of-"+count+".manifest");
+	}
+
+	/**
+	 * Returns the file that holds the render times of this shard.
+	 * <p>The file is kept for the next run of the shard, so it is not removed by the merge step.</p>
+	 * @param dir - the cache directory or the output root
+	 * @return the file
+	 */
+	public File getTimingsFile(File dir) {
+		return new File(dir, FILENAME_PREFIX+index+"-of-"+count+".timings");
+	}
+
+	/**
+	 * Saves the statistics of this shard.
+	 * @param outputRoot - the output root
+	 * @param info       - the statistics
+	 * @throws IOException - when the file cannot be written
+	 */
+	public void saveInfo(File outputRoot, GenerationInfo info) throws IOException {
+		Properties p = new Properties();
+		p.setProperty("files",        Integer.toString(info.getFiles()));
+		p.setProperty("skippedFiles", Integer.toString(info.getSkippedFiles()));
+		p.setProperty("languages",    String.join(",", info.getLanguages()));
+		File file = getInfoFile(outputRoot);
+		FileUtils.forceMkdirParent(file);
+		try (OutputStream out = new FileOutputStream(file)) {
+			p.store(out, "template-machine shard "+this);
+		}
+	}
+
+	/**
+	 * Loads the statistics of this shard.
+	 * @param outputRoot - the output root
+	 * @return the statistics
+	 * @throws TemplatingException - when the shard has not finished
+	 * @throws IOException - when the file cannot be read
+	 */
+	public GenerationInfo loadInfo(File outputRoot) throws IOException {
+		File file = getInfoFile(outputRoot);
+		if (!file.isFile()) throw new TemplatingException("Shard "+this+" has not finished yet");
+		Properties p = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			p.load(in);
+		}
+		String languages = p.getProperty("languages", "");
+		GenerationInfo rc = new GenerationInfo(languages.isEmpty() ? null : new HashSet<>(Arrays.asList(languages.split(","))), Integer.parseInt(p.getProperty("files", "0")));
+		rc.setSkippedFiles(Integer.parseInt(p.getProperty("skippedFiles", "0")));
+		return rc;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return index+"/"+count;
+	}
+}
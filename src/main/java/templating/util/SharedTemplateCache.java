@@ -0,0 +1,115 @@
+package templating.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import freemarker.template.Template;
+
+/**
+ * Holds parsed macro templates across all directories of a run.
+ * <p>FreeMarker configurations are specific to a directory. Macro files that are inherited
+ * from parent directories would be parsed again in each directory. This cache is keyed by
+ * the {@link TemplateSource} (file and content hash) so each macro file is parsed once only.</p>
+ * <p>A cached template keeps its FreeMarker configuration and thus its directory alive. The cache
+ * holds the most recently used templates only, so long running machines (watch and server mode) do not
+ * keep each version of an edited macro file.</p>
+ * @author ralph
+ *
+ */
+public class SharedTemplateCache {
+
+	/** The default number of templates held */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	private Map<TemplateSource,Template> templates;
+	private AtomicLong                   hits;
+	private AtomicLong                   misses;
+
+	/**
+	 * Constructor.
+	 */
+	public SharedTemplateCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param maxSize - the maximum number of templates held, least recently used templates are removed first
+	 */
+	public SharedTemplateCache(int maxSize) {
+		templates = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<TemplateSource,Template> eldest) {
+				return size() > maxSize;
+			}
+		};
+		hits      = new AtomicLong();
+		misses    = new AtomicLong();
+	}
+
+	/**
+	 * Returns the parsed template.
+	 * @param source - the source of the template
+	 * @return the template or {@code null} when it was not parsed yet
+	 */
+	public Template get(TemplateSource source) {
+		Template rc;
+		synchronized (templates) {
+			rc = templates.get(source);
+		}
+		if (rc != null) hits.incrementAndGet();
+		else misses.incrementAndGet();
+		return rc;
+	}
+
+	/**
+	 * Adds a parsed template.
+	 * @param source   - the source of the template
+	 * @param template - the parsed template
+	 * @return the template that is cached now (might be parsed concurrently by another thread)
+	 */
+	public Template put(TemplateSource source, Template template) {
+		synchronized (templates) {
+			Template rc = templates.putIfAbsent(source, template);
+			return rc != null ? rc : template;
+		}
+	}
+
+	/**
+	 * Removes all templates.
+	 */
+	public void clear() {
+		synchronized (templates) {
+			templates.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of templates in the cache.
+	 * @return the number of templates
+	 */
+	public int size() {
+		synchronized (templates) {
+			return templates.size();
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a parsed template.
+	 * @return the hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that required the template to be parsed.
+	 * @return the misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+}
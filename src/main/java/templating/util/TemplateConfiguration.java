@@ -0,0 +1,121 @@
+package templating.util;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import freemarker.cache.TemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.Version;
+
+/**
+ * A FreeMarker configuration that can record all templates requested by the current thread
+ * and that shares parsed macro templates with other configurations.
+ * <p>Recording is used to find out which templates were imported or included while rendering a file.</p>
+ * @author ralph
+ *
+ */
+public class TemplateConfiguration extends Configuration {
+
+	private ThreadLocal<Set<String>> recorded = new ThreadLocal<>();
+	private SharedTemplateCache      sharedCache;
+
+	/**
+	 * Constructor.
+	 * @param incompatibleImprovements - the FreeMarker version to be compatible to
+	 */
+	public TemplateConfiguration(Version incompatibleImprovements) {
+		super(incompatibleImprovements);
+	}
+
+	/**
+	 * Starts recording the names of all templates requested by the current thread.
+	 */
+	public void startRecording() {
+		recorded.set(new HashSet<>());
+	}
+
+	/**
+	 * Stops recording for the current thread.
+	 * @return the names of all templates requested since {@link #startRecording()}
+	 */
+	public Collection<String> stopRecording() {
+		Set<String> rc = recorded.get();
+		recorded.remove();
+		return rc != null ? rc : new HashSet<>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>All other {@code getTemplate()} methods as well as {@code #import} and {@code #include} directives end up here.</p>
+	 */
+	@Override
+	public Template getTemplate(String name, Locale locale, Object customLookupCondition, String encoding, boolean parseAsFTL, boolean ignoreMissing) throws IOException {
+		Template       rc     = null;
+		TemplateSource source = null;
+		// Macro templates are read from memory, the encoding does not matter
+		if ((sharedCache != null) && (customLookupCondition == null) && parseAsFTL) {
+			source = findSharedSource(name, locale);
+			if (source != null) rc = sharedCache.get(source);
+		}
+		if (rc == null) {
+			rc = super.getTemplate(name, locale, customLookupCondition, encoding, parseAsFTL, ignoreMissing);
+			if ((source != null) && (rc != null)) rc = sharedCache.put(source, rc);
+		}
+		Set<String> names = recorded.get();
+		if ((names != null) && (rc != null)) names.add(rc.getName());
+		return rc;
+	}
+
+	/**
+	 * Finds the source of a template that can be shared.
+	 * <p>The localized lookup of FreeMarker is respected: no source is returned when a
+	 * localized variant of the template exists.</p>
+	 * @param name   - the name of the template
+	 * @param locale - the locale requested (can be {@code null})
+	 * @return the source of the template or {@code null} if it cannot be shared
+	 * @throws IOException - when the template loader fails
+	 */
+	protected TemplateSource findSharedSource(String name, Locale locale) throws IOException {
+		TemplateLoader loader = getTemplateLoader();
+		if (loader == null) return null;
+		if (getLocalizedLookup()) {
+			if (locale == null) locale = getLocale();
+			int    lastDot    = name.lastIndexOf('.');
+			String prefix     = lastDot < 0 ? name : name.substring(0, lastDot);
+			String suffix     = lastDot < 0 ? ""   : name.substring(lastDot);
+			String localeName = "_"+locale.toString();
+			while (true) {
+				String path = prefix+localeName+suffix;
+				if (loader.findTemplateSource(path) != null) {
+					if (!path.equals(name)) return null;
+					break;
+				}
+				int lastUnderscore = localeName.lastIndexOf('_');
+				if (lastUnderscore < 0) return null;
+				localeName = localeName.substring(0, lastUnderscore);
+			}
+		}
+		Object rc = loader.findTemplateSource(name);
+		return rc instanceof TemplateSource ? (TemplateSource)rc : null;
+	}
+
+	/**
+	 * Returns the cache for templates shared with other configurations.
+	 * @return the cache or {@code null}
+	 */
+	public SharedTemplateCache getSharedCache() {
+		return sharedCache;
+	}
+
+	/**
+	 * Sets the cache for templates shared with other configurations.
+	 * @param sharedCache - the cache or {@code null} when templates shall not be shared
+	 */
+	public void setSharedCache(SharedTemplateCache sharedCache) {
+		this.sharedCache = sharedCache;
+	}
+}
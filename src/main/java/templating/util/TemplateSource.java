@@ -0,0 +1,153 @@
+package templating.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * A FreeMarker macro file from a template directory.
+ * <p>The identity of a source is the file it was read from and the hash of its content.
+ * The same source is therefore shared by all contexts that inherit it.</p>
+ * <p>The content is read from the file on first use and kept afterwards.</p>
+ * @author ralph
+ *
+ */
+public class TemplateSource {
+
+	private String              name;
+	private Path                file;
+	private Charset             encoding;
+	private ContextCache        cache;
+	private BasicFileAttributes attrs;
+	private volatile String     content;
+	private volatile String     hash;
+
+	/**
+	 * Constructor for a template that is read on first use.
+	 * @param name     - the name of the template (relative to the template directory)
+	 * @param file     - the file the template will be read from
+	 * @param encoding - the encoding of the file
+	 */
+	public TemplateSource(String name, Path file, Charset encoding) {
+		this(name, file, encoding, null, null);
+	}
+
+	/**
+	 * Constructor for a template that is read on first use and then added to a cache.
+	 * @param name     - the name of the template (relative to the template directory)
+	 * @param file     - the file the template will be read from
+	 * @param encoding - the encoding of the file
+	 * @param cache    - the cache that receives the content ({@code null} when not cached)
+	 * @param attrs    - the attributes of the file
+	 */
+	public TemplateSource(String name, Path file, Charset encoding, ContextCache cache, BasicFileAttributes attrs) {
+		this.name     = name;
+		this.file     = file;
+		this.encoding = encoding;
+		this.cache    = cache;
+		this.attrs    = attrs;
+	}
+
+	/**
+	 * Constructor.
+	 * @param name    - the name of the template (relative to the template directory)
+	 * @param file    - the file the template was read from
+	 * @param content - the content of the template
+	 */
+	public TemplateSource(String name, Path file, String content) {
+		this.name    = name;
+		this.file    = file;
+		this.content = content;
+		this.hash    = DigestUtils.sha256Hex(content);
+	}
+
+	/**
+	 * Returns the name.
+	 * @return the name of the template (relative to the template directory)
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the file.
+	 * @return the file the template was read from
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the content.
+	 * @return the content of the template
+	 */
+	public String getContent() {
+		String rc = content;
+		if (rc == null) {
+			synchronized (this) {
+				if (content == null) {
+					try {
+						content = FileReadUtils.readFile(file, encoding);
+						if (cache != null) cache.putText(file, attrs, encoding, content);
+					} catch (IOException e) {
+						throw new UncheckedIOException("Cannot read template "+file, e);
+					}
+				}
+				rc = content;
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * Returns whether the content was read already.
+	 * @return {@code true} when the content is in memory
+	 */
+	public boolean isLoaded() {
+		return content != null;
+	}
+
+	/**
+	 * Returns the hash.
+	 * @return the hex-encoded SHA-256 hash of the content
+	 */
+	public String getHash() {
+		String rc = hash;
+		if (rc == null) {
+			rc = DigestUtils.sha256Hex(getContent());
+			hash = rc;
+		}
+		return rc;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return file.hashCode() * 31 + getHash().hashCode();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof TemplateSource)) return false;
+		TemplateSource other = (TemplateSource)obj;
+		return file.equals(other.file) && getHash().equals(other.getHash());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return file.toString();
+	}
+}
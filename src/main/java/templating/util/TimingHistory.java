@@ -0,0 +1,125 @@
+package templating.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The render times of previous runs, by template and language.
+ * <p>The times are used to estimate the cost of each file before a run. A new time is averaged
+ * with the time of the previous run, so a single slow or fast run does not dominate. Times of
+ * files that were not rendered in a run are kept, e.g. for runs on a sub directory.</p>
+ * @author ralph
+ *
+ */
+public class TimingHistory {
+
+	/** The name of the history file */
+	public static final String FILENAME = ".template-machine.timings";
+
+	private File             file;
+	private Map<String,Long> previous;
+	private Map<String,Long> current;
+
+	/**
+	 * Constructor.
+	 * @param file - the history file, e.g. {@link #FILENAME} in the cache directory
+	 */
+	public TimingHistory(File file) {
+		this.file     = file;
+		this.previous = new HashMap<>();
+		this.current  = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Loads the history of previous runs (if it exists).
+	 * <p>Invalid entries are ignored.</p>
+	 * @throws IOException when the history cannot be read
+	 */
+	public void load() throws IOException {
+		previous.clear();
+		current.clear();
+		if (file.isFile()) {
+			Properties p = new Properties();
+			try (InputStream in = new FileInputStream(file)) {
+				p.load(in);
+			}
+			for (String key : p.stringPropertyNames()) {
+				try {
+					previous.put(key, Long.valueOf(p.getProperty(key)));
+				} catch (NumberFormatException e) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the history including the times of this run.
+	 * <p>The file is replaced atomically, so concurrent runs never read a partial history.</p>
+	 * @throws IOException when the history cannot be written
+	 */
+	public void save() throws IOException {
+		Properties p = new Properties();
+		for (Map.Entry<String,Long> entry : previous.entrySet()) p.setProperty(entry.getKey(), entry.getValue().toString());
+		for (Map.Entry<String,Long> entry : current.entrySet()) p.setProperty(entry.getKey(), entry.getValue().toString());
+		FileUtils.forceMkdirParent(file);
+		File tmpFile = File.createTempFile(file.getName()+".", ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (OutputStream out = new FileOutputStream(tmpFile)) {
+				p.store(out, "template-machine render times (ns)");
+			}
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
+	}
+
+	/**
+	 * Returns the key of a file.
+	 * @param templatePath - the path of the template relative to the source root, using {@code /} as separator
+	 * @param language     - the language
+	 * @return the key
+	 */
+	public static String getKey(String templatePath, String language) {
+		return templatePath+"|"+language;
+	}
+
+	/**
+	 * Returns the time of previous runs.
+	 * @param key - the key of the file
+	 * @return the time in nanoseconds or {@code null} when the file was not rendered before
+	 */
+	public Long get(String key) {
+		return previous.get(key);
+	}
+
+	/**
+	 * Records the time of this run.
+	 * @param key   - the key of the file
+	 * @param nanos - the time in nanoseconds
+	 */
+	public void record(String key, long nanos) {
+		Long last = previous.get(key);
+		current.put(key, last != null ? (last + nanos) / 2 : nanos);
+	}
+
+	/**
+	 * Returns the history file.
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,117 @@
+package templating.util;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A data model that records which keys a template reads.
+ * <p>The values found (including {@code null} for missing keys) are remembered, so a
+ * different data model can be checked for producing the same output. Any access to all keys
+ * (iteration, size) marks the model as fully read.</p>
+ * <p>A tracking data model is used by a single render job and is not thread-safe.</p>
+ * @author ralph
+ *
+ */
+public class TrackingDataModel extends AbstractMap<String,String> {
+
+	private Map<String,String> values;
+	private Map<String,String> reads;
+	private boolean            fullyRead;
+
+	/**
+	 * Constructor.
+	 * @param values - the values to be tracked
+	 */
+	public TrackingDataModel(Map<String,String> values) {
+		this.values    = values;
+		this.reads     = new HashMap<>();
+		this.fullyRead = false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String get(Object key) {
+		String rc = values.get(key);
+		if (key instanceof String) reads.put((String)key, rc);
+		return rc;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<Entry<String,String>> entrySet() {
+		fullyRead = true;
+		return Collections.unmodifiableMap(values).entrySet();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<String> keySet() {
+		fullyRead = true;
+		return Collections.unmodifiableSet(values.keySet());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		fullyRead = true;
+		return values.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isEmpty() {
+		fullyRead = true;
+		return values.isEmpty();
+	}
+
+	/**
+	 * Returns the keys read and their values.
+	 * @return the values read, {@code null} for keys that did not exist
+	 */
+	public Map<String,String> getReads() {
+		return Collections.unmodifiableMap(reads);
+	}
+
+	/**
+	 * Returns whether all values were accessed, e.g. by iterating the keys.
+	 * @return {@code true} when the model cannot be compared by single keys
+	 */
+	public boolean isFullyRead() {
+		return fullyRead;
+	}
+
+	/**
+	 * Returns whether the given values are the same for all keys read.
+	 * @param other - the other values
+	 * @return {@code true} when a template would read the same values from the other model
+	 */
+	public boolean matches(Map<String,String> other) {
+		if (fullyRead) return false;
+		for (Map.Entry<String,String> entry : reads.entrySet()) {
+			if (!Objects.equals(entry.getValue(), other.get(entry.getKey()))) return false;
+		}
+		return true;
+	}
+}
@@ -120,4 +120,18 @@ public class UnicodeInputStream extends InputStream {
 		isInited = true;
 		return internalIn.read();
 	}
+
+	public int read(byte b[], int off, int len) throws IOException {
+		isInited = true;
+		return internalIn.read(b, off, len);
+	}
+
+	public long skip(long n) throws IOException {
+		isInited = true;
+		return internalIn.skip(n);
+	}
+
+	public int available() throws IOException {
+		return internalIn.available();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static templating.util.TestFixtures.createContext;
+import static templating.util.TestFixtures.readDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.ArchiveSink;
+import templating.util.DirFinder;
+
+/**
+ * Tests streaming the generated files into archives.
+ * @author ralph
+ *
+ */
+public class ArchiveSinkTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testZip(@TempDir File tempDir) throws IOException {
+		File archive = new File(tempDir, "output.zip");
+		generate(tempDir, archive);
+		try (InputStream in = Files.newInputStream(archive.toPath())) {
+			assertThat(read(new ZipArchiveInputStream(in))).isEqualTo(generateDir(new File(tempDir, "output")));
+		}
+		assertThat(new File(tempDir, "output")).doesNotExist();
+	}
+
+	@Test
+	public void testTarGz(@TempDir File tempDir) throws IOException {
+		File archive = new File(tempDir, "output.tar.gz");
+		generate(tempDir, archive);
+		try (InputStream in = Files.newInputStream(archive.toPath())) {
+			assertThat(read(new TarArchiveInputStream(new GzipCompressorInputStream(in)))).isEqualTo(generateDir(new File(tempDir, "output")));
+		}
+		assertThat(tempDir.list()).containsExactly("output.tar.gz");
+	}
+
+	@Test
+	public void testFailedRun(@TempDir File tempDir) throws IOException {
+		File archive = new File(tempDir, "output.zip");
+		FileUtils.writeStringToFile(archive, "previous archive", ENCODING);
+		File sourceDir = new File(tempDir, "source");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+		FileUtils.writeStringToFile(new File(sourceDir, "dir-2/failing.txt"), "${undefinedValue}", ENCODING);
+		File configFile = new File(sourceDir, "template-machine.properties");
+		Context rootContext = new Context(sourceDir, new File(tempDir, "output"), sourceDir, TemplateMachine.load(configFile));
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.ignoreFile(configFile);
+		TemplateMachine machine = new TemplateMachine(rootContext);
+		machine.setOutputSink(new ArchiveSink(archive, rootContext.getOutputRoot()));
+		assertThrows(TemplatingException.class, () -> machine.generate());
+
+		// The previous archive is left untouched and no temporary file remains
+		assertThat(archive).hasContent("previous archive");
+		assertThat(tempDir.list()).containsExactlyInAnyOrder("output.zip", "source");
+	}
+
+	protected static void generate(File tempDir, File archive) throws IOException {
+		Context rootContext = createContext(TEMPLATE_DIR, new File(tempDir, "output"));
+		TemplateMachine machine = new TemplateMachine(rootContext);
+		machine.setParallel(true);
+		machine.setRenderThreads(4);
+		machine.setOutputSink(new ArchiveSink(archive, rootContext.getOutputRoot()));
+		machine.generate();
+	}
+
+	/** Reads all file entries of an archive */
+	protected static Map<String,String> read(ArchiveInputStream<? extends ArchiveEntry> in) throws IOException {
+		Map<String,String> rc = new TreeMap<>();
+		ArchiveEntry entry;
+		while ((entry = in.getNextEntry()) != null) {
+			if (!entry.isDirectory()) rc.put(entry.getName(), new String(in.readAllBytes(), ENCODING));
+		}
+		return rc;
+	}
+
+	/** Generates into a directory and reads all files */
+	protected static Map<String,String> generateDir(File outputDir) throws IOException {
+		File dir = new File(outputDir.getParentFile(), "dir");
+		new TemplateMachine(createContext(TEMPLATE_DIR, dir)).generate();
+		Map<String,String> rc = readDir(dir);
+		FileUtils.deleteDirectory(dir);
+		assertThat(rc).hasSize(12);
+		return rc;
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static templating.util.TestFixtures.readDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.DirFinder;
+import templating.util.TestFixtures;
+
+/**
+ * Stress test for using contexts and generators from many threads at the same time.
+ * @author ralph
+ *
+ */
+public class ConcurrencyTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	protected static final String DIRS[]      = { "dir-1/dir-11", "dir-1/dir-12", "dir-2/dir-21", "dir-2/dir-22" };
+	protected static final String LANGUAGES[] = { "de", "en", "es" };
+	protected static final String FILES[]     = { "testfile.txt", "stamp.txt" };
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testStress(@TempDir File tempDir) throws Exception {
+		// Source tree with a template reading the run values and the template path of each job
+		File sourceDir = new File(tempDir, "source");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+		for (String dir : DIRS) {
+			FileUtils.writeStringToFile(new File(sourceDir, dir+"/stamp.txt"), "${languageKey} ${runDate} ${runTime} ${templateRelPath} ${value1}\n", ENCODING);
+		}
+		Date generationTime = new Date();
+
+		// Reference output generated sequentially
+		File referenceDir = new File(tempDir, "reference");
+		new TemplateMachine(createContext(sourceDir, referenceDir, generationTime)).generate();
+		Map<String,String> reference = readDir(referenceDir);
+		assertThat(reference).hasSize(24);
+
+		// Shared machine for rendering
+		TemplateMachine shared = new TemplateMachine(createContext(sourceDir, new File(tempDir, "unused"), generationTime));
+		shared.setRetainContexts(true);
+
+		int threads = 16;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> results = new ArrayList<>();
+		try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+			for (int t=0; t<threads; t++) {
+				int thread = t;
+				results.add(executor.submit(() -> {
+					start.await();
+					if (thread % 4 == 0) {
+						// Complete parallel generation into an own directory
+						File targetDir = new File(tempDir, "target-"+thread);
+						TemplateMachine machine = new TemplateMachine(createContext(sourceDir, targetDir, generationTime));
+						machine.setParallel(true);
+						machine.setRenderThreads(4);
+						machine.generate();
+						assertThat(readDir(targetDir)).isEqualTo(reference);
+						return 24;
+					}
+					// Random templates from the shared machine
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int i=0; i<200; i++) {
+						String path     = DIRS[random.nextInt(DIRS.length)]+"/"+FILES[random.nextInt(FILES.length)];
+						String language = LANGUAGES[random.nextInt(LANGUAGES.length)];
+						if ((thread == 1) && (i % 50 == 49)) shared.invalidate(sourceDir.toPath().resolve(path).getParent());
+						StringWriter writer = new StringWriter();
+						assertThat(shared.render(path, language, writer)).isTrue();
+						String outPath = FilenameUtils.getPath(path)+language+"/"+FilenameUtils.getName(path);
+						assertThat(writer.toString()).as(outPath).isEqualTo(reference.get(outPath));
+					}
+					return 200;
+				}));
+			}
+			start.countDown();
+		}
+		int total = 0;
+		for (Future<Integer> result : results) total += result.get();
+		assertThat(total).isEqualTo(4*24+12*200);
+	}
+
+	protected static Context createContext(File sourceDir, File targetDir, Date generationTime) throws IOException {
+		Context rc = TestFixtures.createContext(sourceDir, targetDir);
+		rc.setGenerationTime(generationTime);
+		return rc;
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static templating.util.TestFixtures.createContext;
+import static templating.util.TestFixtures.readDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.ContextCache;
+import templating.util.DirFinder;
+
+/**
+ * Tests the context cache that is kept between runs.
+ * @author ralph
+ *
+ */
+public class ContextCacheTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testWarmRun(@TempDir File tempDir) throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		File cacheDir  = new File(tempDir, "cache");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+		File referenceDir = new File(tempDir, "reference");
+		new TemplateMachine(createContext(sourceDir, referenceDir)).generate();
+
+		// Cold run fills the cache
+		ContextCache cold = generate(sourceDir, new File(tempDir, "cold"), cacheDir);
+		assertThat(new File(cacheDir, ContextCache.FILENAME)).isFile();
+		assertThat(cold.getMisses()).isGreaterThan(0);
+		assertThat(readDir(new File(tempDir, "cold"))).isEqualTo(readDir(referenceDir));
+
+		// Warm run takes unchanged files from the cache
+		ContextCache warm = generate(sourceDir, new File(tempDir, "warm"), cacheDir);
+		assertThat(warm.getHits()).isGreaterThan(cold.getHits());
+		assertThat(warm.getMisses()).isLessThan(cold.getMisses());
+		assertThat(readDir(new File(tempDir, "warm"))).isEqualTo(readDir(referenceDir));
+
+		// Changed files are read again
+		File lFile = new File(sourceDir, "dir-1/dir-11/__localization/de.properties");
+		FileUtils.writeStringToFile(lFile, "value1=changed\n", ENCODING);
+		lFile.setLastModified(lFile.lastModified()+5000);
+		ContextCache changed = generate(sourceDir, new File(tempDir, "changed"), cacheDir);
+		assertThat(changed.getMisses()).isEqualTo(warm.getMisses()+1);
+		assertThat(FileUtils.readFileToString(new File(tempDir, "changed/dir-1/dir-11/de/testfile.txt"), ENCODING)).contains("actual: changed");
+		assertThat(FileUtils.readFileToString(new File(tempDir, "changed/dir-1/dir-12/de/testfile.txt"), ENCODING))
+			.isEqualTo(FileUtils.readFileToString(new File(referenceDir, "dir-1/dir-12/de/testfile.txt"), ENCODING));
+	}
+
+	@Test
+	public void testCacheFile(@TempDir File tempDir) throws IOException {
+		File file = new File(tempDir, "test.properties");
+		FileUtils.writeStringToFile(file, "a=b\n", ENCODING);
+		BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		ContextCache cache = new ContextCache(tempDir);
+		cache.putProperties(file.toPath(), attrs, ENCODING, Map.of("a", "b", "c", "äöü"));
+		cache.putText(new File(tempDir, "template.ftl").toPath(), attrs, ENCODING, "<#macro x>€</#macro>");
+		cache.save();
+
+		cache = new ContextCache(tempDir);
+		cache.load();
+		assertThat(cache.getProperties(file.toPath(), attrs, ENCODING)).containsEntry("a", "b").containsEntry("c", "äöü").hasSize(2);
+		assertThat(cache.getProperties(file.toPath(), attrs, Charset.forName("ISO-8859-1"))).isNull();
+		assertThat(cache.getText(file.toPath(), attrs, ENCODING)).isNull();
+		// The template file does not exist and is dropped with the next save
+		assertThat(cache.getText(new File(tempDir, "template.ftl").toPath(), attrs, ENCODING)).isEqualTo("<#macro x>€</#macro>");
+
+		// Corrupt files are ignored
+		FileUtils.writeStringToFile(new File(tempDir, ContextCache.FILENAME), "garbage", ENCODING);
+		cache = new ContextCache(tempDir);
+		cache.load();
+		assertThat(cache.getProperties(file.toPath(), attrs, ENCODING)).isNull();
+	}
+
+	@Test
+	public void testConcurrentSave(@TempDir File tempDir) throws Exception {
+		File file = new File(tempDir, "test.properties");
+		FileUtils.writeStringToFile(file, "a=b\n", ENCODING);
+		BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		File cacheDir = new File(tempDir, "cache");
+		ContextCache cache = new ContextCache(cacheDir);
+		cache.putProperties(file.toPath(), attrs, ENCODING, Map.of("a", "b"));
+		cache.save();
+
+		// Processes sharing the cache directory, each replacing the cache it has loaded
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Map<String,String>>> results = new ArrayList<>();
+			for (int i=0; i<20; i++) {
+				results.add(executor.submit(() -> {
+					ContextCache shared = new ContextCache(cacheDir);
+					shared.load();
+					shared.save();
+					// Still usable after its file was replaced
+					return shared.getProperties(file.toPath(), attrs, ENCODING);
+				}));
+			}
+			for (Future<Map<String,String>> result : results) assertThat(result.get()).containsEntry("a", "b");
+		} finally {
+			executor.shutdown();
+		}
+		assertThat(cacheDir.list()).containsExactly(ContextCache.FILENAME);
+		cache = new ContextCache(cacheDir);
+		cache.load();
+		assertThat(cache.getProperties(file.toPath(), attrs, ENCODING)).containsEntry("a", "b");
+	}
+
+	@Test
+	public void testZipSource(@TempDir File tempDir) throws IOException {
+		Path zipFile = new File(tempDir, "templates.zip").toPath();
+		try (FileSystem zip = FileSystems.newFileSystem(zipFile, Map.of("create", "true"))) {
+			SourceFileSystemTest.copy(TEMPLATE_DIR.toPath(), zip.getPath("/"));
+		}
+		File cacheDir = new File(tempDir, "cache");
+		try (FileSystem zip = FileSystems.newFileSystem(zipFile)) {
+			Path sourceDir = zip.getPath("/");
+			generate(sourceDir, sourceDir, new File(tempDir, "cold"), cacheDir);
+			ContextCache warm = generate(sourceDir, sourceDir, new File(tempDir, "warm"), cacheDir);
+
+			// A sub directory run keeps the entries of the other directories
+			generate(sourceDir, sourceDir.resolve("dir-1/dir-11"), new File(tempDir, "sub"), cacheDir);
+			ContextCache full = generate(sourceDir, sourceDir, new File(tempDir, "full"), cacheDir);
+			assertThat(full.getHits()).isEqualTo(warm.getHits());
+			assertThat(full.getMisses()).isEqualTo(warm.getMisses());
+		}
+	}
+
+	/** Generates with a context cache and returns the cache used */
+	protected static ContextCache generate(File sourceDir, File targetDir, File cacheDir) throws IOException {
+		ContextCache rc[] = new ContextCache[1];
+		TemplateMachine machine = new TemplateMachine(createContext(sourceDir, targetDir)) {
+			@Override
+			protected void saveCache() {
+				rc[0] = rootContext.getCache();
+				super.saveCache();
+			}
+		};
+		machine.setCacheDir(cacheDir);
+		machine.generate();
+		return rc[0];
+	}
+
+	/** Generates a sub directory of any file system with a context cache and returns the cache used */
+	protected static ContextCache generate(Path sourceDir, Path subDir, File targetDir, File cacheDir) throws IOException {
+		Path configFile = sourceDir.resolve("template-machine.properties");
+		Context context = new Context(sourceDir, targetDir, subDir, TemplateMachine.load(configFile));
+		context.setReadEncoding(ENCODING);
+		context.setWriteEncoding(ENCODING);
+		context.ignoreFile(configFile);
+		ContextCache rc[] = new ContextCache[1];
+		TemplateMachine machine = new TemplateMachine(context) {
+			@Override
+			protected void saveCache() {
+				rc[0] = rootContext.getCache();
+				super.saveCache();
+			}
+		};
+		machine.setCacheDir(cacheDir);
+		machine.generate();
+		return rc[0];
+	}
+}
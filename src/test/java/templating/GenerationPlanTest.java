@@ -0,0 +1,165 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static templating.util.TestFixtures.createContext;
+import static templating.util.TestFixtures.readDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.DirFinder;
+import templating.util.GenerationInfo;
+import templating.util.Shard;
+import templating.util.TimingHistory;
+
+/**
+ * Tests the planned parallel generation.
+ * @author ralph
+ *
+ */
+public class GenerationPlanTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testPlannedRun(@TempDir File tempDir) throws IOException {
+		File sourceDir = createSkewedTree(tempDir);
+		File referenceDir = new File(tempDir, "reference");
+		GenerationInfo reference = new TemplateMachine(createContext(sourceDir, referenceDir)).generate();
+
+		File targetDir = new File(tempDir, "planned");
+		File cacheDir  = new File(tempDir, "cache");
+		TemplateMachine machine = createMachine(sourceDir, targetDir);
+		machine.setCacheDir(cacheDir);
+		GenerationInfo info = machine.generate();
+		assertThat(info.getFiles()).isEqualTo(reference.getFiles());
+		assertThat(readDir(targetDir)).isEqualTo(readDir(referenceDir));
+		assertThat(new File(cacheDir, TimingHistory.FILENAME)).isFile();
+		assertThat(new File(targetDir, TimingHistory.FILENAME)).doesNotExist();
+
+		// Second run uses the history
+		TimingHistory history = new TimingHistory(new File(cacheDir, TimingHistory.FILENAME));
+		history.load();
+		assertThat(history.get(TimingHistory.getKey("dir-1/dir-11/testfile-0.txt", "de"))).isNotNull();
+		machine = createMachine(sourceDir, targetDir);
+		machine.setCacheDir(cacheDir);
+		info = machine.generate();
+		assertThat(info.getFiles()).isEqualTo(reference.getFiles());
+		assertThat(readDir(targetDir)).isEqualTo(readDir(referenceDir));
+	}
+
+	@Test
+	public void testNoHistory(@TempDir File tempDir) throws IOException {
+		File targetDir = new File(tempDir, "planned");
+		createMachine(createSkewedTree(tempDir), targetDir).generate();
+		assertThat(new File(targetDir, TimingHistory.FILENAME)).doesNotExist();
+	}
+
+	@Test
+	public void testIncrementalRun(@TempDir File tempDir) throws IOException {
+		File sourceDir = createSkewedTree(tempDir);
+		File targetDir = new File(tempDir, "planned");
+		File historyFile = new File(targetDir, TimingHistory.FILENAME);
+		TemplateMachine machine = createMachine(sourceDir, targetDir);
+		machine.setIncremental(true);
+		machine.generate();
+		assertThat(historyFile).isFile();
+		String key = TimingHistory.getKey("dir-1/dir-11/testfile-0.txt", "de");
+		TimingHistory history = new TimingHistory(historyFile);
+		history.load();
+		Long before = history.get(key);
+		assertThat(before).isNotNull();
+
+		// Unchanged files are not rendered again and keep their times
+		machine = createMachine(sourceDir, targetDir);
+		machine.setIncremental(true);
+		machine.generate();
+		history = new TimingHistory(historyFile);
+		history.load();
+		assertThat(history.get(key)).isEqualTo(before);
+	}
+
+	@Test
+	public void testShard(@TempDir File tempDir) throws IOException {
+		File cacheDir = new File(tempDir, "cache");
+		Shard shard = new Shard(1, 2);
+		TemplateMachine machine = createMachine(createSkewedTree(tempDir), new File(tempDir, "planned"));
+		machine.setCacheDir(cacheDir);
+		machine.setShard(shard);
+		machine.generate();
+		assertThat(shard.getTimingsFile(cacheDir)).isFile();
+		assertThat(new File(cacheDir, TimingHistory.FILENAME)).doesNotExist();
+	}
+
+	@Test
+	public void testSameError(@TempDir File tempDir) throws IOException {
+		File sourceDir = createSkewedTree(tempDir);
+		File failing1  = new File(sourceDir, "dir-1/dir-11/failing.txt");
+		File failing2  = new File(sourceDir, "dir-2/dir-22/failing.txt");
+		FileUtils.writeStringToFile(failing1, "${undefinedValue}", ENCODING);
+		FileUtils.writeStringToFile(failing2, "${undefinedValue}", ENCODING);
+		TemplatingException sequential = assertThrows(TemplatingException.class, () -> new TemplateMachine(createContext(sourceDir, new File(tempDir, "sequential"))).generate());
+
+		// The failing file after the first error is rendered first
+		File later = sequential.getMessage().contains("dir-11") ? failing2 : failing1;
+		FileUtils.writeStringToFile(later, "<#-- "+"x".repeat(10000)+" -->", ENCODING, true);
+		TemplateMachine machine = createMachine(sourceDir, new File(tempDir, "planned"));
+		machine.setParallelism(1);
+		TemplatingException planned = assertThrows(TemplatingException.class, () -> machine.generate());
+		assertThat(planned.getMessage()).isEqualTo(sequential.getMessage());
+	}
+
+	@Test
+	public void testSchedule(@TempDir File tempDir) throws IOException {
+		File sourceDir = createSkewedTree(tempDir);
+		FileUtils.writeStringToFile(new File(sourceDir, "dir-2/dir-22/large.txt"), "${value1}\n".repeat(1000), ENCODING);
+		TemplateMachine machine = createMachine(sourceDir, new File(tempDir, "planned"));
+		GenerationPlan plan = new GenerationPlan(machine, null);
+		plan.add(machine.getRootContext());
+
+		List<RenderJob> schedule = plan.getSchedule();
+		assertThat(schedule).hasSize(plan.size());
+		// 3 languages for 10 files in dir-11 and 1 file in dir-12, dir-21 and dir-22 plus the large file
+		assertThat(plan.size()).isEqualTo(3*14);
+		assertThat(schedule.get(0).getTemplateFile().getFileName().toString()).isEqualTo("large.txt");
+	}
+
+	/** Copies the test tree with many files in a single directory */
+	protected static File createSkewedTree(File tempDir) throws IOException {
+		File rc = new File(tempDir, "source");
+		FileUtils.copyDirectory(TEMPLATE_DIR, rc);
+		File template = new File(rc, "dir-1/dir-11/testfile.txt");
+		for (int i=0; i<9; i++) {
+			FileUtils.copyFile(template, new File(rc, "dir-1/dir-11/testfile-"+i+".txt"));
+		}
+		return rc;
+	}
+
+	protected static TemplateMachine createMachine(File sourceDir, File targetDir) throws IOException {
+		TemplateMachine rc = new TemplateMachine(createContext(sourceDir, targetDir));
+		rc.setParallel(true);
+		rc.setParallelism(4);
+		rc.setPlanned(true);
+		return rc;
+	}
+}
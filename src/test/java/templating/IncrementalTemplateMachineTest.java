@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.BuildManifest;
+import templating.util.DirFinder;
+import templating.util.GenerationInfo;
+
+/**
+ * Tests the incremental generation.
+ * @author ralph
+ *
+ */
+public class IncrementalTemplateMachineTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@TempDir
+	protected File tempDir;
+	protected File sourceDir;
+	protected File targetDir;
+
+	@BeforeEach
+	public void copySource() throws IOException {
+		sourceDir = new File(tempDir, "source");
+		targetDir = new File(tempDir, "target");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+	}
+
+	@Test
+	public void testUnchanged() throws IOException {
+		GenerationInfo first  = generate();
+		assertThat(first.getFiles()).isEqualTo(12);
+		assertThat(first.getSkippedFiles()).isEqualTo(0);
+		assertThat(new File(targetDir, BuildManifest.FILENAME)).isFile();
+
+		GenerationInfo second = generate();
+		assertThat(second.getFiles()).isEqualTo(12);
+		assertThat(second.getSkippedFiles()).isEqualTo(12);
+	}
+
+	@Test
+	public void testLocalizationChanged() throws IOException {
+		generate();
+		FileUtils.writeStringToFile(new File(sourceDir, "dir-1/dir-11/__localization/de.properties"), "\nvalue1 = changed", ENCODING, true);
+		GenerationInfo info = generate();
+		// dir-1/dir-11 generates de, en (mapped to de) and es
+		assertThat(info.getSkippedFiles()).isEqualTo(10);
+		assertThat(FileUtils.readFileToString(new File(targetDir, "dir-1/dir-11/de/testfile.txt"), ENCODING)).contains("changed");
+		assertThat(FileUtils.readFileToString(new File(targetDir, "dir-1/dir-11/en/testfile.txt"), ENCODING)).contains("changed");
+	}
+
+	@Test
+	public void testMacroChanged() throws IOException {
+		generate();
+		FileUtils.writeStringToFile(new File(sourceDir, "dir-1/dir-11/__templates/sub/template.ftl"), "\n<#-- changed -->", ENCODING, true);
+		GenerationInfo info = generate();
+		assertThat(info.getSkippedFiles()).isEqualTo(9);
+	}
+
+	@Test
+	public void testTemplateRemoved() throws IOException {
+		generate();
+		assertThat(new File(targetDir, "dir-2/dir-22/de/testfile.txt")).isFile();
+		FileUtils.delete(new File(sourceDir, "dir-2/dir-22/testfile.txt"));
+		GenerationInfo info = generate();
+		assertThat(info.getFiles()).isEqualTo(9);
+		assertThat(info.getSkippedFiles()).isEqualTo(9);
+		assertThat(new File(targetDir, "dir-2/dir-22/de/testfile.txt")).doesNotExist();
+	}
+
+	@Test
+	public void testOutputRemoved() throws IOException {
+		generate();
+		FileUtils.delete(new File(targetDir, "dir-1/dir-12/es/testfile.txt"));
+		GenerationInfo info = generate();
+		assertThat(info.getSkippedFiles()).isEqualTo(11);
+		assertThat(new File(targetDir, "dir-1/dir-12/es/testfile.txt")).isFile();
+	}
+
+	protected GenerationInfo generate() throws IOException {
+		File configFile = new File(sourceDir, "template-machine.properties");
+		Context rootContext = new Context(sourceDir, targetDir, sourceDir, TemplateMachine.load(configFile));
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.ignoreFile(configFile);
+		TemplateMachine machine = new TemplateMachine(rootContext);
+		machine.setIncremental(true);
+		return machine.generate();
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.DirFinder;
+import templating.util.FileMetrics;
+import templating.util.MetricsCollector;
+
+/**
+ * Tests the metrics collection.
+ * @author ralph
+ *
+ */
+public class MetricsTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testMetrics(@TempDir File targetDir) throws IOException {
+		MetricsCollector metrics = new MetricsCollector();
+		createMachine(targetDir, metrics, false).generate();
+
+		assertThat(metrics.getFiles()).hasSize(12);
+		assertThat(metrics.getSlowestFiles(5)).hasSize(5);
+		long bytes = 0;
+		for (FileMetrics file : metrics.getFiles()) {
+			assertThat(file.isSkipped()).isFalse();
+			assertThat(file.getRenderNanos()).isPositive();
+			assertThat(file.getBytes()).isEqualTo(file.getOutFile().length());
+			bytes += file.getBytes();
+		}
+		assertThat(metrics.getBytesWritten()).isEqualTo(bytes);
+
+		File report = new File(targetDir, "metrics.json");
+		metrics.writeReport(report);
+		String json = FileUtils.readFileToString(report, ENCODING);
+		assertThat(json)
+			.contains("\"files\": 12,")
+			.contains("\"bytesWritten\": "+bytes+",")
+			.contains("\"languages\": [\"de\", \"en\", \"es\"]")
+			.contains("{\"path\": \"dir-1/dir-11\", \"contextLoadMillis\": ")
+			.contains("{\"template\": \"dir-1/dir-11/testfile.txt\", \"language\": \"de\", \"output\": \"dir-1/dir-11/de/testfile.txt\", \"skipped\": false,");
+	}
+
+	@Test
+	public void testSkipped(@TempDir File targetDir) throws IOException {
+		createMachine(targetDir, null, true).generate();
+		MetricsCollector metrics = new MetricsCollector();
+		createMachine(targetDir, metrics, true).generate();
+		assertThat(metrics.getFiles()).hasSize(12).allMatch(FileMetrics::isSkipped);
+		assertThat(metrics.getSlowestFiles(5)).isEmpty();
+		assertThat(metrics.getBytesWritten()).isZero();
+		assertThat(metrics.toJson()).contains("\"skippedFiles\": 12,");
+	}
+
+	@Test
+	public void testReused(@TempDir File targetDir) throws IOException {
+		MetricsCollector metrics = new MetricsCollector();
+		TemplateMachine reusing = createMachine(targetDir, metrics, false);
+		reusing.setReuseRenders(true);
+		reusing.generate();
+
+		// English uses the German values, Spanish has its own
+		assertThat(metrics.getReusedFiles()).isEqualTo(4);
+		for (FileMetrics file : metrics.getFiles()) {
+			assertThat(file.isReused()).isEqualTo(file.getLanguage().equals("en"));
+		}
+		assertThat(metrics.toJson()).contains("\"reusedFiles\": 4,");
+
+		// Output is the same as when rendering each language
+		File rendered = new File(targetDir, "rendered");
+		createMachine(rendered, null, false).generate();
+		for (String path : new String[] { "dir-1/dir-11", "dir-1/dir-12", "dir-2/dir-21", "dir-2/dir-22" }) {
+			for (String language : new String[] { "de", "en", "es" }) {
+				String name = path+"/"+language+"/testfile.txt";
+				assertThat(new File(targetDir, "output/"+name)).hasSameTextualContentAs(new File(rendered, "output/"+name));
+			}
+		}
+	}
+
+	protected static TemplateMachine createMachine(File targetDir, MetricsCollector metrics, boolean incremental) throws IOException {
+		File configFile = new File(TEMPLATE_DIR, "template-machine.properties");
+		Context rootContext = new Context(TEMPLATE_DIR, new File(targetDir, "output"), TEMPLATE_DIR, TemplateMachine.load(configFile));
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.ignoreFile(configFile);
+		TemplateMachine machine = new TemplateMachine(rootContext);
+		machine.setIncremental(incremental);
+		machine.setListener(metrics);
+		return machine;
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.FileSink;
+
+/**
+ * Tests writing the generated files.
+ * @author ralph
+ *
+ */
+public class OutputSinkTest {
+
+	@Test
+	public void testWriteEncoding(@TempDir File tempDir) throws IOException {
+		File sourceDir = createSource(tempDir);
+		File targetDir = new File(tempDir, "target");
+		createMachine(sourceDir, targetDir, StandardCharsets.ISO_8859_1, false).generate();
+		File outFile = new File(targetDir, "file.txt");
+		assertThat(FileUtils.readFileToByteArray(outFile)).isEqualTo("Grüße".getBytes(StandardCharsets.ISO_8859_1));
+		assertThat(targetDir.list()).containsExactly("file.txt");
+	}
+
+	@Test
+	public void testSkipUnchanged(@TempDir File tempDir) throws IOException {
+		File sourceDir = createSource(tempDir);
+		File targetDir = new File(tempDir, "target");
+		File outFile   = new File(targetDir, "file.txt");
+		createMachine(sourceDir, targetDir, StandardCharsets.UTF_8, true).generate();
+		long lastModified = outFile.lastModified() - 60000;
+		assertThat(outFile.setLastModified(lastModified)).isTrue();
+
+		// Unchanged content is not written
+		createMachine(sourceDir, targetDir, StandardCharsets.UTF_8, true).generate();
+		assertThat(outFile.lastModified()).isEqualTo(lastModified);
+
+		// Changed content is written
+		FileUtils.writeStringToFile(new File(sourceDir, "file.txt"), "changed", StandardCharsets.UTF_8);
+		createMachine(sourceDir, targetDir, StandardCharsets.UTF_8, true).generate();
+		assertThat(outFile.lastModified()).isGreaterThan(lastModified);
+		assertThat(FileUtils.readFileToString(outFile, StandardCharsets.UTF_8)).isEqualTo("changed");
+		assertThat(targetDir.list()).containsExactly("file.txt");
+	}
+
+	@Test
+	public void testDeduplicate(@TempDir File tempDir) throws IOException {
+		File sourceDir = createSource(tempDir);
+		File targetDir = new File(tempDir, "target");
+		FileUtils.writeStringToFile(new File(sourceDir, "copy.txt"),  "Grüße", StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(new File(sourceDir, "other.txt"), "other", StandardCharsets.UTF_8);
+		TemplateMachine machine = createMachine(sourceDir, targetDir, StandardCharsets.UTF_8, false);
+		FileSink sink = (FileSink)machine.getOutputSink();
+		sink.setDeduplicate(true);
+		machine.generate();
+
+		// Identical files are linked
+		Path file  = new File(targetDir, "file.txt").toPath();
+		Path copy  = new File(targetDir, "copy.txt").toPath();
+		Path other = new File(targetDir, "other.txt").toPath();
+		assertThat(Files.isSameFile(file, copy)).isTrue();
+		assertThat(Files.isSameFile(file, other)).isFalse();
+		assertThat(Files.readString(copy)).isEqualTo("Grüße");
+		assertThat(sink.getLinkedFiles()).isEqualTo(1);
+		assertThat(sink.getLinkedBytes()).isEqualTo("Grüße".getBytes(StandardCharsets.UTF_8).length);
+
+		// Changing one file does not change the other
+		FileUtils.writeStringToFile(new File(sourceDir, "copy.txt"), "changed", StandardCharsets.UTF_8);
+		machine.generate();
+		assertThat(Files.readString(file)).isEqualTo("Grüße");
+		assertThat(Files.readString(copy)).isEqualTo("changed");
+		assertThat(sink.getLinkedFiles()).isEqualTo(0);
+	}
+
+	@Test
+	public void testPermissions(@TempDir File tempDir) throws IOException {
+		Assumptions.assumeTrue(tempDir.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+		File sourceDir = createSource(tempDir);
+		File targetDir = new File(tempDir, "target");
+		createMachine(sourceDir, targetDir, StandardCharsets.UTF_8, false).generate();
+
+		// Generated files have the same permissions as a plainly created file
+		Path outFile   = new File(targetDir, "file.txt").toPath();
+		Path plainFile = Files.writeString(new File(targetDir, "plain.txt").toPath(), "plain");
+		assertThat(Files.getPosixFilePermissions(outFile)).isEqualTo(Files.getPosixFilePermissions(plainFile));
+
+		// Replaced files keep their permissions
+		Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+		Files.setPosixFilePermissions(outFile, permissions);
+		FileUtils.writeStringToFile(new File(sourceDir, "file.txt"), "changed", StandardCharsets.UTF_8);
+		createMachine(sourceDir, targetDir, StandardCharsets.UTF_8, false).generate();
+		assertThat(Files.readString(outFile)).isEqualTo("changed");
+		assertThat(Files.getPosixFilePermissions(outFile)).isEqualTo(permissions);
+	}
+
+	protected static File createSource(File tempDir) throws IOException {
+		File rc = new File(tempDir, "source");
+		FileUtils.writeStringToFile(new File(rc, "file.txt"), "Grüße", StandardCharsets.UTF_8);
+		return rc;
+	}
+
+	protected static TemplateMachine createMachine(File sourceDir, File targetDir, Charset writeEncoding, boolean skipUnchanged) {
+		Context rootContext = new Context(sourceDir, targetDir, sourceDir, new Properties());
+		rootContext.setReadEncoding(StandardCharsets.UTF_8);
+		rootContext.setWriteEncoding(writeEncoding);
+		TemplateMachine machine = new TemplateMachine(rootContext);
+		FileSink sink = new FileSink();
+		sink.setSkipUnchanged(skipUnchanged);
+		machine.setOutputSink(sink);
+		return machine;
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.DirFinder;
+import templating.util.GenerationInfo;
+
+/**
+ * Tests that parallel generation produces the same results as sequential generation.
+ * @author ralph
+ *
+ */
+public class ParallelTemplateMachineTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testSameOutput(@TempDir File targetDir) throws IOException {
+		Date generationTime = new Date();
+		File sequentialDir  = new File(targetDir, "sequential");
+		File parallelDir    = new File(targetDir, "parallel");
+		GenerationInfo sequentialInfo = createMachine(TEMPLATE_DIR, sequentialDir, generationTime, false, 0).generate();
+		GenerationInfo parallelInfo   = createMachine(TEMPLATE_DIR, parallelDir, generationTime, true, 0).generate();
+		assertSameOutput(sequentialDir, sequentialInfo, parallelDir, parallelInfo);
+	}
+
+	@Test
+	public void testSameOutputWithRenderThreads(@TempDir File targetDir) throws IOException {
+		Date generationTime = new Date();
+		File sequentialDir  = new File(targetDir, "sequential");
+		File parallelDir    = new File(targetDir, "parallel");
+		GenerationInfo sequentialInfo = createMachine(TEMPLATE_DIR, sequentialDir, generationTime, false, 0).generate();
+		GenerationInfo parallelInfo   = createMachine(TEMPLATE_DIR, parallelDir, generationTime, true, 4).generate();
+		assertSameOutput(sequentialDir, sequentialInfo, parallelDir, parallelInfo);
+	}
+
+	protected static void assertSameOutput(File sequentialDir, GenerationInfo sequentialInfo, File parallelDir, GenerationInfo parallelInfo) throws IOException {
+		assertThat(parallelInfo.getFiles()).isEqualTo(sequentialInfo.getFiles());
+		assertThat(parallelInfo.getLanguages()).isEqualTo(sequentialInfo.getLanguages());
+		Collection<File> files = FileUtils.listFiles(sequentialDir, null, true);
+		assertThat(FileUtils.listFiles(parallelDir, null, true)).hasSameSizeAs(files);
+		for (File file : files) {
+			File other = new File(parallelDir, sequentialDir.toPath().relativize(file.toPath()).toString());
+			assertThat(FileUtils.contentEquals(file, other)).withFailMessage(other+" differs").isTrue();
+		}
+	}
+
+	@Test
+	public void testSameError(@TempDir File targetDir) throws IOException {
+		File sourceDir = new File(targetDir, "source");
+		for (String dir : new String[] { "dir-1", "dir-2", "dir-3" }) {
+			FileUtils.writeStringToFile(new File(sourceDir, dir+"/ok.txt"), "ok", ENCODING);
+			FileUtils.writeStringToFile(new File(sourceDir, dir+"/sub/failing.txt"), "${undefinedValue}", ENCODING);
+		}
+		Date generationTime = new Date();
+		TemplatingException sequential = assertThrows(TemplatingException.class, () -> createMachine(sourceDir, new File(targetDir, "sequential"), generationTime, false, 0).generate());
+		TemplatingException parallel   = assertThrows(TemplatingException.class, () -> createMachine(sourceDir, new File(targetDir, "parallel"), generationTime, true, 4).generate());
+		assertThat(parallel.getMessage()).isEqualTo(sequential.getMessage());
+	}
+
+	@Test
+	public void testStopAfterError(@TempDir File targetDir) throws IOException {
+		File sourceDir = new File(targetDir, "source");
+		FileUtils.writeStringToFile(new File(sourceDir, "dir-3/failing.txt"), "${undefinedValue}", ENCODING);
+		for (String dir : new String[] { "dir-1", "dir-2", "dir-4", "dir-5", "dir-5/sub" }) {
+			FileUtils.writeStringToFile(new File(sourceDir, dir+"/ok.txt"), "ok", ENCODING);
+		}
+		Date generationTime = new Date();
+		File sequentialDir = new File(targetDir, "sequential");
+		File parallelDir   = new File(targetDir, "parallel");
+		assertThrows(TemplatingException.class, () -> createMachine(sourceDir, sequentialDir, generationTime, false, 0).generate());
+		// A single thread executes the tasks in listing order
+		TemplateMachine machine = createMachine(sourceDir, parallelDir, generationTime, true, 0);
+		machine.setParallelism(1);
+		assertThrows(TemplatingException.class, () -> machine.generate());
+		// No directory after the failing one is generated
+		for (String dir : new String[] { "dir-1", "dir-2", "dir-4", "dir-5" }) {
+			assertThat(new File(parallelDir, dir).exists()).withFailMessage(dir).isEqualTo(new File(sequentialDir, dir).exists());
+		}
+	}
+
+	protected static TemplateMachine createMachine(File sourceDir, File targetDir, Date generationTime, boolean parallel, int renderThreads) throws IOException {
+		File configFile = new File(sourceDir, "template-machine.properties");
+		Properties config = configFile.exists() ? TemplateMachine.load(configFile) : new Properties();
+		Context rootContext = new Context(sourceDir, targetDir, sourceDir, config);
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.setGenerationTime(generationTime);
+		rootContext.ignoreFile(configFile);
+		TemplateMachine machine = new TemplateMachine(rootContext);
+		machine.setParallel(parallel);
+		machine.setParallelism(4);
+		machine.setRenderThreads(renderThreads);
+		return machine;
+	}
+}
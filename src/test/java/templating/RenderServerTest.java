@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static templating.util.TestFixtures.createContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.DirFinder;
+
+/**
+ * Tests rendering single templates on request.
+ * @author ralph
+ *
+ */
+public class RenderServerTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testRender(@TempDir File tempDir) throws Exception {
+		File targetDir = new File(tempDir, "target");
+		new TemplateMachine(createContext(TEMPLATE_DIR, targetDir)).generate();
+
+		try (RenderServer server = createServer(TEMPLATE_DIR, new File(tempDir, "unused"))) {
+			HttpClient client = HttpClient.newHttpClient();
+			List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+			List<File> expected = new ArrayList<>();
+			for (String dir : new String[] { "dir-1/dir-11", "dir-1/dir-12", "dir-2/dir-21", "dir-2/dir-22" }) {
+				for (String language : new String[] { "de", "en", "es" }) {
+					responses.add(client.sendAsync(request(server, dir+"/testfile.txt?lang="+language), HttpResponse.BodyHandlers.ofString(ENCODING)));
+					expected.add(new File(targetDir, dir+"/"+language+"/testfile.txt"));
+				}
+			}
+			for (int i=0; i<responses.size(); i++) {
+				HttpResponse<String> response = responses.get(i).join();
+				assertThat(response.statusCode()).isEqualTo(200);
+				assertThat(response.body()).isEqualTo(FileUtils.readFileToString(expected.get(i), ENCODING));
+			}
+
+			assertThat(client.send(request(server, "dir-1/missing.txt"), HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+			assertThat(client.send(request(server, "dir-1/../../lang-data.txt"), HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+			assertThat(client.send(request(server, "dir-1/dir-11/testfile.txt?lang=fr"), HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(400);
+		}
+		assertThat(new File(tempDir, "unused")).doesNotExist();
+	}
+
+	@Test
+	public void testInvalidate(@TempDir File tempDir) throws Exception {
+		File sourceDir = new File(tempDir, "source");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+
+		try (RenderServer server = createServer(sourceDir, new File(tempDir, "target"))) {
+			HttpClient client = HttpClient.newHttpClient();
+			HttpRequest request = request(server, "dir-1/dir-11/testfile.txt?lang=de");
+			assertThat(client.send(request, HttpResponse.BodyHandlers.ofString(ENCODING)).body()).doesNotContain("changed");
+
+			FileUtils.writeStringToFile(new File(sourceDir, "dir-1/dir-11/__localization/de.properties"), "\nvalue1 = changed", ENCODING, true);
+			long timeout = System.currentTimeMillis() + 30000;
+			while (!client.send(request, HttpResponse.BodyHandlers.ofString(ENCODING)).body().contains("changed")) {
+				assertThat(System.currentTimeMillis()).withFailMessage("Timeout while waiting for invalidation").isLessThan(timeout);
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	protected static RenderServer createServer(File sourceDir, File targetDir) throws IOException {
+		RenderServer rc = new RenderServer(new TemplateMachine(createContext(sourceDir, targetDir)));
+		rc.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		return rc;
+	}
+
+	protected static HttpRequest request(RenderServer server, String path) {
+		return HttpRequest.newBuilder(URI.create("http://127.0.0.1:"+server.getPort()+RenderServer.RENDER_PATH+path)).build();
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.DirFinder;
+import templating.util.TestFixtures;
+
+/**
+ * Tests rendering single templates into writers and streams.
+ * @author ralph
+ *
+ */
+public class RenderTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testRender(@TempDir File tempDir) throws Exception {
+		File targetDir = new File(tempDir, "target");
+		new TemplateMachine(createContext(targetDir)).generate();
+
+		TemplateMachine machine = new TemplateMachine(createContext(new File(tempDir, "unused")));
+		machine.setRetainContexts(true);
+		List<Future<String>> results = new ArrayList<>();
+		List<File> expected = new ArrayList<>();
+		try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+			for (int i=0; i<4; i++) {
+				for (String dir : new String[] { "dir-1/dir-11", "dir-1/dir-12", "dir-2/dir-21", "dir-2/dir-22" }) {
+					for (String language : new String[] { "de", "en", "es" }) {
+						String path = dir+"/testfile.txt";
+						results.add(executor.submit(() -> {
+							if ((path.hashCode()+language.hashCode()) % 2 == 0) {
+								StringWriter writer = new StringWriter();
+								assertThat(machine.render(path, language, writer)).isTrue();
+								return writer.toString();
+							}
+							ByteArrayOutputStream out = new ByteArrayOutputStream();
+							assertThat(machine.render(path, language, out)).isTrue();
+							return out.toString(ENCODING);
+						}));
+						expected.add(new File(targetDir, dir+"/"+language+"/testfile.txt"));
+					}
+				}
+			}
+		}
+		for (int i=0; i<results.size(); i++) {
+			assertThat(results.get(i).get()).isEqualTo(FileUtils.readFileToString(expected.get(i), ENCODING));
+		}
+		assertThat(machine.getContexts()).hasSize(7);
+		assertThat(new File(tempDir, "unused")).doesNotExist();
+	}
+
+	@Test
+	public void testNotFound(@TempDir File tempDir) throws IOException {
+		TemplateMachine machine = new TemplateMachine(createContext(tempDir));
+		StringWriter writer = new StringWriter();
+		assertThat(machine.render("dir-1/missing.txt", null, writer)).isFalse();
+		assertThat(machine.render("missing/testfile.txt", null, writer)).isFalse();
+		assertThat(machine.render("dir-1/__templates/template.ftl", null, writer)).isFalse();
+		assertThat(machine.render("dir-1/../../lang-data.txt", null, writer)).isFalse();
+		assertThat(writer.toString()).isEmpty();
+		assertThatThrownBy(() -> machine.render("dir-1/dir-11/testfile.txt", "fr", writer)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void testDefaultLanguage(@TempDir File tempDir) throws IOException {
+		File configFile = new File(TEMPLATE_DIR, "template-machine.properties");
+		Properties config = TemplateMachine.load(configFile);
+		config.setProperty("languages", "en=de,es,de");
+		Context context = new Context(TEMPLATE_DIR, tempDir, TEMPLATE_DIR, config);
+		context.setReadEncoding(ENCODING);
+		context.setWriteEncoding(ENCODING);
+		context.ignoreFile(configFile);
+		TemplateMachine machine = new TemplateMachine(context);
+
+		// The first language in configuration order is used
+		StringWriter first = new StringWriter();
+		StringWriter en    = new StringWriter();
+		StringWriter es    = new StringWriter();
+		assertThat(machine.render("dir-1/dir-11/testfile.txt", null, first)).isTrue();
+		assertThat(machine.render("dir-1/dir-11/testfile.txt", "en", en)).isTrue();
+		assertThat(machine.render("dir-1/dir-11/testfile.txt", "es", es)).isTrue();
+		assertThat(first.toString()).isEqualTo(en.toString()).isNotEqualTo(es.toString());
+	}
+
+	protected static Context createContext(File targetDir) throws IOException {
+		return TestFixtures.createContext(TEMPLATE_DIR, targetDir);
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static templating.util.TestFixtures.createContext;
+import static templating.util.TestFixtures.readDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.BuildManifest;
+import templating.util.DirFinder;
+import templating.util.GenerationInfo;
+import templating.util.Shard;
+
+/**
+ * Tests generation split into shards.
+ * @author ralph
+ *
+ */
+public class ShardTest {
+
+	public static File TEMPLATE_DIR = null;
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testPartition() {
+		Shard shards[] = { new Shard(1, 3), new Shard(2, 3), new Shard(3, 3) };
+		int owned[] = new int[shards.length];
+		for (int i=0; i<100; i++) {
+			for (String language : new String[] { "de", "en", "es" }) {
+				int owners = 0;
+				for (int s=0; s<shards.length; s++) {
+					if (shards[s].owns("dir-"+i+"/testfile.txt", language)) {
+						owners++;
+						owned[s]++;
+					}
+				}
+				assertThat(owners).isEqualTo(1);
+			}
+		}
+		for (int count : owned) assertThat(count).isGreaterThan(50);
+		assertThat(Shard.parse("2/4").getIndex()).isEqualTo(2);
+		assertThat(Shard.parse("2/4").getCount()).isEqualTo(4);
+		assertThatThrownBy(() -> Shard.parse("5/4")).isInstanceOf(TemplatingException.class);
+		assertThatThrownBy(() -> Shard.parse("2")).isInstanceOf(TemplatingException.class);
+	}
+
+	@Test
+	public void testSharded(@TempDir File tempDir) throws IOException {
+		File referenceDir = new File(tempDir, "reference");
+		GenerationInfo reference = new TemplateMachine(createContext(TEMPLATE_DIR, referenceDir)).generate();
+
+		File targetDir = new File(tempDir, "target");
+		int files = 0;
+		for (int i=1; i<=3; i++) {
+			TemplateMachine machine = new TemplateMachine(createContext(TEMPLATE_DIR, targetDir));
+			machine.setShard(new Shard(i, 3));
+			files += machine.generate().getFiles();
+		}
+		assertThat(files).isEqualTo(reference.getFiles());
+		GenerationInfo info = new TemplateMachine(createContext(TEMPLATE_DIR, targetDir)).mergeShards(3);
+		assertThat(info.getFiles()).isEqualTo(reference.getFiles());
+		assertThat(info.getLanguages()).isEqualTo(reference.getLanguages());
+		assertThat(readDir(targetDir)).isEqualTo(readDir(referenceDir));
+	}
+
+	@Test
+	public void testIncremental(@TempDir File tempDir) throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+		generateShards(sourceDir, targetDir, 2);
+		assertThat(new File(targetDir, BuildManifest.FILENAME)).isFile();
+		assertThat(readDir(targetDir)).hasSize(12);
+
+		// Nothing changed
+		GenerationInfo info = generateShards(sourceDir, targetDir, 2);
+		assertThat(info.getSkippedFiles()).isEqualTo(info.getFiles());
+
+		// Remove a template
+		FileUtils.delete(new File(sourceDir, "dir-2/dir-22/testfile.txt"));
+		generateShards(sourceDir, targetDir, 2);
+		assertThat(readDir(targetDir)).hasSize(9).doesNotContainKey("dir-2/dir-22/de/testfile.txt");
+		assertThat(targetDir.list()).noneMatch(name -> name.startsWith(Shard.FILENAME_PREFIX));
+
+		// Unfinished shards cannot be merged
+		TemplateMachine machine = new TemplateMachine(createContext(sourceDir, targetDir));
+		machine.setIncremental(true);
+		machine.setShard(new Shard(1, 2));
+		machine.generate();
+		assertThatThrownBy(() -> new TemplateMachine(createContext(sourceDir, targetDir)).mergeShards(2)).isInstanceOf(TemplatingException.class);
+	}
+
+	protected static GenerationInfo generateShards(File sourceDir, File targetDir, int count) throws IOException {
+		for (int i=1; i<=count; i++) {
+			TemplateMachine machine = new TemplateMachine(createContext(sourceDir, targetDir));
+			machine.setIncremental(true);
+			machine.setShard(new Shard(i, count));
+			machine.generate();
+		}
+		return new TemplateMachine(createContext(sourceDir, targetDir)).mergeShards(count);
+	}
+}
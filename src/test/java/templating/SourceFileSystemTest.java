@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.DirFinder;
+import templating.util.GenerationInfo;
+
+/**
+ * Tests generating from a source tree in a non-default file system.
+ * @author ralph
+ *
+ */
+public class SourceFileSystemTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testZipFileSystem(@TempDir File tempDir) throws IOException {
+		// Pack the source tree into a zip file
+		Path zipFile = new File(tempDir, "templates.zip").toPath();
+		try (FileSystem zip = FileSystems.newFileSystem(zipFile, Map.of("create", "true"))) {
+			copy(TEMPLATE_DIR.toPath(), zip.getPath("/"));
+		}
+
+		// Generate from the directory
+		File expectedDir = new File(tempDir, "expected");
+		Context dirContext = new Context(TEMPLATE_DIR, expectedDir, TEMPLATE_DIR, TemplateMachine.load(new File(TEMPLATE_DIR, "template-machine.properties")));
+		dirContext.setReadEncoding(ENCODING);
+		dirContext.setWriteEncoding(ENCODING);
+		dirContext.ignoreFile(new File(TEMPLATE_DIR, "template-machine.properties"));
+		new TemplateMachine(dirContext).generate();
+
+		// Generate from the zip file
+		File targetDir = new File(tempDir, "target");
+		try (FileSystem zip = FileSystems.newFileSystem(zipFile)) {
+			Path sourceDir  = zip.getPath("/");
+			Path configFile = sourceDir.resolve("template-machine.properties");
+			Context rootContext = new Context(sourceDir, targetDir, sourceDir, TemplateMachine.load(configFile));
+			rootContext.setReadEncoding(ENCODING);
+			rootContext.setWriteEncoding(ENCODING);
+			rootContext.ignoreFile(configFile);
+			GenerationInfo info = new TemplateMachine(rootContext).generate();
+			assertThat(info.getFiles()).isEqualTo(12);
+		}
+
+		Collection<File> expected = FileUtils.listFiles(expectedDir, null, true);
+		assertThat(expected).hasSize(12);
+		assertThat(FileUtils.listFiles(targetDir, null, true)).hasSize(12);
+		for (File file : expected) {
+			File generated = new File(targetDir, expectedDir.toPath().relativize(file.toPath()).toString());
+			assertThat(generated).hasSameTextualContentAs(file);
+		}
+	}
+
+	protected static void copy(Path sourceDir, Path targetDir) throws IOException {
+		try (Stream<Path> paths = Files.walk(sourceDir)) {
+			for (Path path : (Iterable<Path>)paths::iterator) {
+				Path target = targetDir.resolve(sourceDir.relativize(path).toString().replace(File.separatorChar, '/'));
+				if (Files.isDirectory(path)) {
+					Files.createDirectories(target);
+				} else {
+					Files.copy(path, target);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.DirFinder;
+import templating.util.GenerationInfo;
+import templating.util.GenerationListener;
+
+/**
+ * Tests that sub dir generation reads only directories on the path to the sub dir.
+ * @author ralph
+ *
+ */
+public class SubDirScopeTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testScope(@TempDir File targetDir) throws IOException {
+		File configFile = new File(TEMPLATE_DIR, "template-machine.properties");
+		File subDir     = new File(TEMPLATE_DIR, "dir-1/dir-11");
+		Context rootContext = new Context(TEMPLATE_DIR, targetDir, subDir, TemplateMachine.load(configFile));
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.ignoreFile(configFile);
+		TemplateMachine machine = new TemplateMachine(rootContext);
+
+		List<String> loaded = Collections.synchronizedList(new ArrayList<>());
+		machine.setListener(new GenerationListener() {
+			@Override
+			public void contextLoaded(Path sourceDir, long nanos) {
+				loaded.add(TEMPLATE_DIR.toPath().relativize(sourceDir).toString().replace('\\', '/'));
+			}
+		});
+		GenerationInfo info = machine.generate();
+
+		assertThat(loaded).containsExactly("dir-1", "dir-1/dir-11");
+		assertThat(info.getFiles()).isEqualTo(3);
+		assertThat(FileUtils.listFiles(targetDir, null, true)).hasSize(3);
+	}
+
+	@Test
+	public void testSymbolicLink(@TempDir File tempDir) throws IOException {
+		// The source root is given through a link, the sub dir by its real path
+		File sourceDir = new File(tempDir, "source");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+		Path link = Files.createSymbolicLink(new File(tempDir, "link").toPath(), sourceDir.toPath());
+		File targetDir  = new File(tempDir, "target");
+		File configFile = new File(sourceDir, "template-machine.properties");
+		Context rootContext = new Context(link, targetDir, new File(sourceDir, "dir-1/dir-11").toPath(), TemplateMachine.load(configFile));
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.ignoreFile(link.resolve("template-machine.properties"));
+		GenerationInfo info = new TemplateMachine(rootContext).generate();
+
+		assertThat(info.getFiles()).isEqualTo(3);
+		assertThat(new File(targetDir, "dir-1/dir-11/de/testfile.txt")).isFile();
+		assertThat(new File(targetDir, "dir-2")).doesNotExist();
+	}
+}
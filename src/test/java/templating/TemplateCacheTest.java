@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+import templating.util.DirFinder;
+import templating.util.SharedTemplateCache;
+import templating.util.TemplateSource;
+
+/**
+ * Tests that macro templates are parsed once per run.
+ * @author ralph
+ *
+ */
+public class TemplateCacheTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testParsedOnce(@TempDir File targetDir) throws IOException {
+		File configFile = new File(TEMPLATE_DIR, "template-machine.properties");
+		Context rootContext = new Context(TEMPLATE_DIR, targetDir, TEMPLATE_DIR, TemplateMachine.load(configFile));
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.ignoreFile(configFile);
+		TemplateMachine machine = new TemplateMachine(rootContext);
+		machine.generate();
+
+		// 4 directories define 2 macro files each, all are used
+		SharedTemplateCache cache = machine.getTemplateCache();
+		assertThat(cache.size()).isEqualTo(8);
+		assertThat(cache.getMisses()).isEqualTo(8);
+		// 4 files in 3 languages importing 2 macro files each
+		assertThat(cache.getHits()).isEqualTo(4*3*2-8);
+
+		// A second run will not parse again
+		machine.generate();
+		assertThat(cache.getMisses()).isEqualTo(8);
+	}
+
+	@Test
+	public void testBounded() throws IOException {
+		SharedTemplateCache cache = new SharedTemplateCache(2);
+		Configuration config = new Configuration(Configuration.VERSION_2_3_29);
+		Path file = Path.of("template.ftl");
+		TemplateSource v1 = new TemplateSource("template.ftl", file, "<#macro v>1</#macro>");
+		TemplateSource v2 = new TemplateSource("template.ftl", file, "<#macro v>2</#macro>");
+		TemplateSource v3 = new TemplateSource("template.ftl", file, "<#macro v>3</#macro>");
+		cache.put(v1, new Template("template.ftl", v1.getContent(), config));
+		cache.put(v2, new Template("template.ftl", v2.getContent(), config));
+		assertThat(cache.get(v1)).isNotNull();
+		// The least recently used version is removed
+		cache.put(v3, new Template("template.ftl", v3.getContent(), config));
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(cache.get(v2)).isNull();
+		assertThat(cache.get(v1)).isNotNull();
+		assertThat(cache.get(v3)).isNotNull();
+	}
+
+	@Test
+	public void testReadOnDemand(@TempDir File tempDir) throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+		FileUtils.writeStringToFile(new File(sourceDir, "__templates/unused.ftl"), "<#macro unused></#macro>", ENCODING);
+		File configFile = new File(sourceDir, "template-machine.properties");
+		Context rootContext = new Context(sourceDir, new File(tempDir, "target"), sourceDir, TemplateMachine.load(configFile));
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.ignoreFile(configFile);
+		new TemplateMachine(rootContext).generate();
+
+		Map<String,TemplateSource> templates = rootContext.getLocalTemplates();
+		assertThat(templates).containsOnlyKeys("template.ftl", "sub/template.ftl", "unused.ftl");
+		assertThat(templates.get("template.ftl").isLoaded()).isTrue();
+		assertThat(templates.get("unused.ftl").isLoaded()).isFalse();
+
+		// The compatible accessor includes the templates of the parents
+		Context child = new Context(rootContext, new File(sourceDir, "dir-1"), new File(tempDir, "target/dir-1"));
+		@SuppressWarnings("deprecation")
+		Properties all = child.getTemplates();
+		assertThat(all.getProperty("unused.ftl")).isEqualTo("<#macro unused></#macro>");
+	}
+}
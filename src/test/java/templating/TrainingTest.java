@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the sample tree of the training run.
+ * @author ralph
+ *
+ */
+public class TrainingTest {
+
+	@Test
+	public void testTree(@TempDir File tempDir) throws IOException {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		Training.createTree(sourceDir);
+		File configFile = new File(sourceDir, "template-machine.properties");
+		Context context = new Context(sourceDir, targetDir, sourceDir, TemplateMachine.load(configFile));
+		context.setReadEncoding(StandardCharsets.UTF_8);
+		context.setWriteEncoding(StandardCharsets.UTF_8);
+		context.ignoreFile(configFile);
+		assertThat(new TemplateMachine(context).generate().getFiles()).isEqualTo(16);
+		assertThat(FileUtils.readFileToString(new File(targetDir, "dir-1/dir-11/de/index.html"), StandardCharsets.UTF_8))
+			.contains("<title>Servus aus dir-1/dir-11</title>").contains("3. IHRE BESTELLUNG");
+		assertThat(FileUtils.readFileToString(new File(targetDir, "dir-2/en/mail.txt"), StandardCharsets.UTF_8))
+			.contains("Subject: =?UTF-8?Q?Your_order?=");
+		assertThat(new File(targetDir, "dir-2/fr")).doesNotExist();
+	}
+
+	@Test
+	public void testTrainWithOptions(@TempDir File tempDir) throws IOException {
+		// --train is not silently ignored when combined with a generation
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		Training.createTree(sourceDir);
+		TemplateMachine.main(new String[] { "--train", "-t", sourceDir.getAbsolutePath(), "-o", targetDir.getAbsolutePath() });
+		assertThat(targetDir).doesNotExist();
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ */
+package templating;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import templating.util.BuildManifest;
+import templating.util.DirFinder;
+import templating.util.FileSink;
+import templating.util.GenerationInfo;
+
+/**
+ * Tests the watch mode.
+ * @author ralph
+ *
+ */
+public class WatcherTest {
+
+	public static File TEMPLATE_DIR = null;
+	public static Charset ENCODING  = Charset.forName("UTF-8");
+
+	static {
+		try {
+			TEMPLATE_DIR = new File(DirFinder.findDir("lang-data").toURI());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot find TEMPLATE_DIR", e);
+		}
+	}
+
+	@Test
+	public void testWatch(@TempDir File tempDir) throws Exception {
+		File sourceDir = new File(tempDir, "source");
+		File targetDir = new File(tempDir, "target");
+		FileUtils.copyDirectory(TEMPLATE_DIR, sourceDir);
+
+		File configFile = new File(sourceDir, "template-machine.properties");
+		Context rootContext = new Context(sourceDir, targetDir, sourceDir, TemplateMachine.load(configFile));
+		rootContext.setReadEncoding(ENCODING);
+		rootContext.setWriteEncoding(ENCODING);
+		rootContext.ignoreFile(configFile);
+
+		// Count the runs of the output sink
+		AtomicInteger opened = new AtomicInteger();
+		AtomicInteger closed = new AtomicInteger();
+		TemplateMachine machine = new TemplateMachine(rootContext);
+		machine.setOutputSink(new FileSink() {
+			@Override
+			public void open() {
+				opened.incrementAndGet();
+				super.open();
+			}
+
+			@Override
+			public void close() throws IOException {
+				closed.incrementAndGet();
+				super.close();
+			}
+		});
+
+		try (Watcher watcher = new Watcher(machine)) {
+			watcher.setDebounceMillis(100);
+			GenerationInfo info = watcher.start();
+			assertThat(info.getFiles()).isEqualTo(12);
+			Thread thread = new Thread(() -> {
+				try {
+					watcher.watch();
+				} catch (IOException | InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			thread.start();
+
+			// Change a localization
+			File output = new File(targetDir, "dir-1/dir-11/de/testfile.txt");
+			FileUtils.writeStringToFile(new File(sourceDir, "dir-1/dir-11/__localization/de.properties"), "\nvalue1 = changed", ENCODING, true);
+			waitFor(() -> read(output).contains("changed"));
+
+			// Remove a template
+			File removed = new File(targetDir, "dir-2/dir-22/de/testfile.txt");
+			assertThat(removed).isFile();
+			FileUtils.delete(new File(sourceDir, "dir-2/dir-22/testfile.txt"));
+			waitFor(() -> !removed.exists());
+
+			// Add templates in other directories, the removed file must not return to the manifest
+			FileUtils.writeStringToFile(new File(sourceDir, "dir-2/added.txt"), "added", ENCODING);
+			waitFor(() -> new File(targetDir, "dir-2/de/added.txt").isFile());
+			waitFor(() -> getManifestEntry(targetDir, "dir-2/de/added.txt") != null);
+			assertThat(getManifestEntry(targetDir, "dir-2/dir-22/de/testfile.txt")).isNull();
+			FileUtils.writeStringToFile(new File(sourceDir, "dir-1/added.txt"), "added", ENCODING);
+			waitFor(() -> getManifestEntry(targetDir, "dir-1/de/added.txt") != null);
+			assertThat(getManifestEntry(targetDir, "dir-2/dir-22/de/testfile.txt")).isNull();
+			assertThat(getManifestEntry(targetDir, "dir-2/de/added.txt")).isNotNull();
+
+			// Each batch is a run of the output sink
+			waitFor(() -> closed.get() == watcher.getBatches()+1);
+			assertThat(opened.get()).isEqualTo(closed.get());
+
+			watcher.close();
+			thread.join(10000);
+			assertThat(thread.isAlive()).isFalse();
+		}
+	}
+
+	protected static String read(File file) {
+		try {
+			return file.isFile() ? FileUtils.readFileToString(file, ENCODING) : "";
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	/** Reads an entry of the saved manifest, {@code null} when it cannot be read (yet) */
+	protected static BuildManifest.Entry getManifestEntry(File targetDir, String path) {
+		try {
+			BuildManifest manifest = new BuildManifest(targetDir);
+			manifest.load();
+			return manifest.getPrevious(path);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	protected static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 30000;
+		while (!condition.getAsBoolean()) {
+			assertThat(System.currentTimeMillis()).withFailMessage("Timeout while waiting for regeneration").isLessThan(timeout);
+			Thread.sleep(50);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package templating.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the single-pass scan of a source tree.
+ * @author ralph
+ *
+ */
+public class DirectorySnapshotTest {
+
+	@Test
+	public void testScan(@TempDir Path tempDir) throws IOException {
+		Path dir1 = Files.createDirectories(tempDir.resolve("dir-1/sub"));
+		Path file = Files.write(tempDir.resolve("dir-1/file.txt"), "content".getBytes(StandardCharsets.UTF_8));
+		Files.write(dir1.resolve("other.txt"), new byte[3]);
+
+		DirectorySnapshot snapshot = DirectorySnapshot.create(tempDir, dir -> true);
+		assertThat(snapshot.getRoot()).isEqualTo(tempDir);
+		assertThat(snapshot.size()).isEqualTo(5);
+		assertThat(snapshot.isListed(tempDir.resolve("dir-1"))).isTrue();
+		assertThat(snapshot.list(tempDir.resolve("dir-1"))).containsOnlyKeys(dir1.getParent().resolve("sub"), file);
+		assertThat(snapshot.getAttributes(file).isRegularFile()).isTrue();
+		assertThat(snapshot.getAttributes(file).size()).isEqualTo(7);
+		assertThat(snapshot.isReadable(file)).isTrue();
+		assertThat(snapshot.list(file)).isNull();
+	}
+
+	@Test
+	public void testMissing(@TempDir Path tempDir) throws IOException {
+		Files.createDirectories(tempDir.resolve("dir-1"));
+		Path file = Files.write(tempDir.resolve("file.txt"), new byte[0]);
+
+		DirectorySnapshot snapshot = DirectorySnapshot.create(tempDir, dir -> true);
+		Path missing = tempDir.resolve("dir-1/de/file.txt");
+		assertThat(snapshot.covers(missing)).isTrue();
+		assertThat(snapshot.getAttributes(missing)).isNull();
+		assertThat(snapshot.covers(file.resolve("child"))).isTrue();
+		assertThat(snapshot.getAttributes(file.resolve("child"))).isNull();
+		assertThat(snapshot.covers(tempDir.getParent().resolve("other"))).isFalse();
+	}
+
+	@Test
+	public void testNotEntered(@TempDir Path tempDir) throws IOException {
+		Path skipped = Files.createDirectories(tempDir.resolve("skipped/sub"));
+		Path entered = Files.createDirectories(tempDir.resolve("entered"));
+
+		DirectorySnapshot snapshot = DirectorySnapshot.create(tempDir, dir -> !dir.getFileName().toString().equals("skipped"));
+		assertThat(snapshot.isListed(entered)).isTrue();
+		assertThat(snapshot.isListed(skipped.getParent())).isFalse();
+		assertThat(snapshot.getAttributes(skipped.getParent()).isDirectory()).isTrue();
+		assertThat(snapshot.isReadable(skipped.getParent())).isNull();
+		assertThat(snapshot.covers(skipped)).isFalse();
+		assertThat(snapshot.getAttributes(skipped)).isNull();
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package templating.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests reading files with and without byte order marks.
+ * @author ralph
+ *
+ */
+public class FileReadUtilsTest {
+
+	protected static final String CONTENT = "<#-- Vorlage -->\nHätte ich és èvel € 💼\n";
+
+	@Test
+	public void testBom(@TempDir File tempDir) throws IOException {
+		byte utf8Bom[] = { (byte)0xEF, (byte)0xBB, (byte)0xBF };
+		assertRead(tempDir, CONTENT.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8, CONTENT);
+		assertRead(tempDir, concat(utf8Bom, CONTENT.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, CONTENT);
+		assertRead(tempDir, concat(new byte[] { (byte)0xFE, (byte)0xFF }, CONTENT.getBytes(StandardCharsets.UTF_16BE)), StandardCharsets.UTF_16BE, CONTENT);
+		assertRead(tempDir, concat(new byte[] { (byte)0xFF, (byte)0xFE }, CONTENT.getBytes(StandardCharsets.UTF_16LE)), StandardCharsets.UTF_16LE, CONTENT);
+		// BOMs are not skipped for other encodings
+		assertRead(tempDir, concat(utf8Bom, "H\u00e4tte".getBytes(StandardCharsets.ISO_8859_1)), StandardCharsets.ISO_8859_1, "\u00ef\u00bb\u00bfH\u00e4tte");
+		// Empty and BOM-only files
+		assertRead(tempDir, utf8Bom, StandardCharsets.UTF_8, "");
+		assertRead(tempDir, new byte[0], StandardCharsets.UTF_8, "");
+	}
+
+	@Test
+	public void testLargeFile(@TempDir File tempDir) throws IOException {
+		StringBuilder content = new StringBuilder();
+		while (content.length() < 1024*1024) content.append(CONTENT);
+		File file = new File(tempDir, "large.txt");
+		FileUtils.writeStringToFile(file, content.toString(), StandardCharsets.UTF_8);
+		assertThat(FileReadUtils.readFile(file, StandardCharsets.UTF_8)).isEqualTo(content.toString());
+	}
+
+	@Test
+	public void testUnicodeInputStream(@TempDir File tempDir) throws IOException {
+		File file = new File(tempDir, "bom.txt");
+		Files.write(file.toPath(), concat(new byte[] { (byte)0xEF, (byte)0xBB, (byte)0xBF }, CONTENT.getBytes(StandardCharsets.UTF_8)));
+		try (UnicodeInputStream in = new UnicodeInputStream(Files.newInputStream(file.toPath()), "UTF-8")) {
+			assertThat(in.getEncoding()).isEqualTo("UTF-8");
+			StringWriter out = new StringWriter();
+			try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+				IOUtils.copy(reader, out);
+			}
+			assertThat(out.toString()).isEqualTo(CONTENT);
+		}
+	}
+
+	/** Writes the bytes and reads them back */
+	protected static void assertRead(File dir, byte bytes[], Charset encoding, String expected) throws IOException {
+		File file = new File(dir, "test.txt");
+		Files.write(file.toPath(), bytes);
+		assertThat(FileReadUtils.readFile(file, encoding)).isEqualTo(expected);
+		try (Reader reader = FileReadUtils.getReader(file, encoding)) {
+			assertThat(IOUtils.toString(reader)).isEqualTo(expected);
+		}
+	}
+
+	protected static byte[] concat(byte a[], byte b[]) {
+		byte rc[] = new byte[a.length+b.length];
+		System.arraycopy(a, 0, rc, 0, a.length);
+		System.arraycopy(b, 0, rc, a.length, b.length);
+		return rc;
+	}
+}
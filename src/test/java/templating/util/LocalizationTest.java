@@ -0,0 +1,48 @@
+/**
+ *
+ */
+package templating.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the layered localization.
+ * @author ralph
+ *
+ */
+public class LocalizationTest {
+
+	@Test
+	public void testPrecedence() {
+		Localization parentKey     = Localization.of(map("value1", "parentKey", "value2", "parentKey", "value3", "parentKey"));
+		Localization parentLoadKey = Localization.of(map("value1", "parentLoadKey", "value2", "parentLoadKey"));
+		Localization local         = Localization.of(map("value1", "local"), parentLoadKey, parentKey);
+		assertThat(local.get("value1")).isEqualTo("local");
+		assertThat(local.get("value2")).isEqualTo("parentLoadKey");
+		assertThat(local.get("value3")).isEqualTo("parentKey");
+		assertThat(local.get("value4")).isNull();
+		assertThat(local).hasSize(3).containsEntry("value2", "parentLoadKey");
+		assertThat(local.getLocalValues()).containsOnlyKeys("value1");
+	}
+
+	@Test
+	public void testSharing() {
+		Localization parent = Localization.of(map("value1", "parent"));
+		assertThat(Localization.of(Collections.emptyMap(), parent)).isSameAs(parent);
+		assertThat(Localization.of(Collections.emptyMap(), parent, parent)).isSameAs(parent);
+		assertThat(Localization.of(Collections.emptyMap(), null, null)).isSameAs(Localization.EMPTY);
+		assertThat(Localization.EMPTY).isEmpty();
+	}
+
+	protected static Map<String,String> map(String... keyValues) {
+		Map<String,String> rc = new HashMap<>();
+		for (int i=0; i<keyValues.length; i+=2) rc.put(keyValues[i], keyValues[i+1]);
+		return rc;
+	}
+}
@@ -5,32 +5,98 @@ package templating.util;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 
+import org.apache.commons.codec.net.BCodec;
+import org.apache.commons.codec.net.QCodec;
 import org.apache.commons.codec.net.QuotedPrintableCodec;
+import org.junit.jupiter.api.Test;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
 
 /**
- * Tests the Quoted Printable Codec
+ * Tests the RFC 1342/2047 encoding
  * @author ralph
  *
  */
 public class Rfc1342DirectiveTest {
 
-	//@Test
+	protected static final String LONG_TEXT = "Atualiza\u00e7\u00e3o do estado: Ihr Gep\u00e4ck \ud83d\udcbc ist angekommen, "
+		+ "\u65e5\u672c\u8a9e\u306e\u4ef6\u540d \u2014 und noch ein paar W\u00f6rter, damit gefaltet werden muss \ud83d\ude80";
+
+	@Test
 	public void testPortuguese() throws Exception {
 		String decoded = "Atualização do estado: A sua bagagem atrasada chegou ao aeroporto e está disponível para levantamento";
 		String encoded = "Atualiza=C3=A7=C3=A3o do estado: A sua bagagem atrasada chegou ao aeroporto e est=C3=A1 dispon=C3=ADvel para levantamento";
 		
-		assertThat(encode(decoded)).isEqualTo(encoded);
+		assertThat(encode(decoded, Rfc2047Writer.Encoding.Q, false, false)).isEqualTo("=?UTF-8?Q?"+encoded+"?=");
 	}
-	
-	protected static String encode(String s) throws Exception {
-		//Rfc1342Directive encoder = new Rfc1342Directive();
+
+	@Test
+	public void testCompatibility() throws Exception {
+		// Same output as the quoted-printable codec, even when surrogate pairs are split between writes
 		QuotedPrintableCodec codec = new QuotedPrintableCodec(StandardCharsets.UTF_8, false);
-		String rc = codec.encode(s);
-		//rc = rc.replace(" ", "_");
-		System.out.println(s);
-		System.out.println(rc);
-		return rc;
+		StringWriter out = new StringWriter();
+		Rfc2047Writer writer = new Rfc2047Writer(out, Rfc2047Writer.Encoding.Q, false, false, null);
+		writer.start();
+		for (int i=0; i<LONG_TEXT.length(); i+=3) writer.write(LONG_TEXT, i, Math.min(3, LONG_TEXT.length()-i));
+		writer.end();
+		assertThat(out.toString()).isEqualTo("=?UTF-8?Q?"+codec.encode(LONG_TEXT)+"?=");
+	}
+
+	@Test
+	public void testStrict() throws Exception {
+		assertThat(encode("H\u00e4tte ich \u00e9s \u00e8vel?", Rfc2047Writer.Encoding.Q, true, false)).isEqualTo("=?UTF-8?Q?H=C3=A4tte_ich_=C3=A9s_=C3=A8vel=3F?=");
+		assertThat(encode("a_b=c", Rfc2047Writer.Encoding.Q, true, false)).isEqualTo("=?UTF-8?Q?a=5Fb=3Dc?=");
+	}
+
+	@Test
+	public void testFoldingQ() throws Exception {
+		String encoded = encode(LONG_TEXT, Rfc2047Writer.Encoding.Q, true, true);
+		assertThat(decode(encoded, new QCodec())).isEqualTo(LONG_TEXT);
+	}
+
+	@Test
+	public void testFoldingB() throws Exception {
+		String encoded = encode(LONG_TEXT, Rfc2047Writer.Encoding.B, true, false);
+		assertThat(encoded).startsWith("=?UTF-8?B?");
+		assertThat(decode(encoded, new BCodec())).isEqualTo(LONG_TEXT);
+		assertThat(encode("Hallo", Rfc2047Writer.Encoding.B, true, true)).isEqualTo("=?UTF-8?B?SGFsbG8=?=");
+	}
+
+	@Test
+	public void testDirective() throws Exception {
+		Configuration config = new Configuration(Configuration.VERSION_2_3_29);
+		config.setSharedVariable("qp", new Rfc1342Directive(false));
+		config.setSharedVariable("rfc2047B", new Rfc1342Directive(Rfc2047Writer.Encoding.B, true, true));
+		Template template = new Template("test", new StringReader("<@qp>H\u00e4tte ${name}</@qp> <@rfc2047B separator=\" \">${name}</@rfc2047B>"), config);
+		StringWriter out = new StringWriter();
+		template.process(Collections.singletonMap("name", "\u00e9s"), out);
+		assertThat(out.toString()).isEqualTo("=?UTF-8?Q?H=C3=A4tte =C3=A9s?= =?UTF-8?B?w6lz?=");
+	}
+
+	protected static String encode(String s, Rfc2047Writer.Encoding encoding, boolean strict, boolean fold) throws Exception {
+		StringWriter out = new StringWriter();
+		Rfc2047Writer writer = new Rfc2047Writer(out, encoding, strict, fold, null);
+		writer.start();
+		writer.write(s);
+		writer.end();
+		return out.toString();
+	}
+
+	/** Decodes all folded encoded-words and checks their length */
+	protected static String decode(String encoded, Object codec) throws Exception {
+		StringBuilder rc = new StringBuilder();
+		String words[] = encoded.split(Rfc2047Writer.DEFAULT_SEPARATOR);
+		for (String word : words) {
+			assertThat(word.length()).isLessThanOrEqualTo(Rfc2047Writer.MAX_WORD_LENGTH);
+			rc.append(codec instanceof QCodec ? ((QCodec)codec).decode(word) : ((BCodec)codec).decode(word));
+		}
+		assertThat(words.length).isGreaterThan(1);
+		return rc.toString();
 	}
 }
@@ -0,0 +1,58 @@
+package templating.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import templating.Context;
+import templating.TemplateMachine;
+
+/**
+ * Creates contexts for test trees and reads generated output.
+ * @author ralph
+ *
+ */
+public class TestFixtures {
+
+	public static Charset ENCODING = Charset.forName("UTF-8");
+
+	/**
+	 * Creates the root context of a source tree with its configuration file.
+	 * @param sourceDir - the source tree, holding a {@code template-machine.properties}
+	 * @param targetDir - the output directory
+	 * @return the context, reading and writing UTF-8
+	 * @throws IOException - when the configuration cannot be read
+	 */
+	public static Context createContext(File sourceDir, File targetDir) throws IOException {
+		File configFile = new File(sourceDir, "template-machine.properties");
+		Context rc = new Context(sourceDir, targetDir, sourceDir, TemplateMachine.load(configFile));
+		rc.setReadEncoding(ENCODING);
+		rc.setWriteEncoding(ENCODING);
+		rc.ignoreFile(configFile);
+		return rc;
+	}
+
+	/**
+	 * Reads all generated files of a directory.
+	 * <p>Files whose name starts with a dot are not generated output (e.g. the manifest, the render times
+	 * or the results of shards) and are not included.</p>
+	 * @param dir - the output directory
+	 * @return the content of the files by their relative path with forward slashes
+	 * @throws IOException - when a file cannot be read
+	 */
+	public static Map<String,String> readDir(File dir) throws IOException {
+		Map<String,String> rc = new TreeMap<>();
+		Collection<File> files = FileUtils.listFiles(dir, null, true);
+		for (File file : files) {
+			if (file.getName().startsWith(".")) continue;
+			rc.put(FilenameUtils.separatorsToUnix(dir.toPath().relativize(file.toPath()).toString()), FileUtils.readFileToString(file, ENCODING));
+		}
+		return rc;
+	}
+}